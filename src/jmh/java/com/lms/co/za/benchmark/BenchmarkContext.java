@@ -0,0 +1,82 @@
+package com.lms.co.za.benchmark;
+
+import com.lms.co.za.LibraryManagementSystemApplication;
+import com.lms.co.za.lookup.BookMisses;
+import com.lms.co.za.search.BookSearchIndex;
+import com.lms.co.za.search.BookSearchIndexLoader;
+import com.lms.co.za.support.BookDataGenerator;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Starts the application for a benchmark trial against its own in-memory database, unless a spring.datasource.url is
+ * given, and quiet logging, without a web server unless the benchmark drives the http endpoints.
+ */
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(String... properties) {
+        return start("none", properties);
+    }
+
+    /**
+     * Starts tomcat on a random port, read it back with {@link #port(ConfigurableApplicationContext)}.
+     */
+    static ConfigurableApplicationContext startWeb(String... properties) {
+        List<String> webProperties = new ArrayList<>(Arrays.asList(properties));
+        webProperties.add("server.port=0");
+        return start("servlet", webProperties.toArray(new String[0]));
+    }
+
+    static int port(ConfigurableApplicationContext context) {
+        return Integer.parseInt(context.getEnvironment().getRequiredProperty("local.server.port"));
+    }
+
+    private static ConfigurableApplicationContext start(String webApplicationType, String... properties) {
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        List<String> args = new ArrayList<>(Arrays.asList(
+                "--spring.main.web-application-type=" + webApplicationType,
+                "--spring.main.banner-mode=off",
+                "--spring.h2.console.enabled=false",
+                "--logging.file.name=target/benchmark.log",
+                "--logging.level.root=warn",
+                "--logging.level.web=warn",
+                "--logging.level.sql=warn"));
+        //a repeated argument would be bound as a comma separated list, so defaults only go in when the property isn't given.
+        addDefault(args, properties, "spring.datasource.url", "jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_ON_EXIT=FALSE");
+        //the http benchmarks send every request from one address, the limits are only on where a benchmark asks for them.
+        addDefault(args, properties, "library.limits.rate.enabled", "false");
+        addDefault(args, properties, "library.limits.concurrency.enabled", "false");
+        for(String property : properties){
+            args.add("--" + property);
+        }
+        return new SpringApplicationBuilder(LibraryManagementSystemApplication.class).run(args.toArray(new String[0]));
+    }
+
+    private static void addDefault(List<String> args, String[] properties, String name, String value) {
+        if(Arrays.stream(properties).noneMatch(property -> property.startsWith(name + "="))){
+            args.add("--" + name + "=" + value);
+        }
+    }
+
+    /**
+     * Replaces the sample data with a generated catalogue and brings caches, the isbn filter and the search index in line with it.
+     */
+    static void load(ConfigurableApplicationContext context, int rows) {
+        BookDataGenerator.generate(context.getBean(JdbcTemplate.class), rows);
+        CacheManager cacheManager = context.getBean(CacheManager.class);
+        cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        context.getBean(BookMisses.class).load();
+        context.getBean(BookSearchIndex.class).clear();
+        context.getBean(BookSearchIndexLoader.class).load();
+    }
+}
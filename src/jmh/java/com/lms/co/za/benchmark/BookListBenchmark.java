@@ -0,0 +1,74 @@
+package com.lms.co.za.benchmark;
+
+import com.lms.co.za.exception.BadRequestException;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.BookPage;
+import com.lms.co.za.service.BookService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole catalogue reads at increasing table sizes, the plain list (cut at library.listing.max-books) against streaming
+ * and walking pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BookListBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int rows;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.start();
+        BenchmarkContext.load(this.context, this.rows);
+        this.bookService = this.context.getBean(BookService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public BookPage getAllBooks() throws ResourceNotFoundException {
+        return this.bookService.getAllBooks();
+    }
+
+    @Benchmark
+    public void streamAllBooks(Blackhole blackhole) {
+        this.bookService.streamAllBooks(blackhole::consume);
+    }
+
+    @Benchmark
+    public void getBooksPages(Blackhole blackhole) throws ResourceNotFoundException, BadRequestException {
+        String cursor = null;
+        do {
+            BookPage bookPage = this.bookService.getBooksPage(cursor, 1000);
+            blackhole.consume(bookPage);
+            cursor = bookPage.getNextCursor();
+        } while(cursor != null);
+    }
+}
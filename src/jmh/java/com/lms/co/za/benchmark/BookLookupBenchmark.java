@@ -0,0 +1,72 @@
+package com.lms.co.za.benchmark;
+
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.service.BookService;
+import com.lms.co.za.support.BookDataGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single book lookups through BookService, with the read-through cache on and off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BookLookupBenchmark {
+
+    @Param({"100000"})
+    int rows;
+
+    @Param({"caffeine", "none"})
+    String cache;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.start("spring.cache.type=" + this.cache);
+        BenchmarkContext.load(this.context, this.rows);
+        this.bookService = this.context.getBean(BookService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public Book getBookById() throws ResourceNotFoundException {
+        return this.bookService.getBookById(ThreadLocalRandom.current().nextLong(this.rows) + 1);
+    }
+
+    @Benchmark
+    public Book getBookByISBN() throws ResourceNotFoundException {
+        return this.bookService.getBookByISBN(BookDataGenerator.isbn(ThreadLocalRandom.current().nextLong(this.rows)));
+    }
+
+    @Benchmark
+    public List<Book> getBooksByAuthorContaining() throws ResourceNotFoundException {
+        return this.bookService.getBooksByAuthorContaining(BookDataGenerator.author(ThreadLocalRandom.current().nextInt(BookDataGenerator.authorCount(this.rows))));
+    }
+}
@@ -0,0 +1,126 @@
+package com.lms.co.za.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.support.BookDataGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Jackson serialization of book lists as done by the controller, no database involved. Compares json with the smile
+ * encoding clients can ask for, each written as is or gzipped the way tomcat compresses a response. The encoded size,
+ * the bytes a response puts on the wire, is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BookSerializationBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    int books;
+
+    @Param({"json", "smile"})
+    String format;
+
+    @Param({"none", "gzip"})
+    String compression;
+
+    private ObjectWriter bookListWriter;
+    private List<Book> bookList;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        //same defaults spring boot applies to the ObjectMapper used by the message converters.
+        ObjectMapper objectMapper = "smile".equals(this.format) ? Jackson2ObjectMapperBuilder.smile().build() : Jackson2ObjectMapperBuilder.json().build();
+        this.bookListWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, Book.class));
+        this.bookList = new ArrayList<>(this.books);
+        for(int i = 0; i < this.books; i++){
+            Book book = BookDataGenerator.book(i, this.books);
+            book.setId(i + 1L);
+            this.bookList.add(book);
+        }
+        CountingOutputStream countingOutputStream = new CountingOutputStream();
+        try {
+            writeToStream(countingOutputStream);
+        }catch (IOException ioException){
+            throw new UncheckedIOException(ioException);
+        }
+        System.out.printf("%n%d books as %s, compression %s: %,d bytes%n", this.books, this.format, this.compression, countingOutputStream.count);
+    }
+
+    @Benchmark
+    public byte[] writeValueAsBytes() throws IOException {
+        if("gzip".equals(this.compression)){
+            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+            writeToStream(byteArrayOutputStream);
+            return byteArrayOutputStream.toByteArray();
+        }
+        return this.bookListWriter.writeValueAsBytes(this.bookList);
+    }
+
+    @Benchmark
+    public void writeToStream() throws IOException {
+        writeToStream(NullOutputStream.INSTANCE);
+    }
+
+    private void writeToStream(OutputStream outputStream) throws IOException {
+        if("gzip".equals(this.compression)){
+            //GZIPOutputStream uses the default deflate level, as tomcat does.
+            try(GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192)){
+                this.bookListWriter.writeValue(gzipOutputStream, this.bookList);
+            }
+            return;
+        }
+        this.bookListWriter.writeValue(outputStream, this.bookList);
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            this.count += len;
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        private static final NullOutputStream INSTANCE = new NullOutputStream();
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.lms.co.za.benchmark;
+
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.StockLevel;
+import com.lms.co.za.service.BookService;
+import com.lms.co.za.support.BookDataGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write throughput through BookService, including stock adjustments on a single hot title from many threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BookWriteBenchmark {
+
+    @Param({"100000"})
+    int rows;
+
+    private final AtomicLong nextIsbn = new AtomicLong();
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+    private String hotIsbn;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ResourceNotFoundException, InsufficientStockException {
+        this.context = BenchmarkContext.start();
+        BenchmarkContext.load(this.context, this.rows);
+        this.bookService = this.context.getBean(BookService.class);
+        this.nextIsbn.set(this.rows);
+        this.hotIsbn = BookDataGenerator.isbn(0);
+        //enough copies that the random walk of checkouts and returns never runs out of stock.
+        this.bookService.adjustStock(this.hotIsbn, 1_000_000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public Book createBook() {
+        Book book = BookDataGenerator.book(this.nextIsbn.getAndIncrement(), this.rows);
+        return this.bookService.createBook(book);
+    }
+
+    @Benchmark
+    public Book updateBook() throws ResourceNotFoundException {
+        long index = ThreadLocalRandom.current().nextLong(this.rows);
+        Book book = BookDataGenerator.book(index, this.rows);
+        book.setQuantity(ThreadLocalRandom.current().nextInt(20));
+        return this.bookService.updateBook(index + 1, book);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public StockLevel adjustStockHotTitle() throws ResourceNotFoundException, InsufficientStockException {
+        //alternate checkouts and returns so the title never runs out of stock.
+        return this.bookService.adjustStock(this.hotIsbn, ThreadLocalRandom.current().nextBoolean() ? 1 : -1);
+    }
+}
@@ -0,0 +1,187 @@
+package com.lms.co.za.benchmark;
+
+import com.lms.co.za.configuration.CacheConfig;
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.LoanStateException;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Loan;
+import com.lms.co.za.service.LoanService;
+import com.lms.co.za.support.BookDataGenerator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checkouts of one hot title. checkoutAndReturn is the steady state through LoanService from 32 threads,
+ * checkoutAndReturnManyTitles the same spread over the whole catalogue, where writers only meet in the change log and
+ * the connection pool, checkoutRush
+ * sends a burst of concurrent checkouts over http at a title with fewer copies than requests, as when a popular book
+ * comes in, and fails the run if any copy is lent twice or left on the shelf. A rush per second times the requests
+ * param is the request throughput, checkedOut and turnedAway split it into 201s and 409s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+//the checkout path goes through most of the application, it takes close to a minute to compile on a small machine.
+@Warmup(iterations = 12, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LoanBenchmark {
+
+    @Param({"10000"})
+    int rows;
+
+    @Param({"2000"})
+    int requests;
+
+    @Param({"100"})
+    int copies;
+
+    private final AtomicLong nextBorrower = new AtomicLong();
+    private ConfigurableApplicationContext context;
+    private LoanService loanService;
+    private JdbcTemplate jdbcTemplate;
+    private HttpClient httpClient;
+    private String checkoutUri;
+    private String hotIsbn;
+    private long hotBookId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.startWeb(
+                //the whole rush is let in, tomcat queues what its threads can't take yet.
+                "server.tomcat.accept-count=" + this.requests,
+                "server.tomcat.threads.max=200",
+                "spring.datasource.hikari.maximum-pool-size=20");
+        BenchmarkContext.load(this.context, this.rows);
+        this.loanService = this.context.getBean(LoanService.class);
+        this.jdbcTemplate = this.context.getBean(JdbcTemplate.class);
+        this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        this.hotIsbn = BookDataGenerator.isbn(0);
+        this.hotBookId = this.jdbcTemplate.queryForObject("SELECT ID FROM BOOKS WHERE ISBN = ?", Long.class, this.hotIsbn);
+        this.checkoutUri = "http://localhost:" + BenchmarkContext.port(this.context) + "/api/library-manager/v1/book/isbn/" + this.hotIsbn + "/loans?borrower=";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Loan checkoutAndReturn(Restock restock) throws ResourceNotFoundException, InsufficientStockException, LoanStateException {
+        Loan loan = this.loanService.checkout(this.hotIsbn, "member-" + this.nextBorrower.getAndIncrement());
+        return this.loanService.returnLoan(loan.getId());
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Loan checkoutAndReturnManyTitles(RestockAll restock) throws ResourceNotFoundException, InsufficientStockException, LoanStateException {
+        String isbn = BookDataGenerator.isbn(ThreadLocalRandom.current().nextInt(this.rows));
+        Loan loan = this.loanService.checkout(isbn, "member-" + this.nextBorrower.getAndIncrement());
+        return this.loanService.returnLoan(loan.getId());
+    }
+
+    @Benchmark
+    public int checkoutRush(Rush rush) {
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(this.requests);
+        for(int i = 0; i < this.requests; i++){
+            HttpRequest request = HttpRequest.newBuilder(URI.create(this.checkoutUri + "rush-" + this.nextBorrower.getAndIncrement()))
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build();
+            responses.add(this.httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+        int checkedOut = 0;
+        for(CompletableFuture<HttpResponse<Void>> response : responses){
+            int status = response.join().statusCode();
+            if(status == 201){
+                checkedOut++;
+            }else if(status != 409){
+                throw new IllegalStateException("checkout answered " + status);
+            }
+        }
+        Integer onShelf = this.jdbcTemplate.queryForObject("SELECT QUANTITY FROM BOOKS WHERE ID = ?", Integer.class, this.hotBookId);
+        if(checkedOut != this.copies || onShelf == null || onShelf != 0){
+            throw new IllegalStateException(checkedOut + " checkouts of " + this.copies + " copies, " + onShelf + " left on the shelf");
+        }
+        rush.checkedOut += checkedOut;
+        rush.turnedAway += this.requests - checkedOut;
+        return checkedOut;
+    }
+
+    /**
+     * Enough copies on the shelf that the checkouts and returns never run out.
+     */
+    @State(Scope.Benchmark)
+    public static class Restock {
+
+        @Setup(Level.Iteration)
+        public void restock(LoanBenchmark benchmark) {
+            benchmark.resetHotTitle(1_000_000);
+        }
+    }
+
+    /**
+     * Enough copies of every title on the shelf that the checkouts and returns never run out.
+     */
+    @State(Scope.Benchmark)
+    public static class RestockAll {
+
+        @Setup(Level.Iteration)
+        public void restock(LoanBenchmark benchmark) {
+            benchmark.jdbcTemplate.update("DELETE FROM LOANS");
+            benchmark.jdbcTemplate.update("UPDATE BOOKS SET QUANTITY = ?", 1_000_000);
+            CacheManager cacheManager = benchmark.context.getBean(CacheManager.class);
+            cacheManager.getCacheNames().forEach(name -> cacheManager.getCache(name).clear());
+        }
+    }
+
+    /**
+     * Puts the copies back on the shelf and clears the loans of the last rush before the next one.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rush {
+        public long checkedOut;
+        public long turnedAway;
+
+        @Setup(Level.Invocation)
+        public void restock(LoanBenchmark benchmark) {
+            benchmark.resetHotTitle(benchmark.copies);
+        }
+    }
+
+    private void resetHotTitle(int quantity) {
+        this.jdbcTemplate.update("DELETE FROM LOANS WHERE BOOK_ID = ?", this.hotBookId);
+        this.jdbcTemplate.update("UPDATE BOOKS SET QUANTITY = ? WHERE ID = ?", quantity, this.hotBookId);
+        CacheManager cacheManager = this.context.getBean(CacheManager.class);
+        cacheManager.getCache(CacheConfig.BOOKS_BY_ID).evict(this.hotBookId);
+        cacheManager.getCache(CacheConfig.BOOKS_BY_ISBN).evict(this.hotIsbn);
+    }
+}
@@ -0,0 +1,106 @@
+package com.lms.co.za.benchmark;
+
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.service.BookService;
+import com.lms.co.za.support.BookDataGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of books that don't exist, as bots and stale links send them, next to a cached hit for comparison. Unknown
+ * ISBNs are never repeated, stale ones come from a small set of ISBNs that are asked for over and over, unknown authors
+ * are searches that match nothing. The 404s are logged the way the application logs them, at warn to the log file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class NotFoundBenchmark {
+
+    private static final int STALE_ISBNS = 100;
+
+    @Param({"100000"})
+    int rows;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+    private HttpClient httpClient;
+    private String baseUri;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.context = BenchmarkContext.startWeb("logging.level.com.lms.co.za=info");
+        BenchmarkContext.load(this.context, this.rows);
+        this.bookService = this.context.getBean(BookService.class);
+        this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        this.baseUri = "http://localhost:" + BenchmarkContext.port(this.context) + "/api/library-manager/v1";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public Book unknownIsbn() {
+        return lookupIsbn(BookDataGenerator.isbn(this.rows + ThreadLocalRandom.current().nextLong(Integer.MAX_VALUE)));
+    }
+
+    @Benchmark
+    public Book staleIsbn() {
+        return lookupIsbn(BookDataGenerator.isbn(this.rows + ThreadLocalRandom.current().nextInt(STALE_ISBNS)));
+    }
+
+    @Benchmark
+    public Book knownIsbn() {
+        return lookupIsbn(BookDataGenerator.isbn(ThreadLocalRandom.current().nextInt(100)));
+    }
+
+    @Benchmark
+    public List<Book> unknownAuthor() {
+        try {
+            return this.bookService.getBooksByAuthorContaining("Nobody " + ThreadLocalRandom.current().nextInt(STALE_ISBNS));
+        }catch (ResourceNotFoundException resourceNotFoundException){
+            return null;
+        }
+    }
+
+    @Benchmark
+    public int unknownIsbnOverHttp() throws IOException, InterruptedException {
+        String isbn = BookDataGenerator.isbn(this.rows + ThreadLocalRandom.current().nextLong(Integer.MAX_VALUE));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(this.baseUri + "/book/isbn/" + isbn)).GET().build();
+        return this.httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private Book lookupIsbn(String isbn) {
+        try {
+            return this.bookService.getBookByISBN(isbn);
+        }catch (ResourceNotFoundException resourceNotFoundException){
+            return null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.lms.co.za.benchmark;
+
+import com.lms.co.za.support.BookDataGenerator;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the blocking and the async request mode over http. Slow clients run author searches (a LIKE scan over
+ * the whole table) while fast clients read a small set of cached books, with more slow clients than tomcat threads.
+ * <p>
+ * In the blocking mode the slow searches hold every tomcat thread and the cached reads queue behind them, in async
+ * mode the searches wait on the book request pool and the cached reads are answered straight away. Compare the
+ * cachedLookup percentiles of the SampleTime run and the ok/rejected counters of the Throughput run between modes.
+ * With concurrencyLimit the author searches are also capped by their adaptive concurrency limit, searches over the
+ * limit are rejected with a 429 instead of queueing for connections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RequestModeBenchmark {
+
+    private static final int HOT_BOOKS = 1000;
+
+    @Param({"100000"})
+    int rows;
+
+    @Param({"false", "true"})
+    boolean async;
+
+    @Param({"16"})
+    int tomcatThreads;
+
+    @Param({"false"})
+    boolean concurrencyLimit;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient httpClient;
+    private String baseUri;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        this.context = BenchmarkContext.startWeb(
+                "library.async.enabled=" + this.async,
+                "library.async.pool-size=8",
+                "library.async.queue-capacity=64",
+                "server.tomcat.threads.max=" + this.tomcatThreads,
+                "library.limits.concurrency.enabled=" + this.concurrencyLimit,
+                "spring.datasource.hikari.maximum-pool-size=10");
+        BenchmarkContext.load(this.context, this.rows);
+        this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        this.baseUri = "http://localhost:" + BenchmarkContext.port(this.context) + "/api/library-manager/v1";
+        for(int id = 1; id <= HOT_BOOKS; id++){
+            get("/book/" + id);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(32)
+    public int slowAuthorSearch(Outcomes outcomes) throws IOException, InterruptedException {
+        String author = BookDataGenerator.author(ThreadLocalRandom.current().nextInt(BookDataGenerator.authorCount(this.rows)));
+        return outcomes.record(get("/book/author/" + URLEncoder.encode(author, StandardCharsets.UTF_8).replace("+", "%20")));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(32)
+    public int cachedLookup(Outcomes outcomes) throws IOException, InterruptedException {
+        return outcomes.record(get("/book/" + (ThreadLocalRandom.current().nextInt(HOT_BOOKS) + 1)));
+    }
+
+    private int get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(this.baseUri + path)).GET().build();
+        return this.httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    /**
+     * Successful responses and 503s or 429s per operation, reported next to the throughput so rejected requests aren't
+     * mistaken for served ones.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long ok;
+        public long rejected;
+
+        int record(int status) {
+            if(status == 503 || status == 429){
+                this.rejected++;
+            }else {
+                this.ok++;
+            }
+            return status;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.lms.co.za.benchmark;
+
+import com.lms.co.za.search.BookSearchIndex;
+import com.lms.co.za.storage.BookSnapshots;
+import com.lms.co.za.support.BookDataGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time until a node is ready to serve a catalogue of the given size: an in-memory node that has to load every row
+ * after starting, against a persistent node restarting over its existing database file and a new persistent node that
+ * starts from a snapshot. The persistent profile builds the search index in the background, the *Searchable variants
+ * also wait for that.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StartupBenchmark {
+
+    @Param({"1000000"})
+    int rows;
+
+    private Path directory;
+    private String snapshot;
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("startup-benchmark");
+        ConfigurableApplicationContext seed = startPersistent("seed");
+        BenchmarkContext.load(seed, this.rows);
+        this.snapshot = seed.getBean(BookSnapshots.class).create().getFile();
+        seed.close();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws IOException {
+        this.context.close();
+        //every restore starts from a node without a database file.
+        FileSystemUtils.deleteRecursively(this.directory.resolve("node"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(this.directory);
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext inMemoryReload() {
+        this.context = BenchmarkContext.start();
+        BookDataGenerator.generate(this.context.getBean(JdbcTemplate.class), this.rows);
+        return this.context;
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext inMemoryReloadSearchable() {
+        this.context = BenchmarkContext.start();
+        BenchmarkContext.load(this.context, this.rows);
+        return this.context;
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext persistentRestart() {
+        this.context = startPersistent("seed");
+        return this.context;
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext persistentRestartSearchable() throws InterruptedException {
+        this.context = startPersistent("seed");
+        return awaitSearchIndex(this.context);
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext restoreFromSnapshot() {
+        this.context = startPersistent("node", "library.storage.restore-from=" + this.snapshot);
+        return this.context;
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext restoreFromSnapshotSearchable() throws InterruptedException {
+        this.context = startPersistent("node", "library.storage.restore-from=" + this.snapshot);
+        return awaitSearchIndex(this.context);
+    }
+
+    private static ConfigurableApplicationContext awaitSearchIndex(ConfigurableApplicationContext context) throws InterruptedException {
+        BookSearchIndex bookSearchIndex = context.getBean(BookSearchIndex.class);
+        while(!bookSearchIndex.isLoaded()){
+            Thread.sleep(10);
+        }
+        return context;
+    }
+
+    private ConfigurableApplicationContext startPersistent(String node, String... properties) {
+        String[] args = new String[properties.length + 3];
+        args[0] = "spring.profiles.active=persistent";
+        args[1] = "spring.datasource.url=jdbc:h2:file:" + this.directory.resolve(node).resolve("bookstore").toAbsolutePath();
+        args[2] = "library.storage.snapshot-directory=" + this.directory.resolve("snapshots").toAbsolutePath();
+        System.arraycopy(properties, 0, args, 3, properties.length);
+        return BenchmarkContext.start(args);
+    }
+}
@@ -0,0 +1,64 @@
+package com.lms.co.za.repository;
+
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * Adds the trigrams of the author of every inserted or updated book to AUTHOR_TRIGRAMS, registered on BOOKS by the V3
+ * migration. Runs inside the writing transaction, so the trigrams commit or roll back with the book.
+ * <p>
+ * Compiled against the runtime classpath by the build, see src/main/h2, the application itself never uses H2 classes.
+ */
+public class AuthorTrigramTrigger implements Trigger {
+
+    private static final String LOCK_TRIGRAM = "SELECT TRIGRAM FROM AUTHOR_TRIGRAMS WHERE TRIGRAM = ? AND AUTHOR = ? FOR UPDATE";
+    private static final String MERGE_TRIGRAM = "MERGE INTO AUTHOR_TRIGRAMS (TRIGRAM, AUTHOR) KEY (TRIGRAM, AUTHOR) VALUES (?, ?)";
+
+    private int authorColumn;
+
+    @Override
+    public void init(Connection connection, String schemaName, String triggerName, String tableName, boolean before, int type) throws SQLException {
+        try(ResultSet columns = connection.getMetaData().getColumns(null, schemaName, tableName, "AUTHOR")){
+            if(!columns.next()){
+                throw new SQLException("Table " + tableName + " has no AUTHOR column for trigger " + triggerName);
+            }
+            this.authorColumn = columns.getInt("ORDINAL_POSITION") - 1;
+        }
+    }
+
+    @Override
+    public void fire(Connection connection, Object[] oldRow, Object[] newRow) throws SQLException {
+        String author = (String) newRow[this.authorColumn];
+        if(oldRow != null && author.equals(oldRow[this.authorColumn])){
+            return;
+        }
+        Set<String> trigrams = AuthorTrigrams.of(author);
+        if(trigrams.isEmpty()){
+            return;
+        }
+        //most books are by an author already indexed, the first trigram settles that, and it stays locked until the book
+        //commits so AuthorTrigramCleanup can't delete the author's trigrams from under it.
+        try(PreparedStatement lock = connection.prepareStatement(LOCK_TRIGRAM)){
+            lock.setString(1, trigrams.iterator().next());
+            lock.setString(2, author);
+            try(ResultSet resultSet = lock.executeQuery()){
+                if(resultSet.next()){
+                    return;
+                }
+            }
+        }
+        try(PreparedStatement merge = connection.prepareStatement(MERGE_TRIGRAM)){
+            for(String trigram : trigrams){
+                merge.setString(1, trigram);
+                merge.setString(2, author);
+                merge.addBatch();
+            }
+            merge.executeBatch();
+        }
+    }
+}
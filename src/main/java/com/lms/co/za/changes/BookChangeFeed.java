@@ -0,0 +1,241 @@
+package com.lms.co.za.changes;
+
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.model.BookChangeBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the {@link BookChangeLog} to consumers, as long-poll requests that are answered once there is a change after
+ * their sequence number, or as server-sent event streams that first catch up and then follow new changes.
+ * <p>
+ * Both are parked without holding a request thread. A single dispatcher thread reads new changes after each commit on
+ * this instance, and every library.changes.poll-interval for commits made through other instances, several commits in
+ * quick succession are covered by one pass. The dispatcher never writes to a client: it answers long-polls and puts
+ * events in each stream's bounded buffer, a small pool of sender threads writes them out. A stream that leaves its
+ * buffer full while there are more changes for it is closed, the client reconnects with its Last-Event-ID and catches
+ * up from the log.
+ */
+@Component
+public class BookChangeFeed implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookChangeFeed.class);
+
+    private final BookChangeLog bookChangeLog;
+    private final LibraryProperties.Changes properties;
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final Queue<Subscriber> subscribers = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean dispatchPending = new AtomicBoolean();
+    private final ScheduledExecutorService dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "book-change-dispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService senders;
+    //highest sequence number the dispatcher has seen, only written on the dispatcher thread.
+    private volatile long lastSeen;
+
+    public BookChangeFeed(BookChangeLog bookChangeLog, LibraryProperties libraryProperties) {
+        this.bookChangeLog = bookChangeLog;
+        this.properties = libraryProperties.getChanges();
+        AtomicInteger senderCount = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(this.properties.getStreamSenders(), runnable -> {
+            Thread thread = new Thread(runnable, "book-change-sender-" + senderCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        bookChangeLog.addListener(this::scheduleDispatch);
+        long pollIntervalMillis = this.properties.getPollInterval().toMillis();
+        this.dispatcher.scheduleWithFixedDelay(this::recheck, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param waitMillis how long to hold the request when there is nothing new, capped at library.changes.max-wait,
+     *                   an empty batch is returned when it runs out.
+     */
+    public DeferredResult<BookChangeBatch> poll(long afterSequenceNumber, int limit, long waitMillis) {
+        int batchSize = Math.min(limit, this.properties.getMaxBatchSize());
+        long timeout = Math.min(waitMillis, this.properties.getMaxWait().toMillis());
+        DeferredResult<BookChangeBatch> deferredResult = new DeferredResult<>(timeout > 0 ? timeout : null,
+                () -> new BookChangeBatch(Collections.emptyList(), afterSequenceNumber));
+        List<BookChange> changes = this.bookChangeLog.read(afterSequenceNumber, batchSize);
+        if(!changes.isEmpty() || timeout <= 0){
+            deferredResult.setResult(batch(changes, afterSequenceNumber));
+            return deferredResult;
+        }
+        Waiter waiter = new Waiter(afterSequenceNumber, batchSize, deferredResult);
+        this.waiters.add(waiter);
+        deferredResult.onCompletion(() -> this.waiters.remove(waiter));
+        //a commit between the read above and registering the waiter would otherwise go unnoticed.
+        scheduleDispatch();
+        return deferredResult;
+    }
+
+    public SseEmitter subscribe(long afterSequenceNumber) {
+        SseEmitter sseEmitter = new SseEmitter(this.properties.getStreamTimeout().toMillis());
+        Subscriber subscriber = new Subscriber(afterSequenceNumber, sseEmitter, this.properties.getStreamBuffer());
+        this.subscribers.add(subscriber);
+        sseEmitter.onCompletion(() -> this.subscribers.remove(subscriber));
+        sseEmitter.onTimeout(sseEmitter::complete);
+        sseEmitter.onError(throwable -> this.subscribers.remove(subscriber));
+        //catching up goes through the buffer too, so events reach a subscriber strictly in order.
+        scheduleDispatch();
+        return sseEmitter;
+    }
+
+    private void scheduleDispatch() {
+        if(this.dispatchPending.compareAndSet(false, true)){
+            this.dispatcher.execute(this::dispatch);
+        }
+    }
+
+    //commits through other instances don't call the listener, the log is the only way to hear of them.
+    private void recheck() {
+        if(this.waiters.isEmpty() && this.subscribers.isEmpty()){
+            return;
+        }
+        try {
+            if(this.bookChangeLog.lastSequenceNumber() > this.lastSeen){
+                scheduleDispatch();
+            }
+        }catch (RuntimeException runtimeException){
+            logger.warn("book change recheck failed, retrying: {}", runtimeException.getMessage());
+        }
+    }
+
+    private void dispatch() {
+        this.dispatchPending.set(false);
+        try {
+            this.lastSeen = Math.max(this.lastSeen, this.bookChangeLog.lastSequenceNumber());
+            for(Waiter waiter : this.waiters){
+                if(waiter.afterSequenceNumber >= this.lastSeen){
+                    continue;
+                }
+                List<BookChange> changes = this.bookChangeLog.read(waiter.afterSequenceNumber, waiter.limit);
+                if(!changes.isEmpty()){
+                    waiter.deferredResult.setResult(batch(changes, waiter.afterSequenceNumber));
+                    this.waiters.remove(waiter);
+                }
+            }
+            for(Subscriber subscriber : this.subscribers){
+                fill(subscriber);
+            }
+        }catch (RuntimeException runtimeException){
+            logger.error("book change dispatch failed, waiting consumers are served on the next pass: " + runtimeException.getMessage(), runtimeException);
+        }
+    }
+
+    /**
+     * Reads the changes the subscriber hasn't been given yet into the free part of its buffer, one read per pass, a
+     * subscriber far behind is topped up again as its sender frees space.
+     */
+    private void fill(Subscriber subscriber) {
+        if(subscriber.queuedPosition >= this.lastSeen){
+            return;
+        }
+        int space = subscriber.buffer.remainingCapacity();
+        if(space == 0){
+            logger.info("book change stream at sequence {} fell {} changes behind, closing it", subscriber.queuedPosition, this.lastSeen - subscriber.queuedPosition);
+            drop(subscriber);
+            return;
+        }
+        List<BookChange> changes = this.bookChangeLog.read(subscriber.queuedPosition, Math.min(space, this.properties.getMaxBatchSize()));
+        for(BookChange change : changes){
+            subscriber.buffer.add(change);
+            subscriber.queuedPosition = change.getSequence();
+        }
+        if(!changes.isEmpty() && subscriber.sending.compareAndSet(false, true)){
+            this.senders.execute(() -> send(subscriber));
+        }
+    }
+
+    private void send(Subscriber subscriber) {
+        do {
+            BookChange change;
+            while((change = subscriber.buffer.poll()) != null){
+                try {
+                    subscriber.sseEmitter.send(SseEmitter.event()
+                            .id(String.valueOf(change.getSequence()))
+                            .name("book-change")
+                            .data(change, MediaType.APPLICATION_JSON));
+                }catch (IOException | IllegalStateException exception){
+                    //client went away, the emitter's completion callback drops the subscriber as well.
+                    logger.debug("book change stream closed at sequence {}: {}", change.getSequence() - 1, exception.getMessage());
+                    this.subscribers.remove(subscriber);
+                    subscriber.buffer.clear();
+                    return;
+                }
+            }
+            subscriber.sending.set(false);
+            //the dispatcher may have added to the buffer after the last poll but before the flag was cleared.
+        } while(!subscriber.buffer.isEmpty() && subscriber.sending.compareAndSet(false, true));
+        //a subscriber catching up gets its next read once it has sent what it was given.
+        if(subscriber.queuedPosition < this.lastSeen){
+            scheduleDispatch();
+        }
+    }
+
+    private void drop(Subscriber subscriber) {
+        this.subscribers.remove(subscriber);
+        subscriber.buffer.clear();
+        //completing waits for a send in progress on the emitter, that's a sender's wait, not the dispatcher's.
+        this.senders.execute(subscriber.sseEmitter::complete);
+    }
+
+    private static BookChangeBatch batch(List<BookChange> changes, long afterSequenceNumber) {
+        return new BookChangeBatch(changes, changes.isEmpty() ? afterSequenceNumber : changes.get(changes.size() - 1).getSequence());
+    }
+
+    @Override
+    public void destroy() {
+        this.dispatcher.shutdownNow();
+        this.senders.shutdownNow();
+        this.subscribers.forEach(subscriber -> subscriber.sseEmitter.complete());
+    }
+
+    private static final class Waiter {
+        private final long afterSequenceNumber;
+        private final int limit;
+        private final DeferredResult<BookChangeBatch> deferredResult;
+
+        private Waiter(long afterSequenceNumber, int limit, DeferredResult<BookChangeBatch> deferredResult) {
+            this.afterSequenceNumber = afterSequenceNumber;
+            this.limit = limit;
+            this.deferredResult = deferredResult;
+        }
+    }
+
+    private static final class Subscriber {
+        //sequence number of the last change put in the buffer, only written on the dispatcher thread.
+        private volatile long queuedPosition;
+        private final SseEmitter sseEmitter;
+        private final BlockingQueue<BookChange> buffer;
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        private Subscriber(long position, SseEmitter sseEmitter, int bufferSize) {
+            this.queuedPosition = position;
+            this.sseEmitter = sseEmitter;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+    }
+}
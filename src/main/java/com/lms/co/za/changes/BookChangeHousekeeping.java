@@ -0,0 +1,92 @@
+package com.lms.co.za.changes;
+
+import com.lms.co.za.configuration.LibraryProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the committed watermark of the {@link BookChangeLog} every library.changes.watermark-save-interval, for
+ * replicas to serve as their catalogue version and for instances that start later, and deletes the changes logged more
+ * than library.changes.retention ago every library.changes.cleanup-interval.
+ * <p>
+ * The log doesn't know its external consumers, so retention is by age: a consumer that falls further behind than the
+ * retention misses the deleted changes and has to read the catalogue again.
+ */
+@Component
+public class BookChangeHousekeeping implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookChangeHousekeeping.class);
+
+    //rows per delete statement, keeps each transaction and the locks it holds small.
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private final BookChangeLog bookChangeLog;
+    private final Duration retention;
+    private final long watermarkSaveIntervalMillis;
+    private final long cleanupIntervalMillis;
+    private final Counter deletedChanges;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "book-change-housekeeping");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public BookChangeHousekeeping(BookChangeLog bookChangeLog, LibraryProperties libraryProperties, MeterRegistry meterRegistry) {
+        this.bookChangeLog = bookChangeLog;
+        LibraryProperties.Changes changes = libraryProperties.getChanges();
+        this.retention = changes.getRetention();
+        this.watermarkSaveIntervalMillis = changes.getWatermarkSaveInterval().toMillis();
+        this.cleanupIntervalMillis = changes.getCleanupInterval().toMillis();
+        this.deletedChanges = Counter.builder("library.book.changes.deleted")
+                .description("Book changes deleted from the change log because they were older than the retention")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                this.bookChangeLog.saveWatermark();
+            }catch (RuntimeException runtimeException){
+                logger.warn("saving the book change watermark failed, retrying in {} ms: {}", this.watermarkSaveIntervalMillis, runtimeException.getMessage());
+            }
+        }, this.watermarkSaveIntervalMillis, this.watermarkSaveIntervalMillis, TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                deleteExpiredChanges();
+            }catch (RuntimeException runtimeException){
+                logger.warn("book change cleanup failed, retrying in {} ms: {}", this.cleanupIntervalMillis, runtimeException.getMessage());
+            }
+        }, this.cleanupIntervalMillis, this.cleanupIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Deletes the changes logged more than library.changes.retention ago.
+     *
+     * @return how many changes were deleted.
+     */
+    public synchronized int deleteExpiredChanges() {
+        int deleted = this.bookChangeLog.deleteOlderThan(this.retention, DELETE_BATCH_SIZE);
+        this.deletedChanges.increment(deleted);
+        if(deleted > 0){
+            logger.info("deleted {} book changes older than {}", deleted, this.retention);
+        }
+        return deleted;
+    }
+
+    @Override
+    public void destroy() {
+        this.scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,266 @@
+package com.lms.co.za.changes;
+
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.replication.ReadYourWrites;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Ordered, durable log of catalogue changes in the BOOK_CHANGES table (an outbox), appended in the same transaction as
+ * the write it records so a change is visible exactly when the write is.
+ * <p>
+ * Sequence numbers are only drawn when the transaction commits, from BOOK_CHANGE_SEQUENCE, so writers never wait on
+ * each other for them, but a change can commit after one with a higher number. Readers are only handed changes up to
+ * the committed watermark, the highest number with every number below it committed, so a reader that has seen 11 never
+ * finds 10 later. A number still missing library.changes.gap-timeout after a higher one was first seen belongs to a
+ * commit that failed after numbering its changes, it is skipped. The watermark is kept per instance and saved to the
+ * BOOK_CHANGE_COUNTER row by {@link BookChangeHousekeeping}, so an instance starts from the last saved one.
+ */
+@Component
+public class BookChangeLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookChangeLog.class);
+
+    private static final String SELECT_SEQUENCE_NUMBERS = "SELECT NEXT VALUE FOR BOOK_CHANGE_SEQUENCE FROM SYSTEM_RANGE(1, ?)";
+    private static final String SELECT_WATERMARK = "SELECT LAST_SEQUENCE_NUMBER FROM BOOK_CHANGE_COUNTER WHERE ID = 1";
+    private static final String SAVE_WATERMARK = "UPDATE BOOK_CHANGE_COUNTER SET LAST_SEQUENCE_NUMBER = ? WHERE ID = 1 AND LAST_SEQUENCE_NUMBER < ?";
+    private static final String INSERT_CHANGE = "INSERT INTO BOOK_CHANGES (SEQUENCE_NUMBER, OPERATION, BOOK_ID, ISBN, PREVIOUS_ISBN) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_SEQUENCE_NUMBERS_AFTER = "SELECT SEQUENCE_NUMBER FROM BOOK_CHANGES WHERE SEQUENCE_NUMBER > ? " +
+            "ORDER BY SEQUENCE_NUMBER LIMIT ?";
+    private static final String SELECT_CHANGES = "SELECT SEQUENCE_NUMBER, OPERATION, BOOK_ID, ISBN, PREVIOUS_ISBN, CHANGED FROM BOOK_CHANGES " +
+            "WHERE SEQUENCE_NUMBER > ? AND SEQUENCE_NUMBER <= ? ORDER BY SEQUENCE_NUMBER LIMIT ?";
+    private static final String DELETE_CHANGES_BEFORE = "DELETE FROM BOOK_CHANGES WHERE CHANGED < ? AND SEQUENCE_NUMBER <= ? LIMIT ?";
+    private static final int WATERMARK_BATCH_SIZE = 1000;
+
+    private static final RowMapper<BookChange> BOOK_CHANGE_ROW_MAPPER = (resultSet, rowNum) -> new BookChange(
+            resultSet.getLong("SEQUENCE_NUMBER"),
+            BookChange.Operation.valueOf(resultSet.getString("OPERATION")),
+            resultSet.getLong("BOOK_ID"),
+            resultSet.getString("ISBN"),
+            resultSet.getString("PREVIOUS_ISBN"),
+            resultSet.getTimestamp("CHANGED").toInstant());
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+    private final long gapTimeoutNanos;
+    private final AtomicLong watermark;
+    //the number that ends each gap above the watermark, with when the gap was first seen.
+    private final Map<Long, Long> gapsSeen = new ConcurrentHashMap<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<List<BookChange>>> changeListeners = new CopyOnWriteArrayList<>();
+
+    public BookChangeLog(JdbcTemplate jdbcTemplate, EntityManager entityManager, LibraryProperties libraryProperties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+        this.gapTimeoutNanos = libraryProperties.getChanges().getGapTimeout().toNanos();
+        Long watermark = jdbcTemplate.queryForObject(SELECT_WATERMARK, Long.class);
+        this.watermark = new AtomicLong(watermark != null ? watermark : 0L);
+    }
+
+    public void append(BookChange.Operation operation, Long bookId, String isbn, String previousIsbn) {
+        appendAll(Collections.singletonList(new BookChange(0L, operation, bookId, isbn, previousIsbn, null)));
+    }
+
+    /**
+     * Records the changes, must be called inside the transaction of the write. They are written with increasing
+     * sequence numbers just before that transaction commits.
+     */
+    public void appendAll(List<BookChange> changes) {
+        if(changes.isEmpty()){
+            return;
+        }
+        if(!TransactionSynchronizationManager.isActualTransactionActive()){
+            throw new IllegalStateException("book changes must be appended inside the transaction of the write they record");
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+
+            private List<Long> sequenceNumbers;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                //the entity writes go first, readers hold back every change above a number until it commits, the
+                //shorter the time from numbering to commit the sooner they see them.
+                entityManager.flush();
+                sequenceNumbers = insert(changes);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if(status == STATUS_COMMITTED){
+                    listeners.forEach(Runnable::run);
+                    if(!changeListeners.isEmpty()){
+                        List<BookChange> committed = new ArrayList<>(changes.size());
+                        for(int i = 0; i < changes.size(); i++){
+                            BookChange change = changes.get(i);
+                            committed.add(new BookChange(sequenceNumbers.get(i), change.getOperation(), change.getBookId(), change.getIsbn(), change.getPreviousIsbn(), null));
+                        }
+                        changeListeners.forEach(listener -> listener.accept(committed));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes the next sequence numbers and inserts the changes.
+     *
+     * @return the sequence numbers of the changes, in order.
+     */
+    private List<Long> insert(List<BookChange> changes) {
+        List<Long> sequenceNumbers = this.jdbcTemplate.queryForList(SELECT_SEQUENCE_NUMBERS, Long.class, changes.size());
+        this.jdbcTemplate.batchUpdate(INSERT_CHANGE, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement preparedStatement, int i) throws SQLException {
+                BookChange change = changes.get(i);
+                preparedStatement.setLong(1, sequenceNumbers.get(i));
+                preparedStatement.setString(2, change.getOperation().name());
+                preparedStatement.setLong(3, change.getBookId());
+                preparedStatement.setString(4, change.getIsbn());
+                preparedStatement.setString(5, change.getPreviousIsbn());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return changes.size();
+            }
+        });
+        return sequenceNumbers;
+    }
+
+    /**
+     * @return up to limit committed changes after the given sequence number and up to the watermark, oldest first.
+     */
+    public List<BookChange> read(long afterSequenceNumber, int limit) {
+        //a replica could have a later change without an earlier one that the primary has, the gaps are judged on the primary.
+        ReadYourWrites.Scope previous = ReadYourWrites.bind(ReadYourWrites.Scope.primaryOnly());
+        try {
+            long watermark = advance();
+            if(afterSequenceNumber >= watermark){
+                return Collections.emptyList();
+            }
+            return this.jdbcTemplate.query(SELECT_CHANGES, BOOK_CHANGE_ROW_MAPPER, afterSequenceNumber, watermark, limit);
+        }finally {
+            ReadYourWrites.bind(previous);
+        }
+    }
+
+    /**
+     * @return the committed watermark, the highest sequence number with every number below it committed or given up
+     * on, 0 when nothing has been logged.
+     */
+    public long lastSequenceNumber() {
+        ReadYourWrites.Scope previous = ReadYourWrites.bind(ReadYourWrites.Scope.primaryOnly());
+        try {
+            return advance();
+        }finally {
+            ReadYourWrites.bind(previous);
+        }
+    }
+
+    /**
+     * Moves the watermark over the changes committed since, up to the first gap that hasn't timed out yet. Threads may
+     * advance it at the same time, each result is a valid watermark and the highest one is kept.
+     */
+    private long advance() {
+        long watermark = this.watermark.get();
+        boolean more = true;
+        while(more){
+            List<Long> sequenceNumbers = this.jdbcTemplate.queryForList(SELECT_SEQUENCE_NUMBERS_AFTER, Long.class, watermark, WATERMARK_BATCH_SIZE);
+            more = sequenceNumbers.size() == WATERMARK_BATCH_SIZE;
+            for(long sequenceNumber : sequenceNumbers){
+                if(sequenceNumber != watermark + 1 && !gapTimedOut(watermark, sequenceNumber)){
+                    more = false;
+                    break;
+                }
+                watermark = sequenceNumber;
+            }
+        }
+        long advanced = this.watermark.accumulateAndGet(watermark, Math::max);
+        if(!this.gapsSeen.isEmpty()){
+            this.gapsSeen.keySet().removeIf(sequenceNumber -> sequenceNumber <= advanced);
+        }
+        return advanced;
+    }
+
+    private boolean gapTimedOut(long watermark, long sequenceNumber) {
+        long now = System.nanoTime();
+        long seen = this.gapsSeen.computeIfAbsent(sequenceNumber, key -> now);
+        if(now - seen < this.gapTimeoutNanos){
+            return false;
+        }
+        //numbers are only drawn right before a commit, one this late failed after drawing them.
+        logger.warn("book change sequence numbers {} to {} were still missing {} ms after {} was seen, skipping them",
+                watermark + 1, sequenceNumber - 1, TimeUnit.NANOSECONDS.toMillis(now - seen), sequenceNumber);
+        return true;
+    }
+
+    /**
+     * @return the watermark saved in the database this transaction reads, a replica's is the one it has caught up to.
+     */
+    public long savedSequenceNumber() {
+        Long watermark = this.jdbcTemplate.queryForObject(SELECT_WATERMARK, Long.class);
+        return watermark != null ? watermark : 0L;
+    }
+
+    /**
+     * Saves the watermark for replicas and instances that start later, it only ever moves forward.
+     */
+    public void saveWatermark() {
+        long watermark = lastSequenceNumber();
+        this.jdbcTemplate.update(SAVE_WATERMARK, watermark, watermark);
+    }
+
+    /**
+     * Deletes changes logged more than retention ago, never one above the watermark, in batches of batchSize.
+     *
+     * @return how many changes were deleted.
+     */
+    public int deleteOlderThan(Duration retention, int batchSize) {
+        Timestamp before = Timestamp.from(Instant.now().minus(retention));
+        long watermark = lastSequenceNumber();
+        int deleted = 0;
+        int batch;
+        do {
+            batch = this.jdbcTemplate.update(DELETE_CHANGES_BEFORE, before, watermark, batchSize);
+            deleted += batch;
+        }while(batch == batchSize);
+        return deleted;
+    }
+    /**
+     * Runs the listener after every commit that appended changes, on the committing thread, so keep it short.
+     */
+    public void addListener(Runnable listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Runs the listener with the changes of every commit made through this instance, with their sequence numbers, on
+     * the committing thread, so keep it short.
+     */
+    public void addChangeListener(Consumer<List<BookChange>> listener) {
+        this.changeListeners.add(listener);
+    }
+}
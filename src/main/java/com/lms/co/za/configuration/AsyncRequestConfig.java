@@ -0,0 +1,26 @@
+package com.lms.co.za.configuration;
+
+import com.lms.co.za.controller.BookRequestExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * In async mode (library.async) the Callables the /v1 endpoints return run on the book request pool, and the pool's
+ * interceptor turns requests away when it is full and hands the read-your-writes scope over to the worker.
+ */
+@Configuration
+public class AsyncRequestConfig implements WebMvcConfigurer {
+
+    @Autowired
+    BookRequestExecutor bookRequestExecutor;
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        if(this.bookRequestExecutor.isAsync()){
+            configurer.setTaskExecutor(this.bookRequestExecutor.taskExecutor());
+            configurer.registerCallableInterceptors(this.bookRequestExecutor);
+        }
+    }
+}
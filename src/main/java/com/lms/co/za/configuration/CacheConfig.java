@@ -0,0 +1,35 @@
+package com.lms.co.za.configuration;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.boot.autoconfigure.cache.CacheManagerCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Caches are created by spring boot from spring.cache in application.yaml, size and ttl are set through the caffeine spec.
+ * Statistics are recorded so hit/miss/eviction counts show up under /actuator/metrics/cache.*
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    public static final String BOOKS_BY_ID = "books";
+    public static final String BOOKS_BY_ISBN = "booksByIsbn";
+    public static final String MISSING_ISBNS = "missingIsbns";
+    public static final String MISSING_AUTHORS = "missingAuthors";
+
+    /**
+     * Lookups that found nothing, see BookMisses. Registered on their own as they expire much sooner than the book
+     * caches, with library.not-found.negative-cache-spec.
+     */
+    @Bean
+    public CacheManagerCustomizer<CaffeineCacheManager> negativeCachesCustomizer(LibraryProperties libraryProperties) {
+        return cacheManager -> {
+            String spec = libraryProperties.getNotFound().getNegativeCacheSpec();
+            cacheManager.registerCustomCache(MISSING_ISBNS, Caffeine.from(spec).build());
+            cacheManager.registerCustomCache(MISSING_AUTHORS, Caffeine.from(spec).build());
+        };
+    }
+}
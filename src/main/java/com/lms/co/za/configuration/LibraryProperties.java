@@ -0,0 +1,212 @@
+package com.lms.co.za.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Application specific settings, bound from the library.* keys in application.yaml.
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "library")
+public class LibraryProperties {
+
+    private Search search = new Search();
+    private Import bulkImport = new Import();
+    private Async async = new Async();
+    private Batch batch = new Batch();
+    private Changes changes = new Changes();
+    private Storage storage = new Storage();
+    private Replication replication = new Replication();
+    private NotFound notFound = new NotFound();
+    private Limits limits = new Limits();
+    private Peers peers = new Peers();
+    private Loans loans = new Loans();
+    private Listing listing = new Listing();
+
+    @Data
+    public static class Search {
+        //shortest prefix that is indexed, shorter query terms match whole words, or the words of books found by the other terms.
+        private int minGram = 3;
+        //longest prefix that is indexed, bounds the memory used per word. Longer terms are looked up by this prefix and then checked.
+        private int maxGram = 6;
+        //build the index on a background thread after startup, searches answer 503 until it is ready. Keeps startup fast for a large persistent catalogue.
+        private boolean loadInBackground = false;
+    }
+
+    @Data
+    public static class Import {
+        //rows sent to the database per jdbc batch and per transaction.
+        private int batchSize = 1000;
+        //rejected rows beyond this are only counted, keeps the response small for a bad feed.
+        private int maxReportedErrors = 1000;
+    }
+
+    @Data
+    public static class Async {
+        //when on, database work for the /v1 endpoints runs on a separate bounded pool and the tomcat thread is released.
+        private boolean enabled = false;
+        //threads running database work, keep at or below the hikari pool size so they don't just wait on connections.
+        private int poolSize = 10;
+        //requests waiting for a pool thread, anything beyond this is turned away with a 503.
+        private int queueCapacity = 100;
+        //seconds sent in the Retry-After header of a 503.
+        private int retryAfterSeconds = 1;
+    }
+
+    @Data
+    public static class Batch {
+        //ids plus ISBN references accepted by one batch lookup.
+        private int maxKeys = 5000;
+        //keys per IN query, keeps statements and their plans small.
+        private int chunkSize = 500;
+    }
+
+    @Data
+    public static class Changes {
+        //most changes returned by one long-poll response or sent per read while catching up a stream.
+        private int maxBatchSize = 500;
+        //longest a long-poll request is held open waiting for a change.
+        private Duration maxWait = Duration.ofSeconds(60);
+        //an event stream is closed after this, clients reconnect with Last-Event-ID.
+        private Duration streamTimeout = Duration.ofMinutes(30);
+        //changes held for an event stream that hasn't been sent yet, a stream that falls this far behind is closed.
+        private int streamBuffer = 1000;
+        //threads writing to the event streams, a stalled client holds one until its buffer fills and it is closed.
+        private int streamSenders = 4;
+        //how often the log is checked for changes committed through other instances.
+        private Duration pollInterval = Duration.ofSeconds(1);
+        //a sequence number still missing this long after a higher one was seen is taken as rolled back and skipped.
+        private Duration gapTimeout = Duration.ofSeconds(5);
+        //changes older than this are deleted, a consumer further behind has to read the catalogue again.
+        private Duration retention = Duration.ofDays(7);
+        //how often the committed watermark is saved, replicas serve it as their catalogue version.
+        private Duration watermarkSaveInterval = Duration.ofSeconds(1);
+        //how often changes older than the retention are deleted.
+        private Duration cleanupInterval = Duration.ofHours(1);
+    }
+
+    @Data
+    public static class Storage {
+        //where snapshots of the file database are written, persistent profile only.
+        private String snapshotDirectory = "./data/snapshots";
+        //older snapshots beyond this many are deleted after a new one is written.
+        private int keepSnapshots = 3;
+        //snapshot to start from when the database file does not exist yet, a file path or a url, e.g. another node's /actuator/snapshot.
+        private String restoreFrom;
+        //how often the author search trigrams of authors no book has any more are deleted, they are also deleted before every snapshot.
+        private Duration authorTrigramCleanupInterval = Duration.ofHours(1);
+    }
+
+    @Data
+    public static class Replication {
+        //read-only copies of spring.datasource, read-only transactions are spread over them round robin. None routes everything to the primary.
+        private List<Replica> replicas = new ArrayList<>();
+        //copies committed book changes from the primary into the replicas, stands in for database replication when the replicas are local H2 databases.
+        private boolean localSync = false;
+        //how long local sync holds back changes, to try out the application against lagging replicas.
+        private Duration localSyncLag = Duration.ZERO;
+    }
+
+    @Data
+    public static class Replica {
+        private String url;
+        //spring.datasource credentials when not set.
+        private String username;
+        private String password;
+    }
+
+    @Data
+    public static class NotFound {
+        //ISBNs the filter of known ISBNs is sized for, past this more unknown ISBNs get through to the database.
+        private int expectedIsbns = 1_000_000;
+        //share of unknown ISBNs the filter lets through to the database at the expected size.
+        private double falsePositiveRate = 0.01;
+        //caffeine spec of the missingIsbns and missingAuthors caches. The expiry bounds how long a book written without a change log entry can keep answering 404.
+        private String negativeCacheSpec = "maximumSize=100000,expireAfterWrite=30s,recordStats";
+        //how often the filter picks up books written through other instances from the book change log.
+        private Duration refreshInterval = Duration.ofSeconds(1);
+        //404s written to the log per second, see RateLimitedLog.
+        private int logsPerSecond = 10;
+    }
+
+    @Data
+    public static class Limits {
+        private RateLimit rate = new RateLimit();
+        private ConcurrencyLimit concurrency = new ConcurrencyLimit();
+        //429s written to the log per second, see RateLimitedLog.
+        private int logsPerSecond = 10;
+    }
+
+    @Data
+    public static class RateLimit {
+        //a token bucket per client on every /v1 endpoint, off by default like the other opt-in features.
+        private boolean enabled = false;
+        //rate a client's bucket refills at, its sustained request rate.
+        private double requestsPerSecond = 100;
+        //size of the bucket, requests a client can send at once after being idle.
+        private int burst = 200;
+        //request header identifying a client, its value is the client's bucket. Clients without it share a bucket per remote address.
+        private String clientHeader = "X-API-Key";
+        //header the load balancer puts the client's address in, e.g. X-Forwarded-For, its last entry is used as the remote address. Only set it when every request comes through a proxy that sets it, a client could otherwise pick its own bucket.
+        private String forwardedForHeader;
+        //keys accepted in the client header, any other value counts against the remote address, so a client can't get a fresh bucket by sending a new key. None keys every client by address.
+        private List<String> apiKeys = new ArrayList<>();
+        //buckets kept, the least recently used client beyond this starts again from a full bucket.
+        private long maxClients = 100_000;
+    }
+
+    @Data
+    public static class ConcurrencyLimit {
+        //caps requests running at once on the operations below, the cap follows their latency.
+        private boolean enabled = true;
+        //limits by name, each shared by the controller operations listed.
+        private Map<String, List<String>> operations = new LinkedHashMap<>();
+        private int initialLimit = 10;
+        private int minLimit = 2;
+        private int maxLimit = 50;
+        //latency above this multiple of the no-load latency lowers the limit.
+        private double latencyTolerance = 2.5;
+        //seconds sent in the Retry-After header of a 429 from a concurrency limit.
+        private int retryAfterSeconds = 1;
+    }
+
+    @Data
+    public static class Peers {
+        //base urls of the other instances sharing the database, e.g. http://library-2:8080/api/library-manager. Committed writes are sent to each so they drop the cached books.
+        private List<String> urls = new ArrayList<>();
+        //shared secret sent in the X-Peer-Token header, invalidations without it are refused. Required when urls is set, without it every invalidation is refused.
+        private String token;
+        //changes queued per peer, past this the queue is replaced by a reset and the peer reads the changes it missed from the change log.
+        private int maxPending = 10_000;
+        //most changes sent per message.
+        private int maxBatchSize = 500;
+        //wait before sending to a peer again after it failed.
+        private Duration retryInterval = Duration.ofSeconds(1);
+        //connect and read timeout of a send.
+        private Duration timeout = Duration.ofSeconds(2);
+        //how often the change log is read for changes committed through peers whose messages were lost.
+        private Duration catchUpInterval = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Loans {
+        //due date of a checkout, from the moment it is made.
+        private Duration period = Duration.ofDays(14);
+        //409s for titles out of stock written to the log per second, see RateLimitedLog.
+        private int logsPerSecond = 10;
+    }
+
+    @Data
+    public static class Listing {
+        //most books a plain GET /v1/books returns, a larger catalogue is cut there and the rest linked as pages.
+        private int maxBooks = 10_000;
+    }
+}
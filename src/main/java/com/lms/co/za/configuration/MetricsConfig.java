@@ -0,0 +1,43 @@
+package com.lms.co.za.configuration;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.boot.actuate.metrics.web.servlet.WebMvcTagsContributor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.HandlerMethod;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Request timers come from spring boot's http.server.requests, repository timers from spring.data.repository.invocations,
+ * pool and hibernate metrics from the hikari and hibernate binders, histograms are switched on in application.yaml.
+ */
+@Configuration
+public class MetricsConfig {
+
+    private static final Tag NO_OPERATION = Tag.of("operation", "none");
+
+    /**
+     * Tags every request timer with the controller method that handled it, so two operations sharing a uri,
+     * e.g. the json and ndjson variants of /v1/books, get their own latency histogram.
+     */
+    @Bean
+    public WebMvcTagsContributor operationTagsContributor() {
+        return new WebMvcTagsContributor() {
+            @Override
+            public Iterable<Tag> getTags(HttpServletRequest request, HttpServletResponse response, Object handler, Throwable exception) {
+                if(handler instanceof HandlerMethod){
+                    return Tags.of("operation", ((HandlerMethod) handler).getMethod().getName());
+                }
+                return Tags.of(NO_OPERATION);
+            }
+
+            @Override
+            public Iterable<Tag> getLongRequestTags(HttpServletRequest request, Object handler) {
+                return Tags.empty();
+            }
+        };
+    }
+}
@@ -2,6 +2,12 @@ package com.lms.co.za.configuration;
 
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.oas.models.info.Info;
+import io.swagger.v3.oas.models.media.Content;
+import io.swagger.v3.oas.models.media.MediaType;
+import io.swagger.v3.oas.models.media.Schema;
+import io.swagger.v3.oas.models.responses.ApiResponse;
+import io.swagger.v3.oas.models.responses.ApiResponses;
+import org.springdoc.core.customizers.OperationCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -16,5 +22,21 @@ public class OpenApiConfig {
                         .version("v1"));
     }
 
-
+    /**
+     * Any /v1 operation can be turned away by the per client rate limit, and the listing and author search by their
+     * concurrency limit (library.limits), documented once here rather than on every operation.
+     */
+    @Bean
+    public OperationCustomizer tooManyRequestsResponse() {
+        return (operation, handlerMethod) -> {
+            if(operation.getResponses() == null){
+                operation.setResponses(new ApiResponses());
+            }
+            operation.getResponses().addApiResponse("429", new ApiResponse()
+                    .description("Over the client's request rate or the operation's concurrency limit, retry after the Retry-After header")
+                    .content(new Content().addMediaType(org.springframework.http.MediaType.APPLICATION_JSON_VALUE,
+                            new MediaType().schema(new Schema<>().$ref("#/components/schemas/ApiError")))));
+            return operation;
+        };
+    }
 }
@@ -0,0 +1,99 @@
+package com.lms.co.za.configuration;
+
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.lookup.BookMisses;
+import com.lms.co.za.replication.LocalReplicaSync;
+import com.lms.co.za.replication.ReadYourWritesFilter;
+import com.lms.co.za.replication.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayProperties;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the single datasource with one that routes read-only transactions to library.replication.replicas, only
+ * active when at least one replica is configured. The primary pool is still configured by spring.datasource.*, every
+ * replica gets a pool with the same settings.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "library.replication", name = "replicas[0].url")
+public class ReplicationConfig {
+
+    @Bean
+    @ConfigurationProperties(prefix = "spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties) {
+        return dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(HikariDataSource primaryDataSource, LibraryProperties libraryProperties) {
+        LibraryProperties.Replication replication = libraryProperties.getReplication();
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        List<LibraryProperties.Replica> replicaProperties = replication.getReplicas();
+        for(int i = 0; i < replicaProperties.size(); i++){
+            LibraryProperties.Replica replica = replicaProperties.get(i);
+            HikariConfig hikariConfig = new HikariConfig();
+            primaryDataSource.copyStateTo(hikariConfig);
+            String name = "replica-" + (i + 1);
+            hikariConfig.setPoolName(name);
+            hikariConfig.setJdbcUrl(replica.getUrl());
+            if(replica.getUsername() != null){
+                hikariConfig.setUsername(replica.getUsername());
+                hikariConfig.setPassword(replica.getPassword());
+            }
+            //local sync writes into the replicas through the same pool.
+            hikariConfig.setReadOnly(!replication.isLocalSync());
+            replicas.put(name, new HikariDataSource(hikariConfig));
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas);
+    }
+
+    /**
+     * The datasource everything else uses, jpa, jdbc templates and flyway included.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    /**
+     * Hikari pool metrics for the replicas, tagged pool=replica-N. They aren't beans so boot's own pool metrics don't see
+     * them, and the registry can't be injected above as it depends on every datasource.
+     */
+    @Bean
+    public MeterBinder replicaPoolMetrics(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return registry -> {
+            for(DataSource replica : replicaRoutingDataSource.getReplicas().values()){
+                ((HikariDataSource) replica).setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+            }
+        };
+    }
+
+    @Bean
+    public ReadYourWritesFilter readYourWritesFilter() {
+        return new ReadYourWritesFilter();
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "library.replication", name = "local-sync", havingValue = "true")
+    public LocalReplicaSync localReplicaSync(HikariDataSource primaryDataSource, ReplicaRoutingDataSource replicaRoutingDataSource,
+                                             FlywayProperties flywayProperties, BookChangeLog bookChangeLog,
+                                             BookMisses bookMisses, LibraryProperties libraryProperties) {
+        return new LocalReplicaSync(primaryDataSource, replicaRoutingDataSource.getReplicas(), flywayProperties.getLocations(),
+                bookChangeLog, bookMisses, libraryProperties.getReplication().getLocalSyncLag());
+    }
+}
@@ -0,0 +1,31 @@
+package com.lms.co.za.configuration;
+
+import com.lms.co.za.limit.RequestLimitInterceptor;
+import com.lms.co.za.limit.RequestLimits;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.HashSet;
+
+/**
+ * Puts the rate and concurrency limits (library.limits) in front of the /v1 api, actuator and swagger are not limited.
+ */
+@Configuration
+public class RequestLimitConfig implements WebMvcConfigurer {
+
+    @Autowired
+    RequestLimits requestLimits;
+
+    @Autowired
+    LibraryProperties libraryProperties;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        LibraryProperties.RateLimit rate = this.libraryProperties.getLimits().getRate();
+        registry.addInterceptor(new RequestLimitInterceptor(this.requestLimits, rate.getClientHeader(),
+                        new HashSet<>(rate.getApiKeys()), rate.getForwardedForHeader()))
+                .addPathPatterns("/v1/**");
+    }
+}
@@ -0,0 +1,40 @@
+package com.lms.co.za.configuration;
+
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.lms.co.za.controller.CompressionThresholdFilter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.web.server.Compression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * How response bodies go over the wire. Json by default, smile for clients that opt in with
+ * Accept: application/x-jackson-smile on the book list endpoints, and gzip on top of either when the client accepts it
+ * and the body is at least server.compression.min-response-size.
+ * Smile is a binary encoding of the json data model, field names are written once per response and referenced after
+ * that, which is most of what a list of books repeats.
+ */
+@Configuration
+public class ResponseEncodingConfig {
+
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    /**
+     * Replaces spring mvc's default smile converter, which builds its own mapper, so smile is written with the same
+     * spring.jackson settings as json, e.g. dates as iso strings.
+     */
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder) {
+        return new MappingJackson2SmileHttpMessageConverter(jackson2ObjectMapperBuilder.factory(new SmileFactory()).build());
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "server.compression", name = "enabled", havingValue = "true")
+    public CompressionThresholdFilter compressionThresholdFilter(ServerProperties serverProperties) {
+        Compression compression = serverProperties.getCompression();
+        return new CompressionThresholdFilter(compression.getMimeTypes(), compression.getMinResponseSize().toBytes());
+    }
+}
@@ -0,0 +1,43 @@
+package com.lms.co.za.configuration;
+
+import com.lms.co.za.storage.BookSnapshots;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+
+@Configuration
+@Profile("persistent")
+public class StorageConfig {
+
+    /**
+     * Restores library.storage.restore-from as soon as the datasource bean exists, before flyway or anything else has
+     * opened a connection and created an empty database file in its place.
+     */
+    @Bean
+    public static BeanPostProcessor snapshotRestoringPostProcessor(Environment environment) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+                if(bean instanceof DataSource){
+                    String restoreFrom = Binder.get(environment).bind("library.storage.restore-from", String.class).orElse(null);
+                    if(restoreFrom != null && !restoreFrom.trim().isEmpty()){
+                        try {
+                            BookSnapshots.restoreIfMissing(environment.getProperty("spring.datasource.url"), restoreFrom.trim());
+                        }catch (IOException ioException){
+                            throw new BeanInitializationException("could not restore snapshot " + restoreFrom + ": " + ioException.getMessage(), ioException);
+                        }
+                    }
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package com.lms.co.za.controller;
+
+import com.lms.co.za.changes.BookChangeFeed;
+import com.lms.co.za.exception.model.ApiError;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.model.BookChangeBatch;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@Validated
+@RequestMapping(value = "v1")
+public class BookChangeController {
+
+    @Autowired
+    BookChangeFeed bookChangeFeed;
+
+    @Operation(summary = "Long-poll the catalogue changes after a sequence number, oldest first")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Returns the changes after the given sequence number, held up to wait seconds when there are none yet. Pass lastSequence as after on the next poll", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = BookChangeBatch.class))}),
+            @ApiResponse(responseCode = "400", description = "Invalid after, limit or wait", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @GetMapping(value = "/books/changes", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<BookChangeBatch> getBookChanges(@RequestParam(value = "after", defaultValue = "0") @Min(0) long after,
+                                                          @RequestParam(value = "limit", defaultValue = "100") @Min(1) @Max(1000) int limit,
+                                                          @Parameter(description = "Seconds to wait for a change, capped at library.changes.max-wait, 0 answers straight away")
+                                                          @RequestParam(value = "wait", defaultValue = "30") @Min(0) long wait) {
+        return this.bookChangeFeed.poll(after, limit, TimeUnit.SECONDS.toMillis(wait));
+    }
+
+    @Operation(summary = "Stream the catalogue changes after a sequence number as server-sent events, catching up first and then following new changes")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "book-change events with the sequence number as id, a reconnecting client resumes from its Last-Event-ID", content = {@Content(mediaType = "text/event-stream", schema = @Schema(implementation = BookChange.class))}),
+            @ApiResponse(responseCode = "400", description = "Invalid after", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @GetMapping(value = "/books/changes/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamBookChanges(@RequestParam(value = "after", defaultValue = "0") @Min(0) long after,
+                                        @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return this.bookChangeFeed.subscribe(lastEventId != null ? lastEventId : after);
+    }
+}
@@ -1,10 +1,27 @@
 package com.lms.co.za.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.lms.co.za.configuration.CacheConfig;
+import com.lms.co.za.configuration.ResponseEncodingConfig;
+import com.lms.co.za.exception.BadRequestException;
+import com.lms.co.za.exception.PreconditionFailedException;
 import com.lms.co.za.exception.ResourceNotFoundException;
 import com.lms.co.za.exception.model.ApiError;
+import com.lms.co.za.lookup.BookCache;
 import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookBatchRequest;
+import com.lms.co.za.model.BookBatchResult;
+import com.lms.co.za.model.BookPage;
+import com.lms.co.za.model.ImportResult;
+import com.lms.co.za.model.ProjectedBookPage;
+import com.lms.co.za.model.StockLevel;
+import com.lms.co.za.service.BookImportService;
 import com.lms.co.za.service.BookService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -12,16 +29,25 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 
 @RestController
@@ -31,52 +57,171 @@ public class BookController {
 
     private static final Logger logger = LoggerFactory.getLogger(BookController.class);
 
+    private static final String FIELDS_DESCRIPTION = "Comma separated book fields to return, e.g. id,title,author. Only these columns are read and written, all fields when absent";
+    //largest page of /v1/books/page, also the size the Link of a cut book list asks for.
+    private static final int MAX_PAGE_SIZE = 1000;
+
     @Autowired
     BookService bookService;
 
+    @Autowired
+    BookImportService bookImportService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    BookRequestExecutor bookRequestExecutor;
+
+    @Autowired
+    BookCache bookCache;
+
     @Operation(summary = "Get book by given id")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Book found for id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Book.class))}),
-            @ApiResponse(responseCode = "404", description = "No book found for given id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+            @ApiResponse(responseCode = "304", description = "Book unchanged since the given If-None-Match ETag or If-Modified-Since date", content = {@Content}),
+            @ApiResponse(responseCode = "404", description = "No book found for given id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
     })
     @GetMapping(value = "/book/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Book> getBookById(@PathVariable(value = "id") @NotNull Long id) throws ResourceNotFoundException {
-        Book book = this.bookService.getBookById(id);
-        return ResponseEntity.ok().body(book);
+    public Object getBookById(@PathVariable(value = "id") @NotNull Long id) throws ResourceNotFoundException {
+        return lookup(CacheConfig.BOOKS_BY_ID, id, () -> this.bookService.loadBookById(id));
     }
 
 
     @Operation(summary = "Get book by author containing partial or full name")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Returns an array of books for given author input", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Book.class))}),
-            @ApiResponse(responseCode = "404", description = "No books found for given author", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+            @ApiResponse(responseCode = "200", description = "Returns an array of books for given author input", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Book.class)), @Content(mediaType = ResponseEncodingConfig.APPLICATION_SMILE_VALUE, schema = @Schema(implementation = Book.class))}),
+            @ApiResponse(responseCode = "400", description = "Unknown field in fields", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "404", description = "No books found for given author", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
     })
-    @GetMapping(value = "/book/author/{author}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<Book>> getBookByAuthor(@PathVariable(value = "author") @NotBlank @Size(min = 3) String author) throws ResourceNotFoundException {
-        List<Book> books = this.bookService.getBooksByAuthorContaining(author);
-        return ResponseEntity.ok().body(books);
+    @GetMapping(value = "/book/author/{author}", produces = {MediaType.APPLICATION_JSON_VALUE, ResponseEncodingConfig.APPLICATION_SMILE_VALUE})
+    public Object getBookByAuthor(@PathVariable(value = "author") @NotBlank @Size(min = 3) String author,
+                                                   @Parameter(description = FIELDS_DESCRIPTION) @RequestParam(value = "fields", required = false) List<String> fields) throws Exception {
+        return this.bookRequestExecutor.execute(() -> {
+            if(fields != null && !fields.isEmpty()){
+                return negotiated().body(this.bookService.getBooksByAuthorContaining(author, fields));
+            }
+            List<Book> books = this.bookService.getBooksByAuthorContaining(author);
+            return negotiated().body(books);
+        });
+    }
+
+    @Operation(summary = "Search books by words or word prefixes in the title, author or publisher, best match first")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Returns ranked books matching the query", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Book.class)), @Content(mediaType = ResponseEncodingConfig.APPLICATION_SMILE_VALUE, schema = @Schema(implementation = Book.class))}),
+            @ApiResponse(responseCode = "404", description = "No books found for given query", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "The search index is still being built after startup, or in async mode the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @GetMapping(value = "/books/search", produces = {MediaType.APPLICATION_JSON_VALUE, ResponseEncodingConfig.APPLICATION_SMILE_VALUE})
+    public Object searchBooks(@RequestParam(value = "q") @NotBlank String query,
+                                                  @RequestParam(value = "limit", defaultValue = "20") @Min(1) @Max(100) int limit) throws Exception {
+        return this.bookRequestExecutor.execute(() -> {
+            List<Book> books = this.bookService.searchBooks(query, limit);
+            return negotiated().body(books);
+        });
     }
 
     @Operation(summary = "Get book by ISBN reference")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Book found for ISBN reference", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Book.class))}),
-            @ApiResponse(responseCode = "404", description = "No book found for given ISBN reference", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+            @ApiResponse(responseCode = "304", description = "Book unchanged since the given If-None-Match ETag or If-Modified-Since date", content = {@Content}),
+            @ApiResponse(responseCode = "404", description = "No book found for given ISBN reference", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
     })
     @GetMapping(value = "/book/isbn/{isbn}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<Book> getBookByISBN(@PathVariable(value = "isbn") @NotBlank String isbn) throws ResourceNotFoundException {
-        Book book = this.bookService.getBookByISBN(isbn);
-        return ResponseEntity.ok().body(book);
+    public Object getBookByISBN(@PathVariable(value = "isbn") @NotBlank String isbn) throws ResourceNotFoundException {
+        return lookup(CacheConfig.BOOKS_BY_ISBN, isbn, () -> this.bookService.loadBookByISBN(isbn));
+    }
+
+    @Operation(summary = "Get many books by id and/or ISBN reference in one request, returns the books found and the keys that were not")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Returns the books found and the missing ids and ISBN references", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = BookBatchResult.class)), @Content(mediaType = ResponseEncodingConfig.APPLICATION_SMILE_VALUE, schema = @Schema(implementation = BookBatchResult.class))}),
+            @ApiResponse(responseCode = "400", description = "More keys than library.batch.max-keys", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "422", description = "Bean validation on incoming keys", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Object.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @PostMapping(value = "/books/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = {MediaType.APPLICATION_JSON_VALUE, ResponseEncodingConfig.APPLICATION_SMILE_VALUE})
+    public Object getBooksInBatch(@RequestBody @Valid @NotNull BookBatchRequest bookBatchRequest) throws BadRequestException {
+        return this.bookRequestExecutor.execute(() -> {
+            BookBatchResult bookBatchResult = this.bookService.getBooks(bookBatchRequest.getIds(), bookBatchRequest.getIsbns());
+            return negotiated().body(bookBatchResult);
+        });
     }
 
     @Operation(summary = "Get all books")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Return all books", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Book.class))}),
-            @ApiResponse(responseCode = "404", description = "No books found", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+            @ApiResponse(responseCode = "200", description = "Return all books, at most library.listing.max-books of them in id order. A larger catalogue is cut there and a Link header with rel=\"next\" points at the /v1/books/page page that follows", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Book.class)), @Content(mediaType = ResponseEncodingConfig.APPLICATION_SMILE_VALUE, schema = @Schema(implementation = Book.class))}),
+            @ApiResponse(responseCode = "304", description = "Catalogue unchanged since the given If-None-Match ETag or If-Modified-Since date", content = {@Content}),
+            @ApiResponse(responseCode = "400", description = "Unknown field in fields", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "404", description = "No books found", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @GetMapping(value = "/books", produces = {MediaType.APPLICATION_JSON_VALUE, ResponseEncodingConfig.APPLICATION_SMILE_VALUE})
+    public Object getAllBooks(@Parameter(description = FIELDS_DESCRIPTION) @RequestParam(value = "fields", required = false) List<String> fields,
+                                               WebRequest webRequest) throws Exception {
+        String ifNoneMatch = webRequest.getHeader(HttpHeaders.IF_NONE_MATCH);
+        //built on the request thread, the request isn't bound to the pool thread in async mode.
+        UriComponentsBuilder nextPage = ServletUriComponentsBuilder.fromCurrentContextPath().path("/v1/books/page");
+        return this.bookRequestExecutor.execute(() -> {
+            String catalogueTag = catalogueTag();
+            if(matches(ifNoneMatch, catalogueTag)){
+                //spring answers 304 for the matching tag when it writes the response, the books are never read.
+                return negotiated().eTag(catalogueTag).build();
+            }
+            if(fields != null && !fields.isEmpty()){
+                ProjectedBookPage page = this.bookService.getAllBooks(fields);
+                return linkNext(negotiated().eTag(catalogueTag), nextPage, page.getNextCursor()).body(page.getBooks());
+            }
+            BookPage page = this.bookService.getAllBooks();
+            return linkNext(negotiated().eTag(catalogueTag), nextPage, page.getNextCursor()).body(page.getBooks());
+        });
+    }
+
+    @Operation(summary = "Get a page of books ordered by id, pass the returned cursor to fetch the next page")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Returns a page of books and a cursor for the next page", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = BookPage.class)), @Content(mediaType = ResponseEncodingConfig.APPLICATION_SMILE_VALUE, schema = @Schema(implementation = BookPage.class))}),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor or page size", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "404", description = "No books found", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
     })
-    @GetMapping(value = "/books", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<Book>> getAllBooks() throws ResourceNotFoundException {
-        List<Book> books = this.bookService.getAllBooks();
-        return ResponseEntity.ok().body(books);
+    @GetMapping(value = "/books/page", produces = {MediaType.APPLICATION_JSON_VALUE, ResponseEncodingConfig.APPLICATION_SMILE_VALUE})
+    public Object getBooksPage(@RequestParam(value = "cursor", required = false) String cursor,
+                                                 @RequestParam(value = "size", defaultValue = "100") @Min(1) @Max(MAX_PAGE_SIZE) int size) throws Exception {
+        return this.bookRequestExecutor.execute(() -> {
+            BookPage bookPage = this.bookService.getBooksPage(cursor, size);
+            return negotiated().body(bookPage);
+        });
+    }
+
+    @Operation(summary = "Stream all books as newline delimited json")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Streams every book, one json document per line", content = {@Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = Book.class))}),
+            @ApiResponse(responseCode = "304", description = "Catalogue unchanged since the given If-None-Match ETag or If-Modified-Since date", content = {@Content})
+    })
+    @GetMapping(value = "/books", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllBooks(WebRequest webRequest) {
+        if(webRequest.checkNotModified(catalogueTag())){
+            //status and headers are already set, returning null tells spring the response is complete.
+            return null;
+        }
+        //rows are written while the cursor is read, flushing per row would turn every book into its own chunk.
+        ObjectWriter bookWriter = this.objectMapper.writerFor(Book.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        StreamingResponseBody responseBody = outputStream -> {
+            JsonGenerator jsonGenerator = this.objectMapper.getFactory().createGenerator(outputStream);
+            jsonGenerator.setRootValueSeparator(null);
+            this.bookService.streamAllBooks(book -> {
+                try {
+                    bookWriter.writeValue(jsonGenerator, book);
+                    jsonGenerator.writeRaw('\n');
+                } catch (IOException ioException) {
+                    throw new UncheckedIOException(ioException);
+                }
+            });
+            jsonGenerator.flush();
+        };
+        return negotiated().contentType(MediaType.APPLICATION_NDJSON).body(responseBody);
     }
 
     @Operation(summary = "Create a new instance of a book")
@@ -84,38 +229,182 @@ public class BookController {
             @ApiResponse(responseCode = "201", description = "Book successfully created, returns uri for new book with id param", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Book.class))}),
             @ApiResponse(responseCode = "422", description = "Bean validation on incoming book", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Object.class))}),
             @ApiResponse(responseCode = "404", description = "No books found", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
-            @ApiResponse(responseCode = "409", description = "Constrain violation on table books i.e. ISBN reference is unique to a book", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
-
+            @ApiResponse(responseCode = "409", description = "Constrain violation on table books i.e. ISBN reference is unique to a book", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
     })
     @PostMapping(value = "/book", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> createBook(@RequestBody @Valid @NotNull Book book) {
+    public Object createBook(@RequestBody @Valid @NotNull Book book) {
         //Note-to-self: BindingResult exception is caught in globalExceptionHandler, no need to do it here.
-        Book newBook = this.bookService.createBook(book);
-        return ResponseEntity.created(ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}").buildAndExpand(newBook.getId()).toUri()).build();
+        //the current request is only bound to this thread, so the location is prepared before handing over.
+        UriComponentsBuilder location = ServletUriComponentsBuilder.fromCurrentRequest().path("/{id}");
+        return this.bookRequestExecutor.execute(() -> {
+            Book newBook = this.bookService.createBook(book);
+            return ResponseEntity.created(location.buildAndExpand(newBook.getId()).toUri()).build();
+        });
+    }
 
+    @Operation(summary = "Bulk import books from a csv body with a header row, rows are validated and inserted in jdbc batches")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Import finished, returns counts and the rejected rows", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ImportResult.class))}),
+            @ApiResponse(responseCode = "400", description = "Missing csv header row", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @PostMapping(value = "/books/import", consumes = "text/csv", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ImportResult> importBooksCsv(InputStream inputStream) throws BadRequestException, IOException {
+        ImportResult importResult = this.bookImportService.importBooks(inputStream, BookImportService.Format.CSV);
+        return ResponseEntity.ok().body(importResult);
+    }
+
+    @Operation(summary = "Bulk import books from a newline delimited json body, rows are validated and inserted in jdbc batches")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Import finished, returns counts and the rejected rows", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ImportResult.class))})
+    })
+    @PostMapping(value = "/books/import", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ImportResult> importBooksNdjson(InputStream inputStream) throws BadRequestException, IOException {
+        ImportResult importResult = this.bookImportService.importBooks(inputStream, BookImportService.Format.NDJSON);
+        return ResponseEntity.ok().body(importResult);
     }
 
     @Operation(summary = "Update book with given id")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Updated book successfully", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Book.class))}),
             @ApiResponse(responseCode = "422", description = "Bean validation on incoming book", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Object.class))}),
-            @ApiResponse(responseCode = "404", description = "No book found for given id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+            @ApiResponse(responseCode = "404", description = "No book found for given id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "409", description = "The book changed while it was being updated, e.g. by a checkout, read it again and retry", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "412", description = "The book no longer matches the If-Match ETag", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
     })
     @PutMapping(value = "/book/{id}", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> updateBook(@PathVariable(value = "id") Long id, @Valid @RequestBody Book book) throws ResourceNotFoundException {
+    public Object updateBook(@PathVariable(value = "id") Long id, @Valid @RequestBody Book book,
+                                        @Parameter(description = "ETag of the book the update was made from, the update is refused with a 412 once the book has changed") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) throws Exception {
         //Note-to-self: BindingResult exception is caught in globalExceptionHandler, no need to do it here.
-        Book updatedBook = this.bookService.updateBook(id, book);
-        return ResponseEntity.ok().body(updatedBook);
+        Long expectedVersion = expectedVersion(id, ifMatch);
+        return this.bookRequestExecutor.execute(() -> {
+            Book updatedBook = expectedVersion != null ? this.bookService.updateBook(id, book, expectedVersion) : this.bookService.updateBook(id, book);
+            return versioned(updatedBook);
+        });
+    }
+
+    @Operation(summary = "Atomically add to or remove from the stock of a book, stock never goes below zero")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Stock adjusted, returns the new stock level", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = StockLevel.class))}),
+            @ApiResponse(responseCode = "404", description = "No book found for given ISBN reference", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "409", description = "Not enough stock to remove the requested amount", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @PostMapping(value = "/book/isbn/{isbn}/stock", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object adjustStock(@PathVariable(value = "isbn") @NotBlank String isbn, @RequestParam(value = "delta") int delta) throws Exception {
+        return this.bookRequestExecutor.execute(() -> {
+            StockLevel stockLevel = this.bookService.adjustStock(isbn, delta);
+            return ResponseEntity.ok().body(stockLevel);
+        });
     }
 
     @Operation(summary = "Delete book with given id")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Book deleted for given id", content = {@Content(mediaType = "application/json")}),
-            @ApiResponse(responseCode = "404", description = "No book found for given id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+            @ApiResponse(responseCode = "404", description = "No book found for given id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
     })
     @DeleteMapping(value = "/book/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> deleteBookById(@PathVariable(value = "id") Long id) throws ResourceNotFoundException {
-        this.bookService.deleteBookById(id);
-        return ResponseEntity.ok().build();
+    public Object deleteBookById(@PathVariable(value = "id") Long id) throws ResourceNotFoundException {
+        return this.bookRequestExecutor.execute(() -> {
+            this.bookService.deleteBookById(id);
+            return ResponseEntity.ok().build();
+        });
+    }
+
+    /**
+     * The list endpoints answer json or smile on the same uri, caches in between have to keep the two apart.
+     */
+    private static ResponseEntity.BodyBuilder negotiated() {
+        return ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+    }
+
+    /**
+     * Links the largest page of /v1/books/page that follows a cut list, no header when nothing was cut.
+     */
+    private static ResponseEntity.BodyBuilder linkNext(ResponseEntity.BodyBuilder response, UriComponentsBuilder nextPage, String nextCursor) {
+        if(nextCursor == null){
+            return response;
+        }
+        String next = nextPage.queryParam("cursor", nextCursor).queryParam("size", MAX_PAGE_SIZE).toUriString();
+        return response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+    }
+
+    /**
+     * The cache is looked up once, on the request thread, and the loader only reads the database. In async mode only
+     * misses wait for the book request pool, so cheap reads don't queue up behind slow queries.
+     */
+    private Object lookup(String cacheName, Object key, BookLoader loader) throws ResourceNotFoundException {
+        Book cachedBook = this.bookCache.get(cacheName, key);
+        if(cachedBook != null){
+            return versioned(cachedBook);
+        }
+        return this.bookRequestExecutor.execute(() -> versioned(loader.load()));
+    }
+
+    /**
+     * Strong ETag from the id and version, the version is bumped on every change so equal tags mean identical bodies.
+     * Spring answers 304 without writing the body when If-None-Match or If-Modified-Since match.
+     */
+    private static ResponseEntity<Book> versioned(Book book) {
+        return ResponseEntity.ok()
+                .eTag(book.getId() + "-" + book.getVersion())
+                .lastModified(book.getLastModified())
+                .body(book);
+    }
+
+    /**
+     * The version the If-Match header holds for the book, null when there is no header or it is "*". Tags are compared
+     * strongly, a weak tag or a tag of another book can never match and fails the update straight away.
+     */
+    private static Long expectedVersion(Long id, String ifMatch) throws PreconditionFailedException {
+        if(ifMatch == null || ifMatch.trim().equals("*")){
+            return null;
+        }
+        String prefix = "\"" + id + "-";
+        for(String tag : ifMatch.split(",")){
+            tag = tag.trim();
+            if(tag.startsWith(prefix) && tag.endsWith("\"")){
+                try {
+                    return Long.parseLong(tag.substring(prefix.length(), tag.length() - 1));
+                }catch (NumberFormatException numberFormatException){
+                    //not one of ours, try the next tag.
+                }
+            }
+        }
+        throw new PreconditionFailedException("If-Match " + ifMatch + " does not match book " + id);
+    }
+
+    /**
+     * Tag of the catalogue from the sequence number of the last book change, so an unchanged catalogue is answered
+     * without loading a row. The version is read before any books, a write in between only makes the tag look older.
+     * The tag is weak, the same catalogue goes out as json, ndjson or smile and gzipped or not, tomcat only compresses
+     * responses with a weak tag. There is no Last-Modified, a delete leaves no row to date it by.
+     */
+    private String catalogueTag() {
+        return "W/\"" + this.bookService.getCatalogueVersion().getSequenceNumber() + "\"";
+    }
+
+    /**
+     * Whether the If-None-Match header holds the catalogue tag, compared weakly like spring does for a GET. Only decides
+     * whether the books are read, the 304 itself is left to spring.
+     */
+    private static boolean matches(String ifNoneMatch, String catalogueTag) {
+        if(ifNoneMatch == null){
+            return false;
+        }
+        String opaqueTag = catalogueTag.substring(2);
+        for(String tag : ifNoneMatch.split(",")){
+            tag = tag.trim();
+            if(tag.equals("*") || tag.equals(catalogueTag) || tag.equals(opaqueTag)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private interface BookLoader {
+        Book load() throws ResourceNotFoundException;
     }
 }
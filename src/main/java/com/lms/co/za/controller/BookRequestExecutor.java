@@ -0,0 +1,173 @@
+package com.lms.co.za.controller;
+
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.exception.ServiceUnavailableException;
+import com.lms.co.za.replication.ReadYourWrites;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the database work of a request, either on the calling tomcat thread (default) or, with library.async.enabled,
+ * as a Callable that spring mvc runs on a bounded pool, so the tomcat thread is handed back while the query runs and
+ * spring writes the response on the async dispatch.
+ * <p>
+ * The pool is registered as spring mvc's async executor and this class as its callable interceptor, see
+ * AsyncRequestConfig. The pool has a fixed number of threads and at most library.async.queue-capacity requests wait for
+ * one, a request that finds no place fails straight away with a ServiceUnavailableException (503), before async
+ * processing has started, instead of piling up behind slow queries. The pool is deliberately not a bean, spring boot
+ * would otherwise back off its own applicationTaskExecutor.
+ */
+@Component
+public class BookRequestExecutor implements CallableProcessingInterceptor, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookRequestExecutor.class);
+
+    private static final String SCOPE_ATTRIBUTE = BookRequestExecutor.class.getName() + ".scope";
+    private static final String PLACE_ATTRIBUTE = BookRequestExecutor.class.getName() + ".place";
+
+    private final ThreadPoolExecutor threadPoolExecutor;
+    //one per thread and queue slot, taken before async processing starts so a full pool is a plain 503.
+    private final Semaphore places;
+    private final Counter rejectedRequests;
+
+    public BookRequestExecutor(LibraryProperties libraryProperties, MeterRegistry meterRegistry) {
+        LibraryProperties.Async async = libraryProperties.getAsync();
+        this.rejectedRequests = Counter.builder("library.book.requests.rejected")
+                .description("Requests turned away with a 503 because the book request queue was full")
+                .register(meterRegistry);
+        if(async.isEnabled()){
+            AtomicInteger threadCount = new AtomicInteger();
+            //bounded by the places, a request that timed out can leave its cancelled task queued for a moment after it
+            //gave its place back.
+            this.threadPoolExecutor = new ThreadPoolExecutor(async.getPoolSize(), async.getPoolSize(), 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> new Thread(runnable, "book-request-" + threadCount.incrementAndGet()),
+                    new ThreadPoolExecutor.AbortPolicy());
+            this.places = new Semaphore(async.getPoolSize() + async.getQueueCapacity());
+            //queue depth, active threads and task timings show up under executor.* with name=library.book.requests.
+            new ExecutorServiceMetrics(this.threadPoolExecutor, "library.book.requests", Tags.empty()).bindTo(meterRegistry);
+            logger.info("async request mode enabled, pool size: {}, queue capacity: {}", async.getPoolSize(), async.getQueueCapacity());
+        }else {
+            this.threadPoolExecutor = null;
+            this.places = null;
+        }
+    }
+
+    public boolean isAsync() {
+        return this.threadPoolExecutor != null;
+    }
+
+    /**
+     * The pool for spring mvc to run Callables on, null unless async mode is on.
+     */
+    public AsyncTaskExecutor taskExecutor() {
+        return this.threadPoolExecutor != null ? new ConcurrentTaskExecutor(this.threadPoolExecutor) : null;
+    }
+
+    /**
+     * The request's database work, for a handler to return. In the default mode the work runs here and its response
+     * is returned, in async mode a Callable spring runs on the pool, exceptions it throws are mapped on the async
+     * dispatch like a synchronous handler's.
+     */
+    public <T, E extends Exception> Object execute(BookRequest<T, E> request) throws E {
+        if(this.threadPoolExecutor == null){
+            return request.call();
+        }
+        return (Callable<ResponseEntity<T>>) request::call;
+    }
+
+    @Override
+    public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) throws Exception {
+        if(!this.places.tryAcquire()){
+            this.rejectedRequests.increment();
+            throw new ServiceUnavailableException("Book request queue is full, retry later");
+        }
+        request.setAttribute(PLACE_ATTRIBUTE, new AtomicBoolean(true), RequestAttributes.SCOPE_REQUEST);
+        //the worker is still part of the request, it has to read its writes the same way.
+        ReadYourWrites.Scope scope = ReadYourWrites.current();
+        if(scope != null){
+            request.setAttribute(SCOPE_ATTRIBUTE, scope, RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    @Override
+    public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+        ReadYourWrites.bind((ReadYourWrites.Scope) request.getAttribute(SCOPE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST));
+    }
+
+    @Override
+    public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) throws Exception {
+        if(concurrentResult instanceof RejectedExecutionException){
+            //the submit failed, this runs on the request thread. Only while the pool shuts down, the places keep it from
+            //filling up otherwise.
+            this.rejectedRequests.increment();
+            throw new ServiceUnavailableException("Book request pool is shutting down, retry later", (RejectedExecutionException) concurrentResult);
+        }
+        //pool threads only ever run requests, nothing was bound before.
+        ReadYourWrites.bind(null);
+    }
+
+    @Override
+    public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+        //completion follows a timeout or an error too, the place is given back once whatever ended the request.
+        AtomicBoolean place = (AtomicBoolean) request.getAttribute(PLACE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if(place != null && place.compareAndSet(true, false)){
+            this.places.release();
+        }
+    }
+
+    /**
+     * Runs a call on the pool outside of a request, holding a place until it is done like a request does.
+     */
+    <T> Future<T> submit(Callable<T> call) throws ServiceUnavailableException {
+        if(!this.places.tryAcquire()){
+            this.rejectedRequests.increment();
+            throw new ServiceUnavailableException("Book request queue is full, retry later");
+        }
+        try {
+            return this.threadPoolExecutor.submit(() -> {
+                try {
+                    return call.call();
+                }finally {
+                    this.places.release();
+                }
+            });
+        }catch (RejectedExecutionException rejectedExecutionException){
+            this.places.release();
+            throw new ServiceUnavailableException("Book request pool is shutting down, retry later", rejectedExecutionException);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if(this.threadPoolExecutor != null){
+            this.threadPoolExecutor.shutdown();
+        }
+    }
+
+    public interface BookRequest<T, E extends Exception> {
+        ResponseEntity<T> call() throws E;
+    }
+}
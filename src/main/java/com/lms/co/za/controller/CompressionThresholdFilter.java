@@ -0,0 +1,129 @@
+package com.lms.co.za.controller;
+
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tomcat only applies server.compression.min-response-size when it knows the length of the body as the response is
+ * committed, but the message converters flush after every body they write, which commits it with the length unknown
+ * and so gzips even a single book. Flushes of a compressible response are held back here until it has reached the
+ * threshold, a smaller body stays in tomcat's buffer and is sent with a Content-Length when the response completes.
+ * Other content types, e.g. the server sent change events, are flushed as before.
+ */
+public class CompressionThresholdFilter extends OncePerRequestFilter {
+
+    private final List<MimeType> mimeTypes = new ArrayList<>();
+    private final long minResponseSize;
+
+    public CompressionThresholdFilter(String[] mimeTypes, long minResponseSize) {
+        for(String mimeType : mimeTypes){
+            this.mimeTypes.add(MimeTypeUtils.parseMimeType(mimeType));
+        }
+        this.minResponseSize = minResponseSize;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        filterChain.doFilter(request, new ThresholdResponse(response));
+    }
+
+    private boolean isCompressible(String contentType) {
+        if(contentType == null){
+            return false;
+        }
+        MimeType mimeType = MimeTypeUtils.parseMimeType(contentType);
+        for(MimeType compressible : this.mimeTypes){
+            if(compressible.equalsTypeAndSubtype(mimeType)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private class ThresholdResponse extends HttpServletResponseWrapper {
+
+        private ThresholdOutputStream outputStream;
+
+        ThresholdResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if(this.outputStream == null){
+                this.outputStream = new ThresholdOutputStream(this, super.getOutputStream());
+            }
+            return this.outputStream;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if(!isHeld()){
+                super.flushBuffer();
+            }
+        }
+
+        boolean isHeld() {
+            long written = this.outputStream != null ? this.outputStream.written : 0;
+            return !isCommitted() && written < minResponseSize && isCompressible(getContentType());
+        }
+    }
+
+    private static class ThresholdOutputStream extends ServletOutputStream {
+
+        private final ThresholdResponse response;
+        private final ServletOutputStream delegate;
+        private long written;
+
+        ThresholdOutputStream(ThresholdResponse response, ServletOutputStream delegate) {
+            this.response = response;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.delegate.write(b);
+            this.written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.delegate.write(b, off, len);
+            this.written += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(!this.response.isHeld()){
+                this.delegate.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return this.delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.delegate.setWriteListener(writeListener);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.lms.co.za.controller;
+
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.exception.model.ApiError;
+import com.lms.co.za.model.Loan;
+import com.lms.co.za.service.LoanService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@RestController
+@Validated
+@RequestMapping(value = "v1")
+public class LoanController {
+
+    @Autowired
+    LoanService loanService;
+
+    @Autowired
+    BookRequestExecutor bookRequestExecutor;
+
+    @Operation(summary = "Check out a copy of a book, the copy set aside for the borrower's ready hold or one from the shelf")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "Copy checked out, returns the loan", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Loan.class))}),
+            @ApiResponse(responseCode = "404", description = "No book found for given ISBN reference", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "409", description = "No copies in stock, place a hold instead", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @PostMapping(value = "/book/isbn/{isbn}/loans", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object checkout(@PathVariable(value = "isbn") @NotBlank String isbn,
+                                                            @RequestParam(value = "borrower") @NotBlank @Size(max = 255) String borrower) throws Exception {
+        UriComponentsBuilder location = loanLocation();
+        return this.bookRequestExecutor.execute(() -> {
+            Loan loan = this.loanService.checkout(isbn, borrower);
+            return ResponseEntity.created(location.buildAndExpand(loan.getId()).toUri()).body(loan);
+        });
+    }
+
+    @Operation(summary = "Return a copy on loan, it is set aside for the oldest waiting hold or goes back on the shelf")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Copy returned, returns the closed loan", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Loan.class))}),
+            @ApiResponse(responseCode = "404", description = "No loan found for given id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "409", description = "The loan is not on loan, e.g. already returned", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @PostMapping(value = "/loans/{id}/return", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object returnLoan(@PathVariable(value = "id") @NotNull Long id) throws Exception {
+        return this.bookRequestExecutor.execute(() -> ResponseEntity.ok().body(this.loanService.returnLoan(id)));
+    }
+
+    @Operation(summary = "Get a loan or hold by id")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Loan or hold found for id, a waiting hold with its place in the queue", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Loan.class))}),
+            @ApiResponse(responseCode = "404", description = "No loan found for given id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @GetMapping(value = "/loans/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object getLoanById(@PathVariable(value = "id") @NotNull Long id) throws ResourceNotFoundException {
+        return this.bookRequestExecutor.execute(() -> ResponseEntity.ok().body(this.loanService.getLoanById(id)));
+    }
+
+    @Operation(summary = "Get the open loans and holds of a borrower, oldest first")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Returns the loans on loan and the holds waiting or ready, empty when there are none", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Loan.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @GetMapping(value = "/loans", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object getLoansByBorrower(@RequestParam(value = "borrower") @NotBlank String borrower) {
+        return this.bookRequestExecutor.execute(() -> ResponseEntity.ok().body(this.loanService.getLoansByBorrower(borrower)));
+    }
+
+    @Operation(summary = "Join the hold queue of a book that has no copies in stock")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "Hold placed, returns it with its place in the queue", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Loan.class))}),
+            @ApiResponse(responseCode = "404", description = "No book found for given ISBN reference", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "409", description = "Copies are in stock, or the borrower already has a loan or hold for the book", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @PostMapping(value = "/book/isbn/{isbn}/holds", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object placeHold(@PathVariable(value = "isbn") @NotBlank String isbn,
+                                                             @RequestParam(value = "borrower") @NotBlank @Size(max = 255) String borrower) throws Exception {
+        UriComponentsBuilder location = loanLocation();
+        return this.bookRequestExecutor.execute(() -> {
+            Loan hold = this.loanService.placeHold(isbn, borrower);
+            return ResponseEntity.created(location.buildAndExpand(hold.getId()).toUri()).body(hold);
+        });
+    }
+
+    @Operation(summary = "Get the hold queue of a book, ready holds first and then waiting holds in queue order")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Returns the open holds of the book, empty when there are none", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Loan.class))}),
+            @ApiResponse(responseCode = "404", description = "No book found for given ISBN reference", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @GetMapping(value = "/book/isbn/{isbn}/holds", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object getHoldQueue(@PathVariable(value = "isbn") @NotBlank String isbn) throws ResourceNotFoundException {
+        return this.bookRequestExecutor.execute(() -> ResponseEntity.ok().body(this.loanService.getHoldQueue(isbn)));
+    }
+
+    @Operation(summary = "Cancel a hold, a copy set aside for it goes to the next in the queue or back on the shelf")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Hold cancelled, returns it", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = Loan.class))}),
+            @ApiResponse(responseCode = "404", description = "No hold found for given id", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "409", description = "The hold is no longer waiting or ready", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))}),
+            @ApiResponse(responseCode = "503", description = "Async mode only, the book request queue is full, retry after the Retry-After header", content = {@Content(mediaType = "application/json", schema = @Schema(implementation = ApiError.class))})
+    })
+    @DeleteMapping(value = "/holds/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object cancelHold(@PathVariable(value = "id") @NotNull Long id) throws Exception {
+        return this.bookRequestExecutor.execute(() -> ResponseEntity.ok().body(this.loanService.cancelHold(id)));
+    }
+
+    //the current request is only bound to this thread, so the location is prepared before handing over.
+    private static UriComponentsBuilder loanLocation() {
+        return ServletUriComponentsBuilder.fromCurrentContextPath().path("/v1/loans/{id}");
+    }
+}
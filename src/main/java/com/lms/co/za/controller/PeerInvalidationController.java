@@ -0,0 +1,46 @@
+package com.lms.co.za.controller;
+
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.model.CacheInvalidation;
+import com.lms.co.za.peers.PeerInvalidationReceiver;
+import com.lms.co.za.peers.PeerInvalidationSender;
+import io.swagger.v3.oas.annotations.Hidden;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Receives the cache invalidations of the other instances, outside /v1 so they are never rate limited and not part of
+ * the published api. Only callers sending library.peers.token are answered, the token is compared in constant time.
+ */
+@Hidden
+@RestController
+public class PeerInvalidationController {
+
+    @Autowired
+    PeerInvalidationReceiver peerInvalidationReceiver;
+
+    @Autowired
+    LibraryProperties libraryProperties;
+
+    @PostMapping(value = PeerInvalidationSender.INVALIDATIONS_PATH, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Void> receiveInvalidation(@RequestHeader(value = PeerInvalidationSender.TOKEN_HEADER, required = false) String token,
+                                                    @RequestBody CacheInvalidation invalidation) {
+        String expectedToken = this.libraryProperties.getPeers().getToken();
+        //an instance without a token has no peers and takes no invalidations.
+        if(expectedToken == null || expectedToken.isEmpty() || token == null
+                || !MessageDigest.isEqual(expectedToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8))){
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        this.peerInvalidationReceiver.receive(invalidation);
+        return ResponseEntity.noContent().build();
+    }
+}
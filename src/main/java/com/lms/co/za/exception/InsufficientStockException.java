@@ -0,0 +1,16 @@
+package com.lms.co.za.exception;
+
+/**
+ * Thrown when there aren't enough copies on the shelf, a routine outcome for a popular title answered with a 409, so no
+ * stack trace is captured.
+ */
+public class InsufficientStockException extends Exception {
+
+    public InsufficientStockException(String message) {
+        super(message, null, false, false);
+    }
+
+    public InsufficientStockException(String message, Throwable cause) {
+        super(message, cause, false, false);
+    }
+}
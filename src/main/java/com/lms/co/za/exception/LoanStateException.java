@@ -0,0 +1,16 @@
+package com.lms.co.za.exception;
+
+/**
+ * Thrown when a loan or hold isn't in a state that allows the requested change, e.g. returning a loan twice, answered
+ * with a 409.
+ */
+public class LoanStateException extends Exception {
+
+    public LoanStateException(String message) {
+        super(message, null, false, false);
+    }
+
+    public LoanStateException(String message, Throwable cause) {
+        super(message, cause, false, false);
+    }
+}
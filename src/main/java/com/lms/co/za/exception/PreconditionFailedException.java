@@ -0,0 +1,16 @@
+package com.lms.co.za.exception;
+
+/**
+ * Thrown when the If-Match ETag of an update no longer matches the stored book, answered with a 412 so the client can
+ * read the book again before deciding what to write.
+ */
+public class PreconditionFailedException extends Exception {
+
+    public PreconditionFailedException(String message) {
+        super(message, null, false, false);
+    }
+
+    public PreconditionFailedException(String message, Throwable cause) {
+        super(message, cause, false, false);
+    }
+}
@@ -1,12 +1,15 @@
 package com.lms.co.za.exception;
 
+/**
+ * Thrown for lookups that find nothing, a routine outcome answered with a 404, so no stack trace is captured.
+ */
 public class ResourceNotFoundException extends Exception {
 
     public ResourceNotFoundException(String message) {
-        super(message);
+        super(message, null, false, false);
     }
 
     public ResourceNotFoundException(String message, Throwable cause) {
-        super(message, cause);
+        super(message, cause, false, false);
     }
 }
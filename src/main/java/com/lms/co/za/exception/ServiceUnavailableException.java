@@ -0,0 +1,12 @@
+package com.lms.co.za.exception;
+
+public class ServiceUnavailableException extends Exception {
+
+    public ServiceUnavailableException(String message) {
+        super(message);
+    }
+
+    public ServiceUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
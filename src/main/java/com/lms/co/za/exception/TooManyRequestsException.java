@@ -0,0 +1,19 @@
+package com.lms.co.za.exception;
+
+/**
+ * Thrown when a client is over its request rate or an endpoint is at its concurrency limit, answered with a 429 and
+ * a Retry-After header. Routine under load, so no stack trace is captured.
+ */
+public class TooManyRequestsException extends Exception {
+
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message, null, false, false);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return this.retryAfterSeconds;
+    }
+}
@@ -1,10 +1,19 @@
 package com.lms.co.za.exception.handler;
 
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.exception.BadRequestException;
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.LoanStateException;
+import com.lms.co.za.exception.PreconditionFailedException;
 import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.exception.ServiceUnavailableException;
+import com.lms.co.za.exception.TooManyRequestsException;
 import com.lms.co.za.exception.model.ApiError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -16,6 +25,7 @@ import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import javax.validation.ConstraintViolationException;
+import java.time.Clock;
 import java.time.LocalDateTime;
 
 @RestControllerAdvice
@@ -23,39 +33,110 @@ public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(GlobalExceptionHandler.class);
 
+    //resolving the default zone copies it on every call, the clock resolves it once.
+    private static final Clock clock = Clock.systemDefaultZone();
+
+    @Autowired
+    LibraryProperties libraryProperties;
+
+    //404s are routine, bots and stale links can send thousands a second.
+    private final RateLimitedLog notFoundLog = new RateLimitedLog(logger, () -> this.libraryProperties.getNotFound().getLogsPerSecond());
+
+    //429s come in floods by definition, a client over its limit usually keeps trying.
+    private final RateLimitedLog tooManyRequestsLog = new RateLimitedLog(logger, () -> this.libraryProperties.getLimits().getLogsPerSecond());
+
+    //a popular title that runs out turns away every checkout after the last copy.
+    private final RateLimitedLog insufficientStockLog = new RateLimitedLog(logger, () -> this.libraryProperties.getLoans().getLogsPerSecond());
+
     @ExceptionHandler(ResourceNotFoundException.class)
     @ResponseStatus(value = HttpStatus.NOT_FOUND)
     public ApiError handleResourceNotFoundException(ResourceNotFoundException resourceNotFoundException, WebRequest webRequest){
-        logger.warn("resourceNotFoundException: " + resourceNotFoundException.getMessage() + ", request: " + webRequest.getDescription(false));
-        return new ApiError(HttpStatus.NOT_FOUND.value(), resourceNotFoundException.getMessage(), webRequest.getDescription(false), LocalDateTime.now());
+        String request = webRequest.getDescription(false);
+        this.notFoundLog.warn("resourceNotFoundException: {}, request: {}", resourceNotFoundException.getMessage(), request);
+        return new ApiError(HttpStatus.NOT_FOUND.value(), resourceNotFoundException.getMessage(), request, LocalDateTime.now(clock));
+    }
+
+    @ExceptionHandler(BadRequestException.class)
+    @ResponseStatus(value = HttpStatus.BAD_REQUEST)
+    public ApiError handleBadRequestException(BadRequestException badRequestException, WebRequest webRequest){
+        logger.warn("badRequestException: {}, request: {}", badRequestException.getMessage(), webRequest.getDescription(false));
+        return new ApiError(HttpStatus.BAD_REQUEST.value(), badRequestException.getMessage(), webRequest.getDescription(false), LocalDateTime.now(clock));
+    }
+
+    @ExceptionHandler(InsufficientStockException.class)
+    @ResponseStatus(value = HttpStatus.CONFLICT)
+    public ApiError handleInsufficientStockException(InsufficientStockException insufficientStockException, WebRequest webRequest){
+        String request = webRequest.getDescription(false);
+        this.insufficientStockLog.warn("insufficientStockException: {}, request: {}", insufficientStockException.getMessage(), request);
+        return new ApiError(HttpStatus.CONFLICT.value(), insufficientStockException.getMessage(), request, LocalDateTime.now(clock));
+    }
+
+    @ExceptionHandler(LoanStateException.class)
+    @ResponseStatus(value = HttpStatus.CONFLICT)
+    public ApiError handleLoanStateException(LoanStateException loanStateException, WebRequest webRequest){
+        logger.warn("loanStateException: {}, request: {}", loanStateException.getMessage(), webRequest.getDescription(false));
+        return new ApiError(HttpStatus.CONFLICT.value(), loanStateException.getMessage(), webRequest.getDescription(false), LocalDateTime.now(clock));
+    }
+
+    @ExceptionHandler(PreconditionFailedException.class)
+    @ResponseStatus(value = HttpStatus.PRECONDITION_FAILED)
+    public ApiError handlePreconditionFailedException(PreconditionFailedException preconditionFailedException, WebRequest webRequest){
+        logger.warn("preconditionFailedException: {}, request: {}", preconditionFailedException.getMessage(), webRequest.getDescription(false));
+        return new ApiError(HttpStatus.PRECONDITION_FAILED.value(), preconditionFailedException.getMessage(), webRequest.getDescription(false), LocalDateTime.now(clock));
+    }
+
+    //a stock adjustment committed between reading a book and writing it back, the client reads it again and retries.
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    @ResponseStatus(value = HttpStatus.CONFLICT)
+    public ApiError handleOptimisticLockingFailureException(OptimisticLockingFailureException optimisticLockingFailureException, WebRequest webRequest){
+        logger.warn("optimisticLockingFailureException: {}, request: {}", optimisticLockingFailureException.getMessage(), webRequest.getDescription(false));
+        return new ApiError(HttpStatus.CONFLICT.value(), "The book was changed by another request, read it again and retry", webRequest.getDescription(false), LocalDateTime.now(clock));
+    }
+
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<ApiError> handleServiceUnavailableException(ServiceUnavailableException serviceUnavailableException, WebRequest webRequest){
+        logger.warn("serviceUnavailableException: {}, request: {}", serviceUnavailableException.getMessage(), webRequest.getDescription(false));
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(this.libraryProperties.getAsync().getRetryAfterSeconds()))
+                .body(new ApiError(HttpStatus.SERVICE_UNAVAILABLE.value(), serviceUnavailableException.getMessage(), webRequest.getDescription(false), LocalDateTime.now(clock)));
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<ApiError> handleTooManyRequestsException(TooManyRequestsException tooManyRequestsException, WebRequest webRequest){
+        String request = webRequest.getDescription(false);
+        this.tooManyRequestsLog.warn("tooManyRequestsException: {}, request: {}", tooManyRequestsException.getMessage(), request);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(tooManyRequestsException.getRetryAfterSeconds()))
+                .body(new ApiError(HttpStatus.TOO_MANY_REQUESTS.value(), tooManyRequestsException.getMessage(), request, LocalDateTime.now(clock)));
     }
 
     @ExceptionHandler(DataIntegrityViolationException.class)
     @ResponseStatus(value = HttpStatus.NOT_FOUND)
     public ApiError handleDuplicateResourceException(DataIntegrityViolationException dataIntegrityViolationException, WebRequest webRequest){
-        logger.error("dataIntegrityViolationException: " + dataIntegrityViolationException.getMessage() + ", request: " + webRequest.getDescription(false));
-        return new ApiError(HttpStatus.CONFLICT.value(), dataIntegrityViolationException.getMessage(),webRequest.getDescription(false), LocalDateTime.now());
+        logger.error("dataIntegrityViolationException: {}, request: {}", dataIntegrityViolationException.getMessage(), webRequest.getDescription(false));
+        return new ApiError(HttpStatus.CONFLICT.value(), dataIntegrityViolationException.getMessage(),webRequest.getDescription(false), LocalDateTime.now(clock));
     }
 
     @ExceptionHandler(ConstraintViolationException.class)
     @ResponseStatus(value = HttpStatus.BAD_REQUEST)
     public ApiError handleConstraintViolationException(ConstraintViolationException constraintViolationException, WebRequest webRequest){
-        logger.error("constraintViolationException: " + constraintViolationException.getMessage() + ", request: " + webRequest.getDescription(false));
-        return new ApiError(HttpStatus.BAD_REQUEST.value(), constraintViolationException.getMessage(), webRequest.getDescription(false), LocalDateTime.now());
+        logger.error("constraintViolationException: {}, request: {}", constraintViolationException.getMessage(), webRequest.getDescription(false));
+        return new ApiError(HttpStatus.BAD_REQUEST.value(), constraintViolationException.getMessage(), webRequest.getDescription(false), LocalDateTime.now(clock));
     }
 
     @ExceptionHandler(Exception.class)
-    public ApiError handleAllExceptions(Exception exception, WebRequest webRequest){
-        logger.error("exception: " + exception.getMessage() + ", request: " + webRequest.getDescription(false));
+    public ResponseEntity<ApiError> handleAllExceptions(Exception exception, WebRequest webRequest){
+        logger.error("exception: {}, request: {}", exception.getMessage(), webRequest.getDescription(false));
         ResponseStatus responseStatus = exception.getClass().getAnnotation(ResponseStatus.class);
         final HttpStatus httpStatus = responseStatus  != null ? responseStatus.value() : HttpStatus.INTERNAL_SERVER_ERROR;
-        return new ApiError(httpStatus.value(), exception.getMessage(), webRequest.getDescription(false), LocalDateTime.now());
+        //the status goes on the response as well as in the body, a client shouldn't see a 200 carrying an error.
+        return ResponseEntity.status(httpStatus).body(new ApiError(httpStatus.value(), exception.getMessage(), webRequest.getDescription(false), LocalDateTime.now(clock)));
     }
 
     @Override
     protected ResponseEntity<Object> handleMethodArgumentNotValid(MethodArgumentNotValidException methodArgumentNotValidException, HttpHeaders headers, HttpStatus status, WebRequest webRequest) {
-        logger.error("methodArgumentNotValidException: " + methodArgumentNotValidException.getMessage() + ", request: " + webRequest.getDescription(false));
-        return ResponseEntity.unprocessableEntity().body(new ApiError(HttpStatus.UNPROCESSABLE_ENTITY.value(), methodArgumentNotValidException.getAllErrors(), webRequest.getDescription(false), LocalDateTime.now()));
+        logger.error("methodArgumentNotValidException: {}, request: {}", methodArgumentNotValidException.getMessage(), webRequest.getDescription(false));
+        return ResponseEntity.unprocessableEntity().body(new ApiError(HttpStatus.UNPROCESSABLE_ENTITY.value(), methodArgumentNotValidException.getAllErrors(), webRequest.getDescription(false), LocalDateTime.now(clock)));
 
     }
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package com.lms.co.za.exception.handler;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Writes at most a set number of warnings per second, the ones over the limit are only counted and the count is added
+ * to the next warning that gets written. Keeps a flood of routine errors from hogging the log appenders.
+ * <p>
+ * The limit comes from the logs-per-second property of the error's section of LibraryProperties, read on every warning.
+ */
+class RateLimitedLog {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final Logger logger;
+    private final IntSupplier perSecond;
+    private final AtomicLong currentSecond = new AtomicLong(System.nanoTime() / SECOND);
+    private final AtomicInteger writtenThisSecond = new AtomicInteger();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    RateLimitedLog(Logger logger, IntSupplier perSecond) {
+        this.logger = logger;
+        this.perSecond = perSecond;
+    }
+
+    void warn(String format, Object argument1, Object argument2) {
+        if(!this.logger.isWarnEnabled()){
+            return;
+        }
+        long second = System.nanoTime() / SECOND;
+        long current = this.currentSecond.get();
+        if(second != current && this.currentSecond.compareAndSet(current, second)){
+            this.writtenThisSecond.set(0);
+        }
+        if(this.writtenThisSecond.incrementAndGet() > this.perSecond.getAsInt()){
+            this.suppressed.incrementAndGet();
+            return;
+        }
+        long suppressedSinceLast = this.suppressed.getAndSet(0);
+        if(suppressedSinceLast == 0){
+            this.logger.warn(format, argument1, argument2);
+        }else {
+            this.logger.warn(format + " ({} more not logged)", argument1, argument2, suppressedSinceLast);
+        }
+    }
+}
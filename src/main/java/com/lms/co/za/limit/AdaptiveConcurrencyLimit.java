@@ -0,0 +1,121 @@
+package com.lms.co.za.limit;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps how many requests of an expensive kind run at once, and moves the cap with their latency.
+ * <p>
+ * Latencies are looked at a window at a time, a limit's worth of finished requests and at least MIN_WINDOW. The limit
+ * grows by one after a window whose median latency stayed within latencyTolerance times the no-load latency while the
+ * limit was in use, and shrinks by a tenth after one whose median went above it, the usual additive increase,
+ * multiplicative decrease. Latency rising above the no-load latency means requests are queueing somewhere, on database
+ * connections, locks or cpu, and letting more in would only make every one of them slower.
+ * <p>
+ * The no-load latency is the lowest median of the last NO_LOAD_WINDOWS windows. Neither a single lucky request nor
+ * requests that are slow by nature, like a search for a common author, move a median far, and it follows the catalogue
+ * as it grows. Taking a permit is a compare and set on the in-flight count, only finishing requests lock.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final int MIN_WINDOW = 20;
+    //windows the no-load latency is taken from, a few thousand requests at the default limits.
+    private static final int NO_LOAD_WINDOWS = 100;
+    private static final double DECREASE = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    //guarded by the limit, the latencies of the current window and how many finished with the limit at least half used.
+    private long[] latencies = new long[MIN_WINDOW];
+    private int finished;
+    private int busy;
+    //median of each recent window, oldest overwritten first.
+    private final long[] medians = new long[NO_LOAD_WINDOWS];
+    private int windows;
+
+    public AdaptiveConcurrencyLimit(String name, int initialLimit, int minLimit, int maxLimit, double latencyTolerance) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getLimit() {
+        return (int) this.limit;
+    }
+
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * @return true when the request may run, it then has to be finished with {@link #release(long)} or
+     * {@link #release()}.
+     */
+    public boolean tryAcquire() {
+        while(true){
+            int current = this.inFlight.get();
+            if(current >= (int) this.limit){
+                return false;
+            }
+            if(this.inFlight.compareAndSet(current, current + 1)){
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends a request that didn't do the work the limit is for, e.g. a 304 or a 404, without adjusting the limit. Its
+     * latency would pull the no-load latency down to a level the real work never reaches.
+     */
+    public void release() {
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Ends a request started by a successful {@link #tryAcquire()} and adjusts the limit by how long it took.
+     */
+    public void release(long latencyNanos) {
+        int inFlightBefore = this.inFlight.getAndDecrement();
+        synchronized (this){
+            if(this.finished == this.latencies.length){
+                this.latencies = Arrays.copyOf(this.latencies, this.finished * 2);
+            }
+            this.latencies[this.finished++] = latencyNanos;
+            double current = this.limit;
+            if(inFlightBefore * 2 >= (int) current){
+                this.busy++;
+            }
+            if(this.finished >= Math.max(MIN_WINDOW, (int) current)){
+                endWindow(current);
+            }
+        }
+    }
+
+    private void endWindow(double current) {
+        Arrays.sort(this.latencies, 0, this.finished);
+        long median = this.latencies[this.finished / 2];
+        this.medians[this.windows++ % NO_LOAD_WINDOWS] = median;
+        long noLoadLatencyNanos = Long.MAX_VALUE;
+        for(int i = 0; i < Math.min(this.windows, NO_LOAD_WINDOWS); i++){
+            noLoadLatencyNanos = Math.min(noLoadLatencyNanos, this.medians[i]);
+        }
+        if(median > noLoadLatencyNanos * this.latencyTolerance){
+            this.limit = Math.max(this.minLimit, current * DECREASE);
+        }else if(this.busy * 2 >= this.finished){
+            //only grows while at least half of it is used, an idle endpoint says nothing about a higher limit.
+            this.limit = Math.min(this.maxLimit, current + 1);
+        }
+        this.finished = 0;
+        this.busy = 0;
+    }
+}
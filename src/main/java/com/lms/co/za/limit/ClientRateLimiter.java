@@ -0,0 +1,70 @@
+package com.lms.co.za.limit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket per client, refilled at a steady rate up to a burst.
+ * <p>
+ * Each bucket is a single AtomicLong holding the time at which it will be full again, the generic cell rate algorithm
+ * form of a token bucket. Taking a token moves that time on by one refill interval, a request is allowed while the
+ * time stays within one burst of now. Updates are a compare and set on the client's own counter, so clients never
+ * contend with each other and there is no refill thread.
+ * <p>
+ * Buckets live in a bounded cache and expire once idle for as long as a full refill takes, a bucket that old is full
+ * and recreating it gives the same answer.
+ */
+public class ClientRateLimiter {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final LongSupplier nanoTime;
+    private final Cache<String, AtomicLong> buckets;
+
+    public ClientRateLimiter(double requestsPerSecond, int burst, long maxClients) {
+        this(requestsPerSecond, burst, maxClients, System::nanoTime);
+    }
+
+    ClientRateLimiter(double requestsPerSecond, int burst, long maxClients, LongSupplier nanoTime) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond));
+        this.burstNanos = this.intervalNanos * burst;
+        this.nanoTime = nanoTime;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess(Duration.ofNanos(Math.max(this.burstNanos, TimeUnit.SECONDS.toNanos(1))))
+                //expires buckets on the same clock the buckets are kept on.
+                .ticker(nanoTime::getAsLong)
+                .build();
+    }
+
+    /**
+     * Takes a token from the client's bucket.
+     *
+     * @return 0 when the request is allowed, otherwise the nanoseconds until the bucket has a token again.
+     */
+    public long tryAcquire(String client) {
+        AtomicLong fullAt = this.buckets.get(client, key -> new AtomicLong(this.nanoTime.getAsLong()));
+        while(true){
+            long now = this.nanoTime.getAsLong();
+            long current = fullAt.get();
+            //a bucket full since before now starts from now, unused time doesn't add tokens beyond the burst.
+            long next = (current - now < 0 ? now : current) + this.intervalNanos;
+            long overBurst = next - now - this.burstNanos;
+            if(overBurst > 0){
+                return overBurst;
+            }
+            if(fullAt.compareAndSet(current, next)){
+                return 0;
+            }
+        }
+    }
+
+    public long trackedClients() {
+        return this.buckets.estimatedSize();
+    }
+}
@@ -0,0 +1,90 @@
+package com.lms.co.za.limit;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Set;
+
+/**
+ * Applies {@link RequestLimits} before a /v1 request reaches the controller, a rejection is thrown as a
+ * TooManyRequestsException and answered with a 429 by the global exception handler.
+ * <p>
+ * A concurrency permit is held until the response is complete, for async requests (database work on the async pool, streamed
+ * ndjson) that is the end of the async dispatch, which is not limited a second time.
+ */
+public class RequestLimitInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String PERMIT = RequestLimitInterceptor.class.getName() + ".permit";
+
+    private final RequestLimits requestLimits;
+    private final String clientHeader;
+    private final Set<String> apiKeys;
+    private final String forwardedForHeader;
+
+    public RequestLimitInterceptor(RequestLimits requestLimits, String clientHeader, Set<String> apiKeys, String forwardedForHeader) {
+        this.requestLimits = requestLimits;
+        this.clientHeader = clientHeader;
+        this.apiKeys = apiKeys;
+        this.forwardedForHeader = forwardedForHeader;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if(request.getDispatcherType() == DispatcherType.ASYNC){
+            return true;
+        }
+        this.requestLimits.checkRate(client(request));
+        if(handler instanceof HandlerMethod){
+            AdaptiveConcurrencyLimit limit = this.requestLimits.concurrencyLimit(((HandlerMethod) handler).getMethod().getName());
+            if(limit != null){
+                this.requestLimits.acquire(limit);
+                request.setAttribute(PERMIT, new Permit(limit, System.nanoTime()));
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception exception) {
+        Permit permit = (Permit) request.getAttribute(PERMIT);
+        if(permit == null){
+            return;
+        }
+        request.removeAttribute(PERMIT);
+        if(exception == null && response.getStatus() == HttpServletResponse.SC_OK){
+            permit.limit.release(System.nanoTime() - permit.startNanos);
+        }else {
+            permit.limit.release();
+        }
+    }
+
+    private String client(HttpServletRequest request) {
+        String apiKey = request.getHeader(this.clientHeader);
+        //only configured keys get a bucket of their own, a made up key would start from a full bucket and push out the
+        //buckets of real clients. Prefixed so an api key can't take the bucket of an address.
+        return apiKey != null && this.apiKeys.contains(apiKey) ? "key:" + apiKey : "address:" + address(request);
+    }
+
+    private String address(HttpServletRequest request) {
+        String forwardedFor = this.forwardedForHeader != null ? request.getHeader(this.forwardedForHeader) : null;
+        if(forwardedFor == null || forwardedFor.trim().isEmpty()){
+            return request.getRemoteAddr();
+        }
+        //the proxy appends the address it saw, anything before it was sent by the client.
+        return forwardedFor.substring(forwardedFor.lastIndexOf(',') + 1).trim();
+    }
+
+    private static class Permit {
+
+        private final AdaptiveConcurrencyLimit limit;
+        private final long startNanos;
+
+        Permit(AdaptiveConcurrencyLimit limit, long startNanos) {
+            this.limit = limit;
+            this.startNanos = startNanos;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.lms.co.za.limit;
+
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per client rate limit and the per operation concurrency limits of the /v1 api, both configured under
+ * library.limits. Every decision is counted in library.limiter.decisions, tagged with the limiter and whether the
+ * request was allowed or rejected, the concurrency limits also report their current limit and in-flight requests.
+ */
+@Component
+public class RequestLimits {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestLimits.class);
+
+    public static final String RATE_LIMITER = "rate";
+
+    private final ClientRateLimiter clientRateLimiter;
+    private final Map<String, AdaptiveConcurrencyLimit> concurrencyLimits = new HashMap<>();
+    private final Map<String, Counter[]> decisions = new HashMap<>();
+    private final int retryAfterSeconds;
+
+    public RequestLimits(LibraryProperties libraryProperties, MeterRegistry meterRegistry) {
+        LibraryProperties.RateLimit rate = libraryProperties.getLimits().getRate();
+        if(rate.isEnabled()){
+            this.clientRateLimiter = new ClientRateLimiter(rate.getRequestsPerSecond(), rate.getBurst(), rate.getMaxClients());
+            Gauge.builder("library.limiter.clients", this.clientRateLimiter, ClientRateLimiter::trackedClients)
+                    .description("Clients with a token bucket")
+                    .register(meterRegistry);
+            this.decisions.put(RATE_LIMITER, decisionCounters(meterRegistry, RATE_LIMITER));
+            logger.info("rate limit enabled, {} requests per second per client, burst {}", rate.getRequestsPerSecond(), rate.getBurst());
+        }else {
+            this.clientRateLimiter = null;
+        }
+        LibraryProperties.ConcurrencyLimit concurrency = libraryProperties.getLimits().getConcurrency();
+        this.retryAfterSeconds = concurrency.getRetryAfterSeconds();
+        if(concurrency.isEnabled()){
+            for(Map.Entry<String, List<String>> operations : concurrency.getOperations().entrySet()){
+                String name = operations.getKey();
+                AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(name, concurrency.getInitialLimit(),
+                        concurrency.getMinLimit(), concurrency.getMaxLimit(), concurrency.getLatencyTolerance());
+                for(String operation : operations.getValue()){
+                    this.concurrencyLimits.put(operation, limit);
+                }
+                Gauge.builder("library.limiter.limit", limit, AdaptiveConcurrencyLimit::getLimit)
+                        .description("Requests allowed to run at once")
+                        .tag("limiter", name)
+                        .register(meterRegistry);
+                Gauge.builder("library.limiter.in.flight", limit, AdaptiveConcurrencyLimit::getInFlight)
+                        .description("Requests running under the limit")
+                        .tag("limiter", name)
+                        .register(meterRegistry);
+                this.decisions.put(name, decisionCounters(meterRegistry, name));
+                logger.info("concurrency limit {} enabled for {}", name, operations.getValue());
+            }
+        }
+    }
+
+    private static Counter[] decisionCounters(MeterRegistry meterRegistry, String limiter) {
+        Counter[] counters = new Counter[2];
+        counters[0] = decisionCounter(meterRegistry, limiter, "allowed");
+        counters[1] = decisionCounter(meterRegistry, limiter, "rejected");
+        return counters;
+    }
+
+    private static Counter decisionCounter(MeterRegistry meterRegistry, String limiter, String decision) {
+        return Counter.builder("library.limiter.decisions")
+                .description("Requests allowed or turned away with a 429 by a limiter")
+                .tag("limiter", limiter)
+                .tag("decision", decision)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Takes a token from the client's bucket.
+     *
+     * @throws TooManyRequestsException when the bucket is empty, with the seconds until it has a token again.
+     */
+    public void checkRate(String client) throws TooManyRequestsException {
+        if(this.clientRateLimiter == null){
+            return;
+        }
+        long waitNanos = this.clientRateLimiter.tryAcquire(client);
+        if(waitNanos > 0){
+            record(RATE_LIMITER, false);
+            //whole seconds rounded up, a client retrying sooner would only be turned away again.
+            long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+            throw new TooManyRequestsException("Request rate limit exceeded, retry after " + retryAfterSeconds + " seconds", retryAfterSeconds);
+        }
+        record(RATE_LIMITER, true);
+    }
+
+    /**
+     * @return the concurrency limit of a controller operation, null when it has none.
+     */
+    public AdaptiveConcurrencyLimit concurrencyLimit(String operation) {
+        return this.concurrencyLimits.get(operation);
+    }
+
+    /**
+     * Takes a permit, to be given back with {@link AdaptiveConcurrencyLimit#release(long)} when the request is done.
+     *
+     * @throws TooManyRequestsException when the limit is reached.
+     */
+    public void acquire(AdaptiveConcurrencyLimit limit) throws TooManyRequestsException {
+        if(!limit.tryAcquire()){
+            record(limit.getName(), false);
+            throw new TooManyRequestsException("Too many " + limit.getName() + " requests running, retry later", this.retryAfterSeconds);
+        }
+        record(limit.getName(), true);
+    }
+
+    private void record(String limiter, boolean allowed) {
+        this.decisions.get(limiter)[allowed ? 0 : 1].increment();
+    }
+}
@@ -0,0 +1,86 @@
+package com.lms.co.za.lookup;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A set of strings in a fixed number of bits. {@link #mightContain(CharSequence)} is never false for a value that was
+ * put, and is true for a value that wasn't at about the false positive rate the filter was sized for, more once it holds
+ * more values than expected. Values can't be removed. Puts and reads are lock free and can run concurrently.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int hashes;
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if(expectedInsertions < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1){
+            throw new IllegalArgumentException("invalid bloom filter size: " + expectedInsertions + " values at " + falsePositiveRate);
+        }
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        if(optimalBits > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("bloom filter of " + optimalBits + " bits is too large");
+        }
+        this.words = new AtomicLongArray((int) ((optimalBits + 63) / 64));
+        this.bits = this.words.length() * 64L;
+        this.hashes = Math.max(1, (int) Math.round((double) this.bits / expectedInsertions * Math.log(2)));
+    }
+
+    public void put(CharSequence value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for(int i = 1; i <= this.hashes; i++){
+            long bit = index(hash1 + i * hash2);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            while(((current = this.words.get(word)) & mask) == 0){
+                if(this.words.compareAndSet(word, current, current | mask)){
+                    break;
+                }
+            }
+        }
+    }
+
+    public boolean mightContain(CharSequence value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for(int i = 1; i <= this.hashes; i++){
+            long bit = index(hash1 + i * hash2);
+            if((this.words.get((int) (bit >>> 6)) & (1L << bit)) == 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long bitSize() {
+        return this.bits;
+    }
+
+    public int hashCount() {
+        return this.hashes;
+    }
+
+    //k indexes from two halves of one hash, see Kirsch and Mitzenmacher, "Less Hashing, Same Performance".
+    private long index(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % this.bits;
+    }
+
+    //64 bit FNV-1a over the chars, finished with the murmur3 mix so both halves are usable.
+    private static long hash(CharSequence value) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < value.length(); i++){
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb53a185ec53bL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
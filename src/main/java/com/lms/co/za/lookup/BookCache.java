@@ -0,0 +1,185 @@
+package com.lms.co.za.lookup;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.lms.co.za.configuration.CacheConfig;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.replication.ReadYourWrites;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The books and booksByIsbn caches in front of the book lookups by id and ISBN.
+ * <p>
+ * A load can read a row just before a write commits and finish after the write has evicted it. Every eviction is
+ * therefore stamped, and a load only caches what it read when the key wasn't evicted after the load started and no
+ * newer version of the book is cached already. Loads read the primary, a replica may be behind it and its rows would
+ * stay cached until the next write. Callers always get a copy, never the cached instance.
+ */
+@Component
+public class BookCache {
+
+    //long enough for any load that started before an eviction to have finished.
+    private static final long EVICTIONS_KEPT_SECONDS = 60;
+    private static final long MAX_EVICTIONS_KEPT = 100_000;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final Cache<Object, Object> booksById;
+    private final Cache<Object, Object> booksByIsbn;
+    private final Cache<Object, Long> evictedIds = evictions();
+    private final Cache<Object, Long> evictedIsbns = evictions();
+    private volatile long clearedAt;
+
+    public BookCache(CacheManager cacheManager) {
+        //null when caching is switched off, every lookup then goes to the database.
+        this.booksById = nativeCache(cacheManager.getCache(CacheConfig.BOOKS_BY_ID));
+        this.booksByIsbn = nativeCache(cacheManager.getCache(CacheConfig.BOOKS_BY_ISBN));
+    }
+
+    /**
+     * @return a copy of the cached book, null when it isn't cached.
+     */
+    public Book get(String cacheName, Object key) {
+        Cache<Object, Object> cache = cache(cacheName);
+        Object book = cache != null ? cache.getIfPresent(key) : null;
+        return book != null ? copyOf((Book) book) : null;
+    }
+
+    /**
+     * The cached book, or the book the loader reads from the primary, cached unless a write got in the way.
+     */
+    public <E extends Exception> Book get(String cacheName, Object key, Loader<Book, E> loader) throws E {
+        Book book = get(cacheName, key);
+        return book != null ? book : load(cacheName, key, loader);
+    }
+
+    /**
+     * Runs the loader against the primary and caches the book it read under key, for a caller that has just missed it.
+     */
+    public <E extends Exception> Book load(String cacheName, Object key, Loader<Book, E> loader) throws E {
+        return load(cacheName, cached -> key, () -> Collections.singletonList(loader.load())).get(0);
+    }
+
+    /**
+     * Runs the loader against the primary and caches the books it read under keyOf, unless a write got in the way.
+     */
+    public <E extends Exception> List<Book> load(String cacheName, Function<Book, Object> keyOf, Loader<List<Book>, E> loader) throws E {
+        long started = this.clock.get();
+        List<Book> books;
+        //only misses get here, sending them to the primary costs the replicas little and lets every lookup be cached.
+        ReadYourWrites.Scope previous = ReadYourWrites.bind(ReadYourWrites.Scope.primaryOnly());
+        try {
+            books = loader.load();
+        }finally {
+            ReadYourWrites.bind(previous);
+        }
+        Cache<Object, Object> cache = cache(cacheName);
+        if(cache != null){
+            for(Book book : books){
+                put(cache, evictions(cacheName), keyOf.apply(book), copyOf(book), started);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Evicts the book by its id and ISBNs, once the transaction that wrote it has committed.
+     */
+    public void evictAfterCommit(Long id, String... isbns) {
+        if(TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(id, isbns);
+                }
+            });
+        }else {
+            evict(id, isbns);
+        }
+    }
+
+    public void evict(Long id, String... isbns) {
+        evict(this.booksById, this.evictedIds, id);
+        for(String isbn : isbns){
+            evict(this.booksByIsbn, this.evictedIsbns, isbn);
+        }
+    }
+
+    public void clear() {
+        this.clearedAt = this.clock.incrementAndGet();
+        if(this.booksById != null){
+            this.booksById.invalidateAll();
+        }
+        if(this.booksByIsbn != null){
+            this.booksByIsbn.invalidateAll();
+        }
+    }
+
+    private void put(Cache<Object, Object> cache, Cache<Object, Long> evictions, Object key, Book book, long started) {
+        cache.asMap().compute(key, (k, current) -> {
+            Long evicted = evictions.getIfPresent(k);
+            if(this.clearedAt > started || (evicted != null && evicted > started)){
+                //written since the load read it, what the load has may already be old.
+                return current;
+            }
+            return current != null && ((Book) current).getVersion() >= book.getVersion() ? current : book;
+        });
+    }
+
+    private void evict(Cache<Object, Object> cache, Cache<Object, Long> evictions, Object key) {
+        if(key == null){
+            return;
+        }
+        //stamped before the entry goes, so a load putting it back in between is still turned away.
+        evictions.put(key, this.clock.incrementAndGet());
+        if(cache != null){
+            cache.invalidate(key);
+        }
+    }
+
+    private Cache<Object, Object> cache(String cacheName) {
+        return CacheConfig.BOOKS_BY_ID.equals(cacheName) ? this.booksById : this.booksByIsbn;
+    }
+
+    private Cache<Object, Long> evictions(String cacheName) {
+        return CacheConfig.BOOKS_BY_ID.equals(cacheName) ? this.evictedIds : this.evictedIsbns;
+    }
+
+    private static Cache<Object, Long> evictions() {
+        return Caffeine.newBuilder()
+                .expireAfterWrite(EVICTIONS_KEPT_SECONDS, TimeUnit.SECONDS)
+                .maximumSize(MAX_EVICTIONS_KEPT)
+                .build();
+    }
+
+    private static Cache<Object, Object> nativeCache(org.springframework.cache.Cache cache) {
+        return cache instanceof CaffeineCache ? ((CaffeineCache) cache).getNativeCache() : null;
+    }
+
+    private static Book copyOf(Book book) {
+        Book copy = new Book();
+        copy.setId(book.getId());
+        copy.setTitle(book.getTitle());
+        copy.setAuthor(book.getAuthor());
+        copy.setPublisher(book.getPublisher());
+        copy.setIsbn(book.getIsbn());
+        copy.setQuantity(book.getQuantity());
+        copy.setVersion(book.getVersion());
+        copy.setCreated(book.getCreated());
+        copy.setLastModified(book.getLastModified());
+        return copy;
+    }
+
+    public interface Loader<T, E extends Exception> {
+        T load() throws E;
+    }
+}
@@ -0,0 +1,389 @@
+package com.lms.co.za.lookup;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.configuration.CacheConfig;
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.replication.ReadYourWrites;
+import com.lms.co.za.repository.BookRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Answers lookups of books that don't exist without going to the database.
+ * <p>
+ * Every stored ISBN goes into a bloom filter, loaded on a background thread after startup and added to by every write
+ * before it commits, so an ISBN the filter has never seen is certainly not stored. Until the filter is loaded every ISBN
+ * is looked up. ISBNs the filter lets through and author searches that matched nothing are remembered in the
+ * missingIsbns and missingAuthors caches, writes evict the entries they could change once they have committed. The
+ * remembered author searches are also filed under their first AUTHOR_GRAM characters, so a write only checks the
+ * searches filed under a piece of its author's name rather than every one.
+ * <p>
+ * A lookup can read nothing just before a write commits and report its miss after the write has evicted it. As in
+ * BookCache every eviction is therefore stamped, by ISBN and by the pieces of the author, and a miss is only remembered
+ * when nothing that could answer it was evicted since {@link #lookupStarted()}.
+ * <p>
+ * Books written through other instances sharing the database are picked up from the book change log every
+ * library.not-found.refresh-interval, until then those ISBNs can still be answered with a 404. Books written to the
+ * database without a change log entry are only known to the filter after {@link #load()}, which runs at every startup.
+ */
+@Component
+public class BookMisses implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookMisses.class);
+
+    private static final int REFRESH_BATCH_SIZE = 1000;
+    private static final int AUTHOR_GRAM = 3;
+    //long enough for any lookup that started before an eviction to have finished.
+    private static final long EVICTIONS_KEPT_SECONDS = 60;
+    private static final long MAX_EVICTIONS_KEPT = 100_000;
+
+    private final BloomFilter isbns;
+    private final int expectedIsbns;
+    private final Cache<Object, Object> missingIsbns;
+    private final Cache<Object, Object> missingAuthors;
+    private final AtomicLong clock = new AtomicLong();
+    private final ConcurrentMap<String, Long> evictedIsbns = evictions();
+    //by the pieces of up to AUTHOR_GRAM characters of the written authors, a search is turned away by its first one.
+    private final ConcurrentMap<String, Long> evictedAuthorGrams = evictions();
+    private volatile long clearedAt;
+    //remembered author searches by their first AUTHOR_GRAM characters, expired ones are dropped by forgetExpiredAuthors.
+    private final Map<String, Set<String>> missingAuthorsByGram = new ConcurrentHashMap<>();
+    private final Counter filteredIsbns;
+    private final Counter cachedIsbns;
+    private final Counter queriedIsbns;
+    private final Counter cachedAuthors;
+    private final Counter queriedAuthors;
+    private final long refreshIntervalMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "isbn-filter-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //false until every stored ISBN has been put in the filter.
+    private volatile boolean loaded;
+    //last change log entry the filter has seen, guarded by this.
+    private long position;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    BookChangeLog bookChangeLog;
+
+    public BookMisses(LibraryProperties libraryProperties, CacheManager cacheManager, MeterRegistry meterRegistry) {
+        LibraryProperties.NotFound notFound = libraryProperties.getNotFound();
+        this.expectedIsbns = notFound.getExpectedIsbns();
+        this.isbns = new BloomFilter(notFound.getExpectedIsbns(), notFound.getFalsePositiveRate());
+        this.refreshIntervalMillis = notFound.getRefreshInterval().toMillis();
+        //null when caching is switched off, misses are then only answered by the filter.
+        this.missingIsbns = nativeCache(cacheManager.getCache(CacheConfig.MISSING_ISBNS));
+        this.missingAuthors = nativeCache(cacheManager.getCache(CacheConfig.MISSING_AUTHORS));
+        this.filteredIsbns = missCounter(meterRegistry, "isbn", "filter");
+        this.cachedIsbns = missCounter(meterRegistry, "isbn", "cache");
+        this.queriedIsbns = missCounter(meterRegistry, "isbn", "database");
+        this.cachedAuthors = missCounter(meterRegistry, "author", "cache");
+        this.queriedAuthors = missCounter(meterRegistry, "author", "database");
+    }
+
+    private static Counter missCounter(MeterRegistry meterRegistry, String lookup, String answeredBy) {
+        return Counter.builder("library.book.misses")
+                .description("Book lookups that found nothing, by what answered them")
+                .tag("lookup", lookup)
+                .tag("answered.by", answeredBy)
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        this.scheduler.execute(this::load);
+        this.scheduler.scheduleWithFixedDelay(this::refresh, this.refreshIntervalMillis, this.refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleWithFixedDelay(this::forgetExpiredAuthors, this.refreshIntervalMillis, this.refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Puts every stored ISBN in the filter. ISBNs are never taken out, so this can run again at any time to pick up books
+     * that were written behind the application's back.
+     */
+    public synchronized void load() {
+        long start = System.nanoTime();
+        AtomicLong count = new AtomicLong();
+        //changes committed while the books are read are replayed by the next refresh, putting an ISBN twice is harmless.
+        long position = this.bookChangeLog.lastSequenceNumber();
+        //a replica could be missing books committed before this started.
+        ReadYourWrites.Scope previous = ReadYourWrites.bind(ReadYourWrites.Scope.primaryOnly());
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(this.transactionManager);
+            transactionTemplate.setReadOnly(true);
+            transactionTemplate.executeWithoutResult(status -> {
+                try(Stream<String> isbns = this.bookRepository.streamAllIsbns()){
+                    isbns.forEach(isbn -> {
+                        this.isbns.put(isbn);
+                        count.incrementAndGet();
+                    });
+                }
+            });
+        }catch (RuntimeException runtimeException){
+            logger.error("isbn filter load failed, every isbn is looked up: " + runtimeException.getMessage(), runtimeException);
+            return;
+        }finally {
+            ReadYourWrites.bind(previous);
+        }
+        this.position = position;
+        this.loaded = true;
+        if(count.get() > this.expectedIsbns){
+            logger.warn("{} isbns stored, more than the {} library.not-found.expected-isbns, more unknown isbns will reach the database", count.get(), this.expectedIsbns);
+        }
+        logger.info("isbn filter loaded with {} isbns in {} ms", count.get(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public boolean isLoaded() {
+        return this.loaded;
+    }
+
+    /**
+     * Puts the ISBNs of the books created or updated since the last refresh in the filter, including those written
+     * through other instances, and forgets the misses they answer.
+     */
+    synchronized void refresh() {
+        if(!this.loaded){
+            return;
+        }
+        try {
+            List<BookChange> changes;
+            while(!(changes = this.bookChangeLog.read(this.position, REFRESH_BATCH_SIZE)).isEmpty()){
+                for(BookChange change : changes){
+                    if(change.getOperation() != BookChange.Operation.DELETED){
+                        this.isbns.put(change.getIsbn());
+                        evictIsbn(change.getIsbn());
+                    }
+                    this.position = change.getSequence();
+                }
+            }
+        }catch (RuntimeException runtimeException){
+            logger.warn("isbn filter refresh failed at sequence {}, retrying: {}", this.position, runtimeException.getMessage());
+        }
+    }
+
+    /**
+     * @return true when the ISBN is certainly not stored, or was recently looked up and not found.
+     */
+    public boolean isMissingIsbn(String isbn) {
+        if(this.loaded && !this.isbns.mightContain(isbn)){
+            this.filteredIsbns.increment();
+            return true;
+        }
+        if(this.missingIsbns != null && this.missingIsbns.getIfPresent(isbn) != null){
+            this.cachedIsbns.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @throws ResourceNotFoundException when {@link #isMissingIsbn(String)}.
+     */
+    public void checkIsbn(String isbn) throws ResourceNotFoundException {
+        if(isMissingIsbn(isbn)){
+            throw isbnNotFound(isbn);
+        }
+    }
+
+    /**
+     * Call before reading the database for a book, and hand the result to the call remembering a miss.
+     */
+    public long lookupStarted() {
+        return this.clock.get();
+    }
+
+    /**
+     * Remembers an ISBN the database didn't have, unless it was written since the lookup started.
+     */
+    public void missingIsbn(String isbn, long started) {
+        this.queriedIsbns.increment();
+        if(this.missingIsbns == null){
+            return;
+        }
+        this.missingIsbns.asMap().compute(isbn, (key, current) -> {
+            Long evicted = this.evictedIsbns.get(isbn);
+            return this.clearedAt > started || (evicted != null && evicted > started) ? current : Boolean.TRUE;
+        });
+    }
+
+    /**
+     * {@link #missingIsbn(String, long)}, returning the exception to throw.
+     */
+    public ResourceNotFoundException notFoundIsbn(String isbn, long started) {
+        missingIsbn(isbn, started);
+        return isbnNotFound(isbn);
+    }
+
+    /**
+     * @throws ResourceNotFoundException when an author search for the same text recently matched nothing.
+     */
+    public void checkAuthor(String author) throws ResourceNotFoundException {
+        if(this.missingAuthors != null && this.missingAuthors.getIfPresent(authorKey(author)) != null){
+            this.cachedAuthors.increment();
+            throw authorNotFound(author);
+        }
+    }
+
+    /**
+     * Remembers an author search that matched nothing, unless a matching author was written since the lookup started,
+     * returning the exception to throw.
+     */
+    public ResourceNotFoundException notFoundAuthor(String author, long started) {
+        this.queriedAuthors.increment();
+        if(this.missingAuthors != null){
+            String authorKey = authorKey(author);
+            //cached inside compute, so neither a write evicting the gram's searches nor forgetExpiredAuthors can run in between.
+            this.missingAuthorsByGram.compute(authorKey.substring(0, Math.min(AUTHOR_GRAM, authorKey.length())), (gram, searches) -> {
+                Long evicted = this.evictedAuthorGrams.get(gram);
+                if(this.clearedAt > started || (evicted != null && evicted > started)){
+                    return searches;
+                }
+                Set<String> added = searches != null ? searches : ConcurrentHashMap.newKeySet();
+                added.add(authorKey);
+                this.missingAuthors.put(authorKey, Boolean.TRUE);
+                return added;
+            });
+        }
+        return authorNotFound(author);
+    }
+
+    /**
+     * Call inside the transaction writing the book, before it commits, so the ISBN is known as soon as it can be read.
+     */
+    public void writing(String isbn) {
+        this.isbns.put(isbn);
+    }
+
+    /**
+     * Call once the write has committed, forgets the misses the book now answers.
+     */
+    public void written(String isbn, String author) {
+        evictIsbn(isbn);
+        if(this.missingAuthors == null || author == null){
+            return;
+        }
+        //a search the author contains starts with one of the author's pieces of up to AUTHOR_GRAM characters.
+        String authorKey = authorKey(author);
+        Set<String> grams = new HashSet<>();
+        grams.add("");
+        for(int start = 0; start < authorKey.length(); start++){
+            for(int end = start + 1; end <= Math.min(authorKey.length(), start + AUTHOR_GRAM); end++){
+                grams.add(authorKey.substring(start, end));
+            }
+        }
+        for(String gram : grams){
+            //stamped before the searches go, so a search remembering its miss in between is still turned away.
+            this.evictedAuthorGrams.put(gram, this.clock.incrementAndGet());
+            this.missingAuthorsByGram.computeIfPresent(gram, (key, searches) -> {
+                for(String search : searches){
+                    if(authorKey.contains(search)){
+                        this.missingAuthors.invalidate(search);
+                        searches.remove(search);
+                    }
+                }
+                return searches.isEmpty() ? null : searches;
+            });
+        }
+    }
+
+    private void evictIsbn(String isbn) {
+        this.evictedIsbns.put(isbn, this.clock.incrementAndGet());
+        if(this.missingIsbns != null){
+            this.missingIsbns.invalidate(isbn);
+        }
+    }
+
+    /**
+     * Drops the remembered author searches the missingAuthors cache has expired from the index of them.
+     */
+    void forgetExpiredAuthors() {
+        if(this.missingAuthors == null){
+            return;
+        }
+        Map<Object, Object> cached = this.missingAuthors.asMap();
+        for(String gram : this.missingAuthorsByGram.keySet()){
+            this.missingAuthorsByGram.computeIfPresent(gram, (key, searches) -> {
+                searches.removeIf(search -> !cached.containsKey(search));
+                return searches.isEmpty() ? null : searches;
+            });
+        }
+    }
+
+    /**
+     * Call when writes may have been missed, forgets all remembered misses.
+     */
+    public void writtenAll() {
+        this.clearedAt = this.clock.incrementAndGet();
+        if(this.missingIsbns != null){
+            this.missingIsbns.invalidateAll();
+        }
+        if(this.missingAuthors != null){
+            this.missingAuthors.invalidateAll();
+            this.missingAuthorsByGram.clear();
+        }
+    }
+
+    private static ConcurrentMap<String, Long> evictions() {
+        return Caffeine.newBuilder()
+                .expireAfterWrite(EVICTIONS_KEPT_SECONDS, TimeUnit.SECONDS)
+                .maximumSize(MAX_EVICTIONS_KEPT)
+                .<String, Long>build()
+                .asMap();
+    }
+
+    private static Cache<Object, Object> nativeCache(org.springframework.cache.Cache cache) {
+        return cache instanceof CaffeineCache ? ((CaffeineCache) cache).getNativeCache() : null;
+    }
+
+    //same case folding as the author search in the repository.
+    private static String authorKey(String author) {
+        return author.toUpperCase(Locale.ROOT);
+    }
+
+    private static ResourceNotFoundException isbnNotFound(String isbn) {
+        return new ResourceNotFoundException("Book not found for ISBN reference: " + isbn);
+    }
+
+    private static ResourceNotFoundException authorNotFound(String author) {
+        return new ResourceNotFoundException("No books found for author: " + author);
+    }
+
+    @Override
+    public void destroy() {
+        this.scheduler.shutdownNow();
+    }
+}
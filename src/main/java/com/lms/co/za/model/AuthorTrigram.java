@@ -0,0 +1,34 @@
+package com.lms.co.za.model;
+
+import lombok.Data;
+import org.hibernate.annotations.Immutable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import java.io.Serializable;
+
+/**
+ * Row of the AUTHOR_TRIGRAMS search table, written by the database, pruned by AuthorTrigramCleanup and only read by the author search.
+ */
+@Data
+@Immutable
+@Entity(name = "author_trigrams")
+@IdClass(AuthorTrigram.Key.class)
+public class AuthorTrigram {
+
+    @Id
+    @Column(name = "trigram", nullable = false)
+    private String trigram;
+    @Id
+    @Column(name = "author", nullable = false)
+    private String author;
+
+    @Data
+    public static class Key implements Serializable {
+
+        private String trigram;
+        private String author;
+    }
+}
@@ -1,11 +1,15 @@
 package com.lms.co.za.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
+import java.time.Instant;
 
 @Data
 @Schema
@@ -36,5 +40,20 @@ public class Book {
     @Schema(description = "Number of books in stock for a given book title", example = "2")
     @Column(name = "quantity", nullable = false)
     private int quantity;
+    @Version
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @Schema(description = "Incremented on every change to the book, drives the ETag of the book", accessMode = Schema.AccessMode.READ_ONLY, example = "0")
+    @Column(name = "version", nullable = false)
+    private long version;
+    @CreationTimestamp
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @Schema(description = "When the book was added", accessMode = Schema.AccessMode.READ_ONLY)
+    @Column(name = "created", nullable = false, updatable = false)
+    private Instant created;
+    @UpdateTimestamp
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @Schema(description = "When the book was last changed, drives the Last-Modified header of the book", accessMode = Schema.AccessMode.READ_ONLY)
+    @Column(name = "last_modified", nullable = false)
+    private Instant lastModified;
 
 }
@@ -0,0 +1,20 @@
+package com.lms.co.za.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Schema
+public class BookBatchRequest {
+
+    @Schema(description = "Book ids to look up", example = "[1, 2]")
+    @NotNull
+    private List<@NotNull Long> ids = new ArrayList<>();
+    @Schema(description = "ISBN references to look up", example = "[\"0-385-50420-9\"]")
+    @NotNull
+    private List<@NotNull String> isbns = new ArrayList<>();
+}
@@ -0,0 +1,19 @@
+package com.lms.co.za.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Schema
+public class BookBatchResult {
+
+    @Schema(description = "Books found, in request order (ids first, then ISBN references), a book asked for twice is returned once")
+    private List<Book> books = new ArrayList<>();
+    @Schema(description = "Requested ids with no book")
+    private List<Long> missingIds = new ArrayList<>();
+    @Schema(description = "Requested ISBN references with no book")
+    private List<String> missingIsbns = new ArrayList<>();
+}
@@ -0,0 +1,34 @@
+package com.lms.co.za.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@Schema
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BookChange {
+
+    @Schema(description = "Position of the change in the change log, strictly increasing", example = "42")
+    private long sequence;
+    @Schema(description = "What happened to the book")
+    private Operation operation;
+    @Schema(description = "Id of the book that changed", example = "1")
+    private Long bookId;
+    @Schema(description = "ISBN reference of the book after the change, or before a delete", example = "0-670-81302-8")
+    private String isbn;
+    @Schema(description = "ISBN reference before an update that changed it")
+    private String previousIsbn;
+    @Schema(description = "When the change was written")
+    private Instant changed;
+
+    public enum Operation {
+        CREATED, UPDATED, DELETED
+    }
+}
@@ -0,0 +1,20 @@
+package com.lms.co.za.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Schema
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookChangeBatch {
+
+    @Schema(description = "Changes after the requested sequence number, oldest first")
+    private List<BookChange> changes;
+    @Schema(description = "Sequence number to pass as after on the next request", example = "42")
+    private long lastSequence;
+}
@@ -0,0 +1,22 @@
+package com.lms.co.za.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Schema
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BookPage {
+
+    @Schema(description = "Books in this page, ordered by id")
+    private List<Book> books;
+    @Schema(description = "Opaque continuation token for the next page, absent on the last page")
+    private String nextCursor;
+}
@@ -0,0 +1,22 @@
+package com.lms.co.za.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * A compressed copy of the database file, see BookSnapshots.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookSnapshot {
+
+    private String file;
+    private long bytes;
+    private long bookCount;
+    private Instant created;
+    private long durationMillis;
+}
@@ -0,0 +1,28 @@
+package com.lms.co.za.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Schema
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheInvalidation {
+
+    public static final int CURRENT_VERSION = 1;
+
+    @Schema(description = "Format of the message, a receiver that doesn't know it drops all its cached books", example = "1")
+    private int version;
+    @Schema(description = "Id of the instance that committed the changes, new on every start")
+    private String origin;
+    @Schema(description = "Position of the message among those the origin sent to this receiver, starting at 1 and without gaps", example = "1")
+    private long number;
+    @Schema(description = "True when the origin dropped changes it could not deliver, the receiver reads them from the change log")
+    private boolean reset;
+    @Schema(description = "Committed changes, oldest first")
+    private List<BookChange> changes;
+}
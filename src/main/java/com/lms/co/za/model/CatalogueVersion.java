@@ -0,0 +1,17 @@
+package com.lms.co.za.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Sequence number of the last book change committed to the catalogue. Every create, update, delete and stock change is
+ * logged with the next number, so it moves with any change and never goes back, whichever clock stamped the rows.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogueVersion {
+
+    private long sequenceNumber;
+}
@@ -0,0 +1,38 @@
+package com.lms.co.za.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Schema
+public class ImportResult {
+
+    @Schema(description = "Number of rows read from the request body")
+    private long received;
+    @Schema(description = "Number of books inserted")
+    private long imported;
+    @Schema(description = "Number of rows rejected")
+    private long rejected;
+    @Schema(description = "Rejected rows, capped at library.bulk-import.max-reported-errors")
+    private List<ImportError> errors = new ArrayList<>();
+
+    @Data
+    @Schema
+    public static class ImportError {
+        @Schema(description = "Line number of the row in the request body")
+        private long line;
+        @Schema(description = "ISBN reference of the row, if it could be read")
+        private String isbn;
+        @Schema(description = "Reason the row was rejected")
+        private String error;
+
+        public ImportError(long line, String isbn, String error) {
+            this.line = line;
+            this.isbn = isbn;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.lms.co.za.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+import org.hibernate.annotations.CreationTimestamp;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+@Data
+@Schema
+@Entity(name = "loans")
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Loan {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Schema(description = "Unique loan or hold identifier", example = "1")
+    private Long id;
+    @Schema(description = "Id of the book lent or held", example = "1")
+    @Column(name = "book_id", nullable = false, updatable = false)
+    private Long bookId;
+    @Schema(description = "ISBN reference of the book lent or held", example = "0-670-81302-8")
+    @Column(name = "isbn", nullable = false, updatable = false)
+    private String isbn;
+    @Schema(description = "Who borrowed or is waiting for the book", example = "member-42")
+    @Column(name = "borrower", nullable = false, updatable = false)
+    private String borrower;
+    @Enumerated(EnumType.STRING)
+    @Schema(description = "WAITING in the hold queue, READY with a copy set aside, ON_LOAN, RETURNED or CANCELLED")
+    @Column(name = "status", nullable = false)
+    private Status status;
+    @Schema(description = "Place in the hold queue of the title, 1 is next, only for WAITING holds", example = "1")
+    @Transient
+    private Long queuePosition;
+    @CreationTimestamp
+    @Schema(description = "When the loan or hold was made")
+    @Column(name = "created", nullable = false, updatable = false)
+    private Instant created;
+    @Schema(description = "When the copy was checked out")
+    @Column(name = "checked_out")
+    private Instant checkedOut;
+    @Schema(description = "When the copy is due back")
+    @Column(name = "due")
+    private Instant due;
+    @Schema(description = "When the copy was returned or the hold cancelled")
+    @Column(name = "closed")
+    private Instant closed;
+    @Version
+    @Schema(description = "Incremented on every change to the loan", example = "0")
+    @Column(name = "version", nullable = false)
+    private long version;
+
+    public enum Status {
+        WAITING, READY, ON_LOAN, RETURNED, CANCELLED
+    }
+}
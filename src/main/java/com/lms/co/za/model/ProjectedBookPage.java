@@ -0,0 +1,23 @@
+package com.lms.co.za.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Schema
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProjectedBookPage {
+
+    @Schema(description = "The requested fields of the books in this page, ordered by id")
+    private List<Map<String, Object>> books;
+    @Schema(description = "Opaque continuation token for the next page, absent on the last page")
+    private String nextCursor;
+}
@@ -0,0 +1,20 @@
+package com.lms.co.za.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Schema
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockLevel {
+
+    @Schema(description = "Unique book identifier")
+    private Long id;
+    @Schema(description = "ISBN reference of book", example = "0-670-81302-8")
+    private String isbn;
+    @Schema(description = "Number of books in stock after the adjustment", example = "2")
+    private int quantity;
+}
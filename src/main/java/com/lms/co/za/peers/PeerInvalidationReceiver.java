@@ -0,0 +1,247 @@
+package com.lms.co.za.peers;
+
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.lookup.BookCache;
+import com.lms.co.za.lookup.BookMisses;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.model.CacheInvalidation;
+import com.lms.co.za.replication.ReadYourWrites;
+import com.lms.co.za.repository.BookRepository;
+import com.lms.co.za.search.BookSearchIndex;
+import com.lms.co.za.search.BookSearchIndexLoader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the invalidations another instance sent with {@link PeerInvalidationSender} to this instance's caches.
+ * <p>
+ * The cached books, ISBN references and misses a change touches are evicted, created and updated books are read back
+ * from the primary to add them to the filter of known ISBNs and to the search index, deleted ones are taken out of the
+ * search index. Messages are numbered per origin, a number already applied is a repeat of a message whose answer got
+ * lost and is skipped.
+ * <p>
+ * Messages only speed things up, the senders keep them in memory and lose them when they restart or fall too far
+ * behind. Every library.peers.catch-up-interval, and straight away on a gap in the numbers or a reset, the book change log
+ * shared by all the instances is read from where this instance last caught up, and the changes no message or local
+ * commit brought are applied. A message in a format this instance doesn't know drops every cached book and miss, and
+ * the filter and search index are rebuilt. Rebuilds run one at a time, resets arriving while one is queued share the
+ * rebuild that runs after them.
+ */
+@Component
+public class PeerInvalidationReceiver implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeerInvalidationReceiver.class);
+
+    //last message number applied per origin, guarded by the receiver.
+    private final Map<String, Long> lastNumbers = new HashMap<>();
+    //change log entries after the position already applied, from messages or committed through this instance.
+    private final NavigableSet<Long> appliedSequenceNumbers = new ConcurrentSkipListSet<>();
+    //every change up to here is applied, guarded by the receiver.
+    private long position;
+    private final BookChangeLog bookChangeLog;
+    private final int batchSize;
+    private final long catchUpIntervalMillis;
+    private final Counter applied;
+    private final Counter repeated;
+    private final Counter resets;
+    private final Counter caughtUp;
+    //runs the catch up and the rebuilds after a reset, one at a time.
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "peer-invalidation-receiver");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //resets received, guarded by the receiver.
+    private long resetCount;
+
+    @Autowired
+    BookCache bookCache;
+
+    @Autowired
+    BookMisses bookMisses;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    BookSearchIndex bookSearchIndex;
+
+    @Autowired
+    BookSearchIndexLoader bookSearchIndexLoader;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    PeerInvalidationSender peerInvalidationSender;
+
+    public PeerInvalidationReceiver(LibraryProperties libraryProperties, BookChangeLog bookChangeLog, MeterRegistry meterRegistry) {
+        this.bookChangeLog = bookChangeLog;
+        this.batchSize = libraryProperties.getPeers().getMaxBatchSize();
+        this.catchUpIntervalMillis = libraryProperties.getPeers().getCatchUpInterval().toMillis();
+        this.applied = receiveCounter(meterRegistry, "applied");
+        this.repeated = receiveCounter(meterRegistry, "repeated");
+        this.resets = receiveCounter(meterRegistry, "reset");
+        this.caughtUp = Counter.builder("library.peers.changes.caught.up")
+                .description("Changes committed through peers that no message brought, applied from the change log")
+                .register(meterRegistry);
+        //nothing is cached yet, so no change before this one can be missing.
+        this.position = bookChangeLog.lastSequenceNumber();
+        bookChangeLog.addChangeListener(changes -> changes.forEach(change -> this.appliedSequenceNumbers.add(change.getSequence())));
+    }
+
+    private static Counter receiveCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("library.peers.invalidations.received")
+                .description("Invalidation messages received from peers, by what was done with them")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        this.scheduler.scheduleWithFixedDelay(this::catchUp, this.catchUpIntervalMillis, this.catchUpIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void receive(CacheInvalidation invalidation) {
+        if(this.peerInvalidationSender.getNodeId().equals(invalidation.getOrigin())){
+            //this instance is in its own peer list, its caches were already updated on commit.
+            return;
+        }
+        Long lastNumber = this.lastNumbers.get(invalidation.getOrigin());
+        if(lastNumber != null && invalidation.getNumber() <= lastNumber){
+            this.repeated.increment();
+            return;
+        }
+        //an origin not seen before started after this instance did, or this instance restarted with empty caches.
+        boolean missed = lastNumber != null && invalidation.getNumber() != lastNumber + 1;
+        if(invalidation.getVersion() != CacheInvalidation.CURRENT_VERSION){
+            logger.warn("dropping all cached books on invalidation {} from {} in unknown version {}",
+                    invalidation.getNumber(), invalidation.getOrigin(), invalidation.getVersion());
+            reset();
+        }else {
+            if(invalidation.getChanges() != null && !invalidation.getChanges().isEmpty()){
+                apply(invalidation.getChanges());
+                for(BookChange change : invalidation.getChanges()){
+                    if(change.getSequence() > this.position){
+                        this.appliedSequenceNumbers.add(change.getSequence());
+                    }
+                }
+            }
+            if(invalidation.isReset() || missed){
+                logger.info("reading changes missed from {} from the change log after invalidation {}, reset {}, last applied {}",
+                        invalidation.getOrigin(), invalidation.getNumber(), invalidation.isReset(), lastNumber);
+                catchUp();
+            }
+            this.applied.increment();
+        }
+        //only once applied, a message that failed half way is sent again and applied again.
+        this.lastNumbers.put(invalidation.getOrigin(), invalidation.getNumber());
+    }
+
+    /**
+     * Applies the changes logged since the last catch up that no message or local commit brought.
+     */
+    synchronized void catchUp() {
+        try {
+            List<BookChange> changes;
+            while(!(changes = this.bookChangeLog.read(this.position, this.batchSize)).isEmpty()){
+                List<BookChange> missed = changes.stream()
+                        .filter(change -> !this.appliedSequenceNumbers.contains(change.getSequence()))
+                        .collect(Collectors.toList());
+                if(!missed.isEmpty()){
+                    apply(missed);
+                    this.caughtUp.increment(missed.size());
+                }
+                this.position = changes.get(changes.size() - 1).getSequence();
+                this.appliedSequenceNumbers.headSet(this.position, true).clear();
+            }
+        }catch (RuntimeException runtimeException){
+            logger.warn("catching up with the change log failed at sequence {}, retrying: {}", this.position, runtimeException.getMessage());
+        }
+    }
+
+    private void apply(List<BookChange> changes) {
+        Set<Long> written = new LinkedHashSet<>();
+        for(BookChange change : changes){
+            this.bookCache.evict(change.getBookId(), change.getIsbn(), change.getPreviousIsbn());
+            if(change.getOperation() == BookChange.Operation.DELETED){
+                written.remove(change.getBookId());
+                this.bookSearchIndex.remove(change.getBookId());
+            }else {
+                written.add(change.getBookId());
+            }
+        }
+        if(written.isEmpty()){
+            return;
+        }
+        //a replica could still be missing the change that was just committed on the primary.
+        ReadYourWrites.Scope previous = ReadYourWrites.bind(ReadYourWrites.Scope.primaryOnly());
+        List<Book> books;
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(this.transactionManager);
+            transactionTemplate.setReadOnly(true);
+            books = transactionTemplate.execute(status -> this.bookRepository.findAllById(written));
+        }finally {
+            ReadYourWrites.bind(previous);
+        }
+        for(Book book : books){
+            written.remove(book.getId());
+            this.bookMisses.writing(book.getIsbn());
+            this.bookMisses.written(book.getIsbn(), book.getAuthor());
+            this.bookSearchIndex.index(book);
+        }
+        //deleted by a later change than the ones in this message.
+        written.forEach(this.bookSearchIndex::remove);
+    }
+
+    private void reset() {
+        this.resets.increment();
+        //everything is read again from the current state, later catch ups only need the changes from here on.
+        this.position = this.bookChangeLog.lastSequenceNumber();
+        this.appliedSequenceNumbers.headSet(this.position, true).clear();
+        this.bookCache.clear();
+        this.bookMisses.writtenAll();
+        //searches answer 503 until the index is built again, rather than returning deleted books.
+        this.bookSearchIndexLoader.invalidate();
+        long reset = ++this.resetCount;
+        this.scheduler.execute(() -> {
+            synchronized (this){
+                if(reset != this.resetCount){
+                    //a later reset queued its own rebuild, which covers this one.
+                    return;
+                }
+            }
+            this.bookMisses.load();
+            this.bookSearchIndexLoader.rebuild();
+        });
+    }
+
+    @Override
+    public void destroy() {
+        this.scheduler.shutdownNow();
+    }
+
+}
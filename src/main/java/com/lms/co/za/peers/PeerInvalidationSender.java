@@ -0,0 +1,228 @@
+package com.lms.co.za.peers;
+
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.model.CacheInvalidation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tells the other instances in library.peers.urls about every book change committed through this one, so they drop
+ * the cached books, and the cached misses, the change made stale.
+ * <p>
+ * Each peer has its own queue and is sent numbered messages in order, one at a time, over http. A message that fails
+ * is sent again, with the same number, after library.peers.retry-interval until the peer takes it, so a peer that was
+ * down catches up once it is back and a repeat is recognised by its number. The queues only live in memory: when a peer
+ * falls more than library.peers.max-pending changes behind, or this instance stops before they are delivered, the peer
+ * reads what it missed from the book change log, which every instance shares, on a reset or its next catch up.
+ */
+@Component
+public class PeerInvalidationSender implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PeerInvalidationSender.class);
+
+    public static final String INVALIDATIONS_PATH = "/peer/invalidations";
+    public static final String TOKEN_HEADER = "X-Peer-Token";
+
+    //new on every start, so a restarted instance is a new origin whose messages are numbered from 1 again.
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<Peer> peers = new ArrayList<>();
+    private final RestTemplate restTemplate;
+    private final ScheduledExecutorService scheduler;
+    private final String token;
+    private final int maxPending;
+    private final int maxBatchSize;
+    private final long retryIntervalMillis;
+    private final Counter delivered;
+    private final Counter failed;
+
+    public PeerInvalidationSender(LibraryProperties libraryProperties, BookChangeLog bookChangeLog,
+                                  RestTemplateBuilder restTemplateBuilder, MeterRegistry meterRegistry) {
+        LibraryProperties.Peers peers = libraryProperties.getPeers();
+        if(!peers.getUrls().isEmpty() && (peers.getToken() == null || peers.getToken().isEmpty())){
+            throw new IllegalStateException("library.peers.token must be set when library.peers.urls is, peers refuse invalidations without it");
+        }
+        this.token = peers.getToken();
+        this.maxPending = peers.getMaxPending();
+        this.maxBatchSize = peers.getMaxBatchSize();
+        this.retryIntervalMillis = peers.getRetryInterval().toMillis();
+        this.restTemplate = restTemplateBuilder
+                .setConnectTimeout(peers.getTimeout())
+                .setReadTimeout(peers.getTimeout())
+                .build();
+        this.delivered = sendCounter(meterRegistry, "delivered");
+        this.failed = sendCounter(meterRegistry, "failed");
+        for(String url : peers.getUrls()){
+            Peer peer = new Peer(url.endsWith("/") ? url.substring(0, url.length() - 1) : url);
+            this.peers.add(peer);
+            Gauge.builder("library.peers.pending", peer, Peer::pendingChanges)
+                    .description("Committed changes not yet delivered to the peer")
+                    .tag("peer", peer.url)
+                    .register(meterRegistry);
+        }
+        if(this.peers.isEmpty()){
+            this.scheduler = null;
+            return;
+        }
+        AtomicInteger threads = new AtomicInteger();
+        //a thread per peer, so a peer that is down and timing out doesn't hold up the others.
+        this.scheduler = Executors.newScheduledThreadPool(this.peers.size(), runnable -> {
+            Thread thread = new Thread(runnable, "peer-invalidation-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        bookChangeLog.addChangeListener(this::committed);
+        logger.info("sending book cache invalidations to peers {} as {}", peers.getUrls(), this.nodeId);
+    }
+
+    private static Counter sendCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("library.peers.invalidations.sent")
+                .description("Invalidation messages sent to peers, by whether the peer took them")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    public String getNodeId() {
+        return this.nodeId;
+    }
+
+    private void committed(List<BookChange> changes) {
+        for(Peer peer : this.peers){
+            peer.enqueue(changes);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if(this.scheduler != null){
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    private class Peer {
+
+        private final String url;
+        private final String invalidationsUrl;
+        //guarded by the peer, filled by committing threads and drained by the sender.
+        private final ArrayDeque<BookChange> pending = new ArrayDeque<>();
+        private boolean resetPending;
+        private final AtomicBoolean sending = new AtomicBoolean();
+        //only touched by the send task, of which there is at most one per peer.
+        private long lastNumber;
+        private CacheInvalidation unacknowledged;
+        private boolean failing;
+
+        Peer(String url) {
+            this.url = url;
+            this.invalidationsUrl = url + INVALIDATIONS_PATH;
+        }
+
+        void enqueue(List<BookChange> changes) {
+            synchronized (this){
+                if(this.pending.size() + changes.size() > maxPending){
+                    //the peer can't be told what changed any more, it will drop everything instead.
+                    this.pending.clear();
+                    this.resetPending = true;
+                }else {
+                    this.pending.addAll(changes);
+                }
+            }
+            wake();
+        }
+
+        synchronized int pendingChanges() {
+            return this.pending.size();
+        }
+
+        private void wake() {
+            if(this.sending.compareAndSet(false, true)){
+                scheduler.execute(this::send);
+            }
+        }
+
+        private void send() {
+            try {
+                while(true){
+                    if(this.unacknowledged == null){
+                        this.unacknowledged = next();
+                        if(this.unacknowledged == null){
+                            break;
+                        }
+                    }
+                    deliver(this.unacknowledged);
+                    this.unacknowledged = null;
+                }
+            }catch (RestClientException restClientException){
+                failed.increment();
+                if(!this.failing){
+                    this.failing = true;
+                    logger.warn("book cache invalidations to peer {} failed, retrying every {} ms: {}", this.url, retryIntervalMillis, restClientException.getMessage());
+                }
+                scheduler.schedule(this::send, retryIntervalMillis, TimeUnit.MILLISECONDS);
+                return;
+            }catch (RuntimeException runtimeException){
+                logger.error("book cache invalidations to peer " + this.url + " stopped: " + runtimeException.getMessage(), runtimeException);
+            }
+            this.sending.set(false);
+            //a change queued after the queue was found empty, but before the flag was cleared, would otherwise wait for the next commit.
+            boolean queued;
+            synchronized (this){
+                queued = !this.pending.isEmpty() || this.resetPending;
+            }
+            if(queued){
+                wake();
+            }
+        }
+
+        private CacheInvalidation next() {
+            synchronized (this){
+                if(this.resetPending){
+                    this.resetPending = false;
+                    return new CacheInvalidation(CacheInvalidation.CURRENT_VERSION, nodeId, ++this.lastNumber, true, new ArrayList<>());
+                }
+                if(this.pending.isEmpty()){
+                    return null;
+                }
+                List<BookChange> changes = new ArrayList<>(Math.min(this.pending.size(), maxBatchSize));
+                while(!this.pending.isEmpty() && changes.size() < maxBatchSize){
+                    changes.add(this.pending.poll());
+                }
+                return new CacheInvalidation(CacheInvalidation.CURRENT_VERSION, nodeId, ++this.lastNumber, false, changes);
+            }
+        }
+
+        private void deliver(CacheInvalidation invalidation) {
+            HttpHeaders headers = new HttpHeaders();
+            if(token != null && !token.isEmpty()){
+                headers.set(TOKEN_HEADER, token);
+            }
+            restTemplate.postForLocation(this.invalidationsUrl, new HttpEntity<>(invalidation, headers));
+            delivered.increment();
+            if(this.failing){
+                this.failing = false;
+                logger.info("book cache invalidations to peer {} delivered again", this.url);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.lms.co.za.replication;
+
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.lookup.BookMisses;
+import com.lms.co.za.model.BookChange;
+import org.flywaydb.core.Flyway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps local H2 replicas in step with the primary for development and tests, where there is no database replication.
+ * <p>
+ * On startup each replica is migrated and given a full copy of BOOKS, afterwards the book change log is followed and
+ * every changed row is copied over again, or deleted, after library.replication.local-sync-lag. Only BOOKS, the
+ * AUTHOR_TRIGRAMS of the authors of changed rows and the BOOK_CHANGE_COUNTER position it has caught up to are copied,
+ * the change log itself is always read from the primary. Trigrams the primary's cleanup deletes stay on a replica until
+ * a book by that author changes again, they only cost the author search a wasted lookup.
+ */
+public class LocalReplicaSync implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalReplicaSync.class);
+
+    private static final int BATCH_SIZE = 500;
+    private static final String BOOK_COLUMNS = "ID, TITLE, AUTHOR, PUBLISHER, ISBN, QUANTITY, CREATED, LAST_MODIFIED, VERSION";
+    private static final String SELECT_BOOKS = "SELECT " + BOOK_COLUMNS + " FROM BOOKS";
+    private static final String SELECT_BOOK = SELECT_BOOKS + " WHERE ID = ?";
+    private static final String MERGE_BOOK = "MERGE INTO BOOKS (" + BOOK_COLUMNS + ") KEY (ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String DELETE_BOOK = "DELETE FROM BOOKS WHERE ID = ?";
+    private static final String SELECT_TRIGRAMS = "SELECT TRIGRAM, AUTHOR FROM AUTHOR_TRIGRAMS";
+    private static final String SELECT_AUTHOR_TRIGRAMS = SELECT_TRIGRAMS + " WHERE AUTHOR = ?";
+    private static final String MERGE_TRIGRAM = "MERGE INTO AUTHOR_TRIGRAMS (TRIGRAM, AUTHOR) KEY (TRIGRAM, AUTHOR) VALUES (?, ?)";
+    private static final String DELETE_AUTHOR_TRIGRAMS = "DELETE FROM AUTHOR_TRIGRAMS WHERE AUTHOR = ?";
+    private static final String UPDATE_COUNTER = "UPDATE BOOK_CHANGE_COUNTER SET LAST_SEQUENCE_NUMBER = ? WHERE ID = 1";
+
+    private final JdbcTemplate primary;
+    private final List<JdbcTemplate> replicas = new ArrayList<>();
+    private final BookChangeLog bookChangeLog;
+    private final BookMisses bookMisses;
+    private final long lagMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "local-replica-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    //only touched on the scheduler thread after the initial copy.
+    private long position;
+
+    public LocalReplicaSync(DataSource primary, Map<String, DataSource> replicas, List<String> migrationLocations,
+                            BookChangeLog bookChangeLog, BookMisses bookMisses, Duration lag) {
+        this.primary = new JdbcTemplate(primary);
+        this.bookChangeLog = bookChangeLog;
+        this.bookMisses = bookMisses;
+        this.lagMillis = lag.toMillis();
+        //changes from here on are replayed after the copy, copying a row twice is harmless.
+        this.position = bookChangeLog.lastSequenceNumber();
+        for(Map.Entry<String, DataSource> replica : replicas.entrySet()){
+            Flyway.configure().dataSource(replica.getValue()).locations(migrationLocations.toArray(new String[0])).load().migrate();
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(replica.getValue());
+            copyAll(jdbcTemplate);
+            //the catalogue ETag is read from the replica serving the list, it has to match the rows copied.
+            jdbcTemplate.update(UPDATE_COUNTER, this.position);
+            this.replicas.add(jdbcTemplate);
+            logger.info("replica {} synced with the primary", replica.getKey());
+        }
+        bookChangeLog.addListener(() -> this.scheduler.schedule(this::sync, this.lagMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private void copyAll(JdbcTemplate replica) {
+        replica.update("DELETE FROM BOOKS");
+        replica.update("DELETE FROM AUTHOR_TRIGRAMS");
+        copy(replica, SELECT_BOOKS, 9, MERGE_BOOK);
+        copy(replica, SELECT_TRIGRAMS, 2, MERGE_TRIGRAM);
+    }
+
+    private void copy(JdbcTemplate replica, String select, int columns, String merge) {
+        List<Object[]> rows = new ArrayList<>(BATCH_SIZE);
+        this.primary.query(select, (RowCallbackHandler) resultSet -> {
+            rows.add(row(resultSet, columns));
+            if(rows.size() == BATCH_SIZE){
+                replica.batchUpdate(merge, rows);
+                rows.clear();
+            }
+        });
+        if(!rows.isEmpty()){
+            replica.batchUpdate(merge, rows);
+        }
+    }
+
+    private void sync() {
+        try {
+            List<BookChange> changes;
+            while(!(changes = this.bookChangeLog.read(this.position, BATCH_SIZE)).isEmpty()){
+                for(BookChange change : changes){
+                    apply(change);
+                    this.position = change.getSequence();
+                }
+                for(JdbcTemplate replica : this.replicas){
+                    replica.update(UPDATE_COUNTER, this.position);
+                }
+            }
+        }catch (RuntimeException runtimeException){
+            logger.error("local replica sync failed at sequence " + this.position + ", retrying on the next change: " + runtimeException.getMessage(), runtimeException);
+        }
+    }
+
+    private void apply(BookChange change) {
+        List<Object[]> rows = this.primary.query(SELECT_BOOK, (resultSet, rowNum) -> row(resultSet, 9), change.getBookId());
+        for(JdbcTemplate replica : this.replicas){
+            if(rows.isEmpty()){
+                replica.update(DELETE_BOOK, change.getBookId());
+            }else {
+                //committed with the book, so they are on the primary by now.
+                copyTrigrams(replica, (String) rows.get(0)[2]);
+                replica.update(MERGE_BOOK, rows.get(0));
+            }
+        }
+        //a read served by a replica before it caught up may have cached a miss, book lookups that miss the cache read the primary.
+        if(!rows.isEmpty()){
+            this.bookMisses.written((String) rows.get(0)[4], (String) rows.get(0)[2]);
+        }
+    }
+
+    /**
+     * The primary only ever adds trigrams to an author or deletes all of them.
+     */
+    private void copyTrigrams(JdbcTemplate replica, String author) {
+        List<Object[]> trigrams = this.primary.query(SELECT_AUTHOR_TRIGRAMS, (resultSet, rowNum) -> row(resultSet, 2), author);
+        if(trigrams.isEmpty()){
+            replica.update(DELETE_AUTHOR_TRIGRAMS, author);
+        }else {
+            replica.batchUpdate(MERGE_TRIGRAM, trigrams);
+        }
+    }
+
+    private static Object[] row(ResultSet resultSet, int columns) throws SQLException {
+        Object[] row = new Object[columns];
+        for(int i = 0; i < row.length; i++){
+            row[i] = resultSet.getObject(i + 1);
+        }
+        return row;
+    }
+
+    @Override
+    public void destroy() {
+        this.scheduler.shutdownNow();
+    }
+}
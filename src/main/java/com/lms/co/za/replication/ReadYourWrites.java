@@ -0,0 +1,58 @@
+package com.lms.co.za.replication;
+
+/**
+ * Tracks whether the current request has written to the primary, after that its reads go to the primary as well so it
+ * never reads a replica that hasn't caught up with its own write. Bound per request by {@link ReadYourWritesFilter},
+ * code that runs part of a request on another thread hands the scope over with {@link #bind(Scope)}.
+ */
+public final class ReadYourWrites {
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private ReadYourWrites() {
+    }
+
+    /**
+     * @return the scope bound to the calling thread, null outside a request.
+     */
+    public static Scope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Binds the scope to the calling thread, null unbinds.
+     *
+     * @return the scope it replaced, bind it back when done.
+     */
+    public static Scope bind(Scope scope) {
+        Scope previous = CURRENT.get();
+        if(scope == null){
+            CURRENT.remove();
+        }else {
+            CURRENT.set(scope);
+        }
+        return previous;
+    }
+
+    public static final class Scope {
+
+        private volatile boolean written;
+
+        /**
+         * A scope that reads from the primary from the start, for work that has to see every committed write.
+         */
+        public static Scope primaryOnly() {
+            Scope scope = new Scope();
+            scope.written = true;
+            return scope;
+        }
+
+        void written() {
+            this.written = true;
+        }
+
+        boolean hasWritten() {
+            return this.written;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.lms.co.za.replication;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Gives every request its own {@link ReadYourWrites.Scope}.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        ReadYourWrites.Scope previous = ReadYourWrites.bind(new ReadYourWrites.Scope());
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            ReadYourWrites.bind(previous);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.lms.co.za.replication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends read-only transactions to the replicas round robin and everything else to the primary: write transactions,
+ * statements outside a transaction and any read of a request that has already written (see {@link ReadYourWrites}).
+ * <p>
+ * The read-only flag of a transaction is only known once it has begun, so this must sit behind a
+ * LazyConnectionDataSourceProxy, which fetches the physical connection at the first statement.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    public static final String PRIMARY = "primary";
+
+    private final DataSource primary;
+    private final Map<String, DataSource> replicas;
+    private final List<String> replicaNames;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas) {
+        this.primary = primary;
+        this.replicas = replicas;
+        this.replicaNames = new ArrayList<>(replicas.keySet());
+        Map<Object, Object> targetDataSources = new HashMap<>(replicas);
+        targetDataSources.put(PRIMARY, primary);
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(primary);
+    }
+
+    public Map<String, DataSource> getReplicas() {
+        return this.replicas;
+    }
+
+    /**
+     * Whether a connection fetched now would come from the primary, without marking the request as written or taking
+     * a replica's turn.
+     */
+    public boolean routesToPrimary() {
+        ReadYourWrites.Scope scope = ReadYourWrites.current();
+        return !TransactionSynchronizationManager.isCurrentTransactionReadOnly() || this.replicaNames.isEmpty()
+                || (scope != null && scope.hasWritten());
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        ReadYourWrites.Scope scope = ReadYourWrites.current();
+        if(!TransactionSynchronizationManager.isCurrentTransactionReadOnly()){
+            if(scope != null && TransactionSynchronizationManager.isActualTransactionActive()){
+                scope.written();
+            }
+            return PRIMARY;
+        }
+        if(this.replicaNames.isEmpty() || (scope != null && scope.hasWritten())){
+            return PRIMARY;
+        }
+        return this.replicaNames.get(Math.floorMod(this.nextReplica.getAndIncrement(), this.replicaNames.size()));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Object key = determineCurrentLookupKey();
+        try {
+            return target(key).getConnection();
+        }catch (SQLException sqlException){
+            return fallBackToPrimary(key, sqlException).getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Object key = determineCurrentLookupKey();
+        try {
+            return target(key).getConnection(username, password);
+        }catch (SQLException sqlException){
+            return fallBackToPrimary(key, sqlException).getConnection(username, password);
+        }
+    }
+
+    private DataSource target(Object key) {
+        DataSource replica = this.replicas.get(key);
+        return replica != null ? replica : this.primary;
+    }
+
+    //a replica that can't hand out a connection shouldn't fail the read, the primary can always serve it.
+    private DataSource fallBackToPrimary(Object key, SQLException sqlException) throws SQLException {
+        if(PRIMARY.equals(key)){
+            throw sqlException;
+        }
+        logger.warn("replica " + key + " unavailable, reading from the primary: " + sqlException.getMessage());
+        return this.primary;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        for(DataSource replica : this.replicas.values()){
+            if(replica instanceof Closeable){
+                ((Closeable) replica).close();
+            }
+        }
+    }
+}
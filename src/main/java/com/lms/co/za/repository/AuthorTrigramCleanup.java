@@ -0,0 +1,115 @@
+package com.lms.co.za.repository;
+
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.replication.ReadYourWrites;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the AUTHOR_TRIGRAMS rows of authors no book has any more.
+ * <p>
+ * The BOOKS_AUTHOR_TRIGRAMS trigger adds an author's trigrams as books are written, whoever writes them, but deleting a
+ * book or changing its author leaves the old author's trigrams, another book may still have them. Every
+ * library.storage.author-trigram-cleanup-interval, and before a snapshot is written, the trigrams of authors no book has
+ * any more are deleted, one author per statement so a writer waits on at most one author's rows.
+ */
+@Component
+public class AuthorTrigramCleanup implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthorTrigramCleanup.class);
+
+    private static final String MERGE_TRIGRAM = "MERGE INTO AUTHOR_TRIGRAMS (TRIGRAM, AUTHOR) KEY (TRIGRAM, AUTHOR) VALUES (?, ?)";
+    private static final String SELECT_UNUSED_AUTHORS = "SELECT DISTINCT T.AUTHOR FROM AUTHOR_TRIGRAMS T "
+            + "WHERE NOT EXISTS (SELECT 1 FROM BOOKS B WHERE B.AUTHOR = T.AUTHOR)";
+    private static final String DELETE_UNUSED_AUTHOR = "DELETE FROM AUTHOR_TRIGRAMS WHERE AUTHOR = ? "
+            + "AND NOT EXISTS (SELECT 1 FROM BOOKS WHERE AUTHOR = ?)";
+    private static final String COUNT_BOOKS_BY_AUTHOR = "SELECT COUNT(*) FROM BOOKS WHERE AUTHOR = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long cleanupIntervalMillis;
+    private final Counter deletedAuthors;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "author-trigram-cleanup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public AuthorTrigramCleanup(JdbcTemplate jdbcTemplate, LibraryProperties libraryProperties, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cleanupIntervalMillis = libraryProperties.getStorage().getAuthorTrigramCleanupInterval().toMillis();
+        this.deletedAuthors = Counter.builder("library.author.trigrams.deleted")
+                .description("Authors no book has any more whose trigrams were deleted from the author search table")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                deleteUnusedAuthors();
+            }catch (RuntimeException runtimeException){
+                logger.warn("author trigram cleanup failed, retrying in {} ms: {}", this.cleanupIntervalMillis, runtimeException.getMessage());
+            }
+        }, this.cleanupIntervalMillis, this.cleanupIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Deletes the trigrams of authors no book has any more.
+     *
+     * @return how many authors' trigrams were deleted.
+     */
+    public synchronized int deleteUnusedAuthors() {
+        long start = System.nanoTime();
+        //a replica that hasn't caught up would name authors whose books the primary already has.
+        ReadYourWrites.Scope previous = ReadYourWrites.bind(ReadYourWrites.Scope.primaryOnly());
+        try {
+            int deleted = 0;
+            for(String author : this.jdbcTemplate.queryForList(SELECT_UNUSED_AUTHORS, String.class)){
+                if(this.jdbcTemplate.update(DELETE_UNUSED_AUTHOR, author, author) == 0){
+                    continue;
+                }
+                //a book that was committing while the statement waited on its lock kept its author, put the trigrams back.
+                Long books = this.jdbcTemplate.queryForObject(COUNT_BOOKS_BY_AUTHOR, Long.class, author);
+                if(books != null && books > 0){
+                    merge(author, AuthorTrigrams.of(author));
+                }else {
+                    deleted++;
+                }
+            }
+            this.deletedAuthors.increment(deleted);
+            if(deleted > 0){
+                logger.info("deleted the trigrams of {} authors no book has any more in {} ms", deleted, (System.nanoTime() - start) / 1_000_000);
+            }
+            return deleted;
+        }finally {
+            ReadYourWrites.bind(previous);
+        }
+    }
+
+    private void merge(String author, Set<String> trigrams) {
+        List<Object[]> rows = new ArrayList<>(trigrams.size());
+        for(String trigram : trigrams){
+            rows.add(new Object[]{trigram, author});
+        }
+        this.jdbcTemplate.batchUpdate(MERGE_TRIGRAM, rows);
+    }
+
+    @Override
+    public void destroy() {
+        this.scheduler.shutdownNow();
+    }
+}
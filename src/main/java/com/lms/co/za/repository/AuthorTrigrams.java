@@ -0,0 +1,46 @@
+package com.lms.co.za.repository;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Slices of three characters taken from an upper-cased author or author search term.
+ */
+final class AuthorTrigrams {
+
+    static final int LENGTH = 3;
+
+    private AuthorTrigrams() {
+    }
+
+    /**
+     * @return the distinct trigrams of text, empty when the text is shorter than a trigram.
+     */
+    static Set<String> of(String text) {
+        return slices(text, 1);
+    }
+
+    /**
+     * @return back to back trigrams covering text, and the last trigram, a search only needs these to narrow down the
+     * authors, there are about a third as many index entries to read as for every trigram.
+     */
+    static Set<String> covering(String text) {
+        return slices(text, LENGTH);
+    }
+
+    private static Set<String> slices(String text, int step) {
+        //the same upper-casing as the like of the author search, whatever the default locale of the jvm.
+        String upper = text.toUpperCase(Locale.ROOT);
+        if(upper.length() < LENGTH){
+            return Collections.emptySet();
+        }
+        Set<String> trigrams = new LinkedHashSet<>();
+        for(int i = 0; i + LENGTH <= upper.length(); i += step){
+            trigrams.add(upper.substring(i, i + LENGTH));
+        }
+        trigrams.add(upper.substring(upper.length() - LENGTH));
+        return trigrams;
+    }
+}
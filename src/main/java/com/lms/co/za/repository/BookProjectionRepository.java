@@ -0,0 +1,33 @@
+package com.lms.co.za.repository;
+
+import com.lms.co.za.model.Book;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads only the requested columns of books, as plain maps keyed by field name in the requested order. Rows are never
+ * turned into managed entities, so there are no persistence context entries or dirty-checking snapshots to pay for.
+ * Also holds the author search, whole books or projected, which goes through the AUTHOR_TRIGRAMS table.
+ */
+public interface BookProjectionRepository {
+
+    /**
+     * @return the book fields that can be projected, e.g. id, title, author.
+     */
+    Set<String> projectableFields();
+
+    /**
+     * Up to limit books with an id above afterId, in id order, a page of the catalogue seeked on the primary key.
+     */
+    List<Map<String, Object>> findProjectedByIdGreaterThan(List<String> fields, long afterId, int limit);
+
+    /**
+     * Books whose author contains the given text ignoring case, in id order. Terms of three characters or more are
+     * answered from the author index, shorter ones need a scan of the table.
+     */
+    List<Book> findBookByAuthorContainingIgnoreCase(String author);
+
+    List<Map<String, Object>> findProjectedByAuthorContainingIgnoreCase(String author, List<String> fields);
+}
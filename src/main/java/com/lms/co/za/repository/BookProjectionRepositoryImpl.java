@@ -0,0 +1,121 @@
+package com.lms.co.za.repository;
+
+import com.lms.co.za.model.AuthorTrigram;
+import com.lms.co.za.model.Book;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+import javax.persistence.criteria.Subquery;
+import javax.persistence.metamodel.Attribute;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+/**
+ * Criteria tuple queries selecting just the requested columns, and the author search, picked up by spring data as the
+ * implementation of the {@link BookProjectionRepository} fragment of {@link BookRepository}.
+ */
+public class BookProjectionRepositoryImpl implements BookProjectionRepository {
+
+    private static final char LIKE_ESCAPE = '\\';
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    private volatile Set<String> projectableFields;
+
+    @Override
+    public Set<String> projectableFields() {
+        if(this.projectableFields == null){
+            Set<String> fields = new TreeSet<>();
+            for(Attribute<? super Book, ?> attribute : this.entityManager.getMetamodel().entity(Book.class).getSingularAttributes()){
+                fields.add(attribute.getName());
+            }
+            this.projectableFields = Collections.unmodifiableSet(fields);
+        }
+        return this.projectableFields;
+    }
+
+    @Override
+    public List<Map<String, Object>> findProjectedByIdGreaterThan(List<String> fields, long afterId, int limit) {
+        return project(fields, (criteriaBuilder, query, book) -> criteriaBuilder.greaterThan(book.get("id"), afterId), limit);
+    }
+
+    @Override
+    public List<Book> findBookByAuthorContainingIgnoreCase(String author) {
+        CriteriaBuilder criteriaBuilder = this.entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> query = criteriaBuilder.createQuery(Book.class);
+        Root<Book> book = query.from(Book.class);
+        query.select(book).where(authorContaining(criteriaBuilder, query, book, author)).orderBy(criteriaBuilder.asc(book.get("id")));
+        return this.entityManager.createQuery(query).getResultList();
+    }
+
+    @Override
+    public List<Map<String, Object>> findProjectedByAuthorContainingIgnoreCase(String author, List<String> fields) {
+        return project(fields, (criteriaBuilder, query, book) -> authorContaining(criteriaBuilder, query, book, author), Integer.MAX_VALUE);
+    }
+
+    private static Predicate authorContaining(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, Root<Book> book, String author) {
+        //wildcards typed by the client are matched literally.
+        String pattern = "%" + author.toUpperCase(Locale.ROOT)
+                .replace(String.valueOf(LIKE_ESCAPE), String.valueOf(LIKE_ESCAPE) + LIKE_ESCAPE)
+                .replace("%", LIKE_ESCAPE + "%")
+                .replace("_", LIKE_ESCAPE + "_") + "%";
+        Predicate like = criteriaBuilder.like(criteriaBuilder.upper(book.get("author")), pattern, LIKE_ESCAPE);
+        Set<String> trigrams = AuthorTrigrams.covering(author);
+        if(trigrams.isEmpty()){
+            //too short to have a trigram, only a scan can answer it. The api asks for at least three characters.
+            return like;
+        }
+        //authors holding the trigrams of the term, the like drops the ones that hold them but not in a row.
+        Subquery<String> authors = query.subquery(String.class);
+        Root<AuthorTrigram> authorTrigram = authors.from(AuthorTrigram.class);
+        authors.select(authorTrigram.get("author"))
+                .where(authorTrigram.get("trigram").in(trigrams))
+                .groupBy(authorTrigram.get("author"))
+                .having(criteriaBuilder.equal(criteriaBuilder.count(authorTrigram.get("trigram")), (long) trigrams.size()));
+        return criteriaBuilder.and(book.get("author").in(authors), like);
+    }
+
+    private List<Map<String, Object>> project(List<String> fields, Where where, int limit) {
+        CriteriaBuilder criteriaBuilder = this.entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = criteriaBuilder.createTupleQuery();
+        Root<Book> book = query.from(Book.class);
+        List<Selection<?>> selections = new ArrayList<>(fields.size());
+        for(String field : fields){
+            selections.add(book.get(field).alias(field));
+        }
+        query.multiselect(selections);
+        query.where(where.apply(criteriaBuilder, query, book));
+        query.orderBy(criteriaBuilder.asc(book.get("id")));
+
+        List<Tuple> tuples = this.entityManager.createQuery(query).setHint(HINT_READONLY, true).setMaxResults(limit).getResultList();
+        List<Map<String, Object>> books = new ArrayList<>(tuples.size());
+        for(Tuple tuple : tuples){
+            Map<String, Object> fieldValues = new LinkedHashMap<>(fields.size() * 2);
+            for(String field : fields){
+                fieldValues.put(field, tuple.get(field));
+            }
+            books.add(fieldValues);
+        }
+        return books;
+    }
+
+    private interface Where {
+
+        Predicate apply(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query, Root<Book> book);
+    }
+}
@@ -1,16 +1,67 @@
 package com.lms.co.za.repository;
 
 import com.lms.co.za.model.Book;
+import com.lms.co.za.model.StockLevel;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 @Repository
-public interface BookRepository extends JpaRepository<Book, Long> {
+public interface BookRepository extends JpaRepository<Book, Long>, BookProjectionRepository {
 
     Optional<Book> findBookByIsbn(String isbn);
-    List<Book> findBookByAuthorContainingIgnoreCase(String author);
+    List<Book> findBookByIsbnIn(Collection<String> isbns);
+
+    //keyset pagination, seeks past the last id of the previous page instead of using an offset.
+    List<Book> findBookByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    //forward-only cursor over the whole table, must be consumed inside a transaction and closed after use.
+    @QueryHints(value = {
+            @QueryHint(name = HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select b from books b order by b.id")
+    Stream<Book> streamAllBooks();
+
+    //same cursor over the ISBN column only, covered by the ISBN_UNIQUE index.
+    @QueryHints(value = {
+            @QueryHint(name = HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select b.isbn from books b")
+    Stream<String> streamAllIsbns();
+
+    //single conditional update, the row lock serialises concurrent adjustments and the guard keeps stock from going negative.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    //bulk updates bypass @Version and @UpdateTimestamp, so both are bumped here.
+    @Query("update books b set b.quantity = b.quantity + :delta, b.version = b.version + 1, b.lastModified = current_timestamp " +
+            "where b.isbn = :isbn and b.quantity + :delta >= 0")
+    int adjustQuantityByIsbn(@Param("isbn") String isbn, @Param("delta") int delta);
+
+    //same conditional update by primary key, for loans that already know the book.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update books b set b.quantity = b.quantity + :delta, b.version = b.version + 1, b.lastModified = current_timestamp " +
+            "where b.id = :id and b.quantity + :delta >= 0")
+    int adjustQuantityById(@Param("id") Long id, @Param("delta") int delta);
+
+    //committed stock without taking the row lock, lets a checkout of a title that has run out fail before writing anything.
+    @Query("select b.quantity from books b where b.id = :id")
+    Optional<Integer> findQuantityById(@Param("id") Long id);
+
+    @Query("select new com.lms.co.za.model.StockLevel(b.id, b.isbn, b.quantity) from books b where b.isbn = :isbn")
+    Optional<StockLevel> findStockLevelByIsbn(@Param("isbn") String isbn);
 
 }
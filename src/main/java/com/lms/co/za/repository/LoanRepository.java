@@ -0,0 +1,44 @@
+package com.lms.co.za.repository;
+
+import com.lms.co.za.model.Loan;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface LoanRepository extends JpaRepository<Loan, Long> {
+
+    Optional<Loan> findFirstByBookIdAndBorrowerAndStatus(Long bookId, String borrower, Loan.Status status);
+    boolean existsByBookIdAndStatus(Long bookId, Loan.Status status);
+    boolean existsByBookIdAndBorrowerAndStatusIn(Long bookId, String borrower, Collection<Loan.Status> statuses);
+    List<Loan> findByBorrowerAndStatusInOrderByIdAsc(String borrower, Collection<Loan.Status> statuses);
+    List<Loan> findByBookIdAndStatusInOrderByIdAsc(Long bookId, Collection<Loan.Status> statuses);
+
+    //oldest holds first, read through the LOANS_BOOK_STATUS index in order.
+    @Query("select l.id from loans l where l.bookId = :bookId and l.status = :status order by l.id")
+    List<Long> findIdsByBookIdAndStatus(@Param("bookId") Long bookId, @Param("status") Loan.Status status, Pageable pageable);
+
+    @Query("select count(l) from loans l where l.bookId = :bookId and l.status = :status and l.id < :id")
+    long countByBookIdAndStatusBefore(@Param("bookId") Long bookId, @Param("status") Loan.Status status, @Param("id") Long id);
+
+    //conditional updates, a loan only moves on from the status the caller saw, so two returns of one loan can't both count.
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update loans l set l.status = :to, l.version = l.version + 1 where l.id = :id and l.status = :from")
+    int changeStatus(@Param("id") Long id, @Param("from") Loan.Status from, @Param("to") Loan.Status to);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update loans l set l.status = :to, l.checkedOut = :checkedOut, l.due = :due, l.version = l.version + 1 where l.id = :id and l.status = :from")
+    int checkOut(@Param("id") Long id, @Param("from") Loan.Status from, @Param("to") Loan.Status to, @Param("checkedOut") Instant checkedOut, @Param("due") Instant due);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update loans l set l.status = :to, l.closed = :closed, l.version = l.version + 1 where l.id = :id and l.status = :from")
+    int close(@Param("id") Long id, @Param("from") Loan.Status from, @Param("to") Loan.Status to, @Param("closed") Instant closed);
+}
@@ -0,0 +1,424 @@
+package com.lms.co.za.search;
+
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.model.Book;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over the title, author and publisher of every book.
+ * <p>
+ * Each word maps to the ids of the books containing it, and every prefix of a word (min-gram to max-gram characters)
+ * maps to the same ids so partially typed words still match. A posting also records which fields contained the word,
+ * matches are ranked by how many query terms they satisfy, then by field weight, whole words scoring above prefixes.
+ * Postings are sorted arrays of primitive ids and field masks, a few bytes per book and key. A term longer than
+ * max-gram is looked up by its max-gram prefix and checked against the indexed fields, a term shorter than min-gram
+ * only matches whole words, or a prefix of a word of the books the other terms found, so no huge posting list of a one
+ * or two letter prefix is kept or read.
+ * <p>
+ * Reads are lock free, a book is re-indexed under the lock of its own entry so writes to different books run side by
+ * side. An update older than the indexed version of the book is ignored, and a
+ * removed book stays as an entry without fields, so writes applied out of commit order can't bring back an older state.
+ */
+@Component
+public class BookSearchIndex {
+
+    private static final int TITLE = 1;
+    private static final int AUTHOR = 2;
+    private static final int PUBLISHER = 4;
+    private static final int EXACT_MATCH_BOOST = 2;
+    //terms of a query past this are ignored, a score remembers the terms it counted in a long.
+    private static final int MAX_TERMS = Long.SIZE;
+
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    private final Map<String, Postings> words = new ConcurrentHashMap<>();
+    private final Map<String, Postings> prefixes = new ConcurrentHashMap<>();
+    //indexed words of each field and version per book, needed to find the postings to remove when a book changes and to
+    //check the terms that have no postings of their own.
+    private final Map<Long, Document> documents = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final int minGram;
+    private final int maxGram;
+    //false until every stored book has been indexed, see BookSearchIndexLoader.
+    private volatile boolean loaded;
+
+    @Autowired
+    public BookSearchIndex(LibraryProperties libraryProperties) {
+        this(libraryProperties.getSearch().getMinGram(), libraryProperties.getSearch().getMaxGram());
+    }
+
+    public BookSearchIndex(int minGram, int maxGram) {
+        if(minGram < 1 || maxGram < minGram){
+            throw new IllegalArgumentException("invalid gram range: " + minGram + ".." + maxGram);
+        }
+        this.minGram = minGram;
+        this.maxGram = maxGram;
+    }
+
+    public void index(Book book) {
+        String[] fields = new String[]{words(book.getTitle()), words(book.getAuthor()), words(book.getPublisher())};
+        long id = book.getId();
+        this.documents.compute(id, (key, previous) -> {
+            if(previous != null && (previous.fields == null || previous.version > book.getVersion())){
+                return previous;
+            }
+            if(previous != null){
+                unindex(id, previous.fields);
+            }else {
+                this.size.incrementAndGet();
+            }
+            for(Map.Entry<String, Integer> word : fieldMasks(fields).entrySet()){
+                addPosting(this.words, word.getKey(), id, word.getValue());
+                for(String prefix : prefixesOf(word.getKey())){
+                    addPosting(this.prefixes, prefix, id, word.getValue());
+                }
+            }
+            return new Document(fields, book.getVersion());
+        });
+    }
+
+    public void remove(Long id) {
+        this.documents.compute(id, (key, previous) -> {
+            if(previous != null && previous.fields != null){
+                unindex(id, previous.fields);
+                this.size.decrementAndGet();
+            }
+            //ids are never reused, the entry only stops a late write of the book from indexing it again.
+            return Document.REMOVED;
+        });
+    }
+
+    public void clear() {
+        //removed entries stay, a late write of a deleted book must not bring it back into the rebuilt index.
+        this.documents.values().removeIf(document -> document.fields != null);
+        this.words.clear();
+        this.prefixes.clear();
+        this.size.set(0);
+    }
+
+    public int size() {
+        return this.size.get();
+    }
+
+    public boolean isLoaded() {
+        return this.loaded;
+    }
+
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    /**
+     * @return ids of the best matching books, best match first, at most limit ids.
+     */
+    public List<Long> search(String query, int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if(terms.size() > MAX_TERMS){
+            terms = terms.subList(0, MAX_TERMS);
+        }
+        Map<Long, Score> scores = new HashMap<>();
+        List<Integer> shortTerms = new ArrayList<>();
+        for(int i = 0; i < terms.size(); i++){
+            int term = i;
+            String text = terms.get(i);
+            Postings exact = this.words.get(text);
+            if(exact != null){
+                exact.forEach((id, mask) -> score(scores, id).add(term, EXACT_MATCH_BOOST * weight(mask)));
+            }
+            if(text.length() < this.minGram){
+                shortTerms.add(term);
+                continue;
+            }
+            boolean truncated = text.length() > this.maxGram;
+            Postings prefix = this.prefixes.get(truncated ? text.substring(0, this.maxGram) : text);
+            if(prefix != null){
+                prefix.forEach((id, mask) -> {
+                    Score score = scores.get(id);
+                    if(score != null && score.has(term)){
+                        return;
+                    }
+                    int fieldMask = truncated ? prefixMask(id, text) : mask;
+                    if(fieldMask != 0){
+                        (score != null ? score : score(scores, id)).add(term, weight(fieldMask));
+                    }
+                });
+            }
+        }
+        for(int term : shortTerms){
+            for(Map.Entry<Long, Score> entry : scores.entrySet()){
+                int fieldMask = prefixMask(entry.getKey(), terms.get(term));
+                if(fieldMask != 0){
+                    entry.getValue().add(term, weight(fieldMask));
+                }
+            }
+        }
+
+        Comparator<Map.Entry<Long, Score>> ranking = Comparator.<Map.Entry<Long, Score>>comparingInt(entry -> entry.getValue().terms)
+                .thenComparingInt(entry -> entry.getValue().weight)
+                .thenComparing(Map.Entry::getKey, Comparator.reverseOrder());
+        //keep only the top results instead of sorting every match.
+        PriorityQueue<Map.Entry<Long, Score>> top = new PriorityQueue<>(ranking);
+        for(Map.Entry<Long, Score> entry : scores.entrySet()){
+            top.offer(entry);
+            if(top.size() > limit){
+                top.poll();
+            }
+        }
+        List<Long> ids = new ArrayList<>(top.size());
+        while(!top.isEmpty()){
+            ids.add(top.poll().getKey());
+        }
+        Collections.reverse(ids);
+        return ids;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if(text == null){
+            return tokens;
+        }
+        String normalized = COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+        for(String token : NON_WORD.split(normalized)){
+            if(!token.isEmpty()){
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private void unindex(long id, String[] fields) {
+        for(String word : fieldMasks(fields).keySet()){
+            removePosting(this.words, word, id);
+            for(String prefix : prefixesOf(word)){
+                removePosting(this.prefixes, prefix, id);
+            }
+        }
+    }
+
+    private List<String> prefixesOf(String word) {
+        List<String> grams = new ArrayList<>();
+        for(int length = this.minGram; length < word.length() && length <= this.maxGram; length++){
+            grams.add(word.substring(0, length));
+        }
+        return grams;
+    }
+
+    /**
+     * @return the fields of the indexed book holding a word that starts with text, 0 for none.
+     */
+    private int prefixMask(long id, String text) {
+        Document document = this.documents.get(id);
+        if(document == null || document.fields == null){
+            return 0;
+        }
+        int mask = 0;
+        int[] fieldBits = {TITLE, AUTHOR, PUBLISHER};
+        String start = " " + text;
+        for(int i = 0; i < document.fields.length; i++){
+            if(document.fields[i].contains(start)){
+                mask |= fieldBits[i];
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return the words of a field, each after a space, so a word starting with a term is found by a plain contains.
+     */
+    private static String words(String field) {
+        StringBuilder words = new StringBuilder();
+        for(String token : tokenize(field)){
+            words.append(' ').append(token);
+        }
+        return words.toString();
+    }
+
+    private static Map<String, Integer> fieldMasks(String[] fields) {
+        Map<String, Integer> masks = new HashMap<>();
+        int[] fieldBits = {TITLE, AUTHOR, PUBLISHER};
+        for(int i = 0; i < fields.length; i++){
+            for(String token : tokenize(fields[i])){
+                masks.merge(token, fieldBits[i], (left, right) -> left | right);
+            }
+        }
+        return masks;
+    }
+
+    private static void addPosting(Map<String, Postings> postings, String key, long id, int mask) {
+        postings.compute(key, (k, ids) -> {
+            Postings added = ids != null ? ids : new Postings();
+            added.add(id, mask);
+            return added;
+        });
+    }
+
+    private static void removePosting(Map<String, Postings> postings, String key, long id) {
+        postings.computeIfPresent(key, (k, ids) -> ids.remove(id) ? null : ids);
+    }
+
+    private static Score score(Map<Long, Score> scores, long id) {
+        return scores.computeIfAbsent(id, key -> new Score());
+    }
+
+    private static int weight(int mask) {
+        int weight = 0;
+        if((mask & TITLE) != 0){
+            weight += 3;
+        }
+        if((mask & AUTHOR) != 0){
+            weight += 2;
+        }
+        if((mask & PUBLISHER) != 0){
+            weight += 1;
+        }
+        return weight;
+    }
+
+    private static final class Document {
+        private static final Document REMOVED = new Document(null, Long.MAX_VALUE);
+
+        private final String[] fields;
+        private final long version;
+
+        private Document(String[] fields, long version) {
+            this.fields = fields;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The books holding one word or prefix, ids in ascending order with the field mask of each at the same position.
+     * <p>
+     * Readers walk the last published view without locking, so a search never waits on a write. Appending a book
+     * after the last id writes past the end of the view readers see and a removed book only has its mask set to 0, so
+     * both stay cheap, the arrays are copied when a book goes in the middle or once half the entries are removed.
+     */
+    private static final class Postings {
+        private volatile View view = new View(new long[1], new byte[1], 0);
+        //entries with a mask of 0, guarded by the posting.
+        private int removed;
+
+        private synchronized void add(long id, int mask) {
+            View current = this.view;
+            int at = Arrays.binarySearch(current.ids, 0, current.size, id);
+            if(at >= 0){
+                if(current.masks[at] == 0){
+                    this.removed--;
+                }
+                current.masks[at] |= mask;
+                //published again so readers see the mask.
+                this.view = new View(current.ids, current.masks, current.size);
+                return;
+            }
+            at = -at - 1;
+            long[] ids = current.ids;
+            byte[] masks = current.masks;
+            if(at < current.size || current.size == ids.length){
+                //a reader may be walking the arrays, entries are only ever shifted in a copy.
+                int length = current.size == ids.length ? current.size + (current.size >> 1) + 1 : ids.length;
+                ids = new long[length];
+                masks = new byte[length];
+                System.arraycopy(current.ids, 0, ids, 0, at);
+                System.arraycopy(current.masks, 0, masks, 0, at);
+                System.arraycopy(current.ids, at, ids, at + 1, current.size - at);
+                System.arraycopy(current.masks, at, masks, at + 1, current.size - at);
+            }
+            //books are mostly indexed in id order, they then go past the end of the view and nothing is copied.
+            ids[at] = id;
+            masks[at] = (byte) mask;
+            this.view = new View(ids, masks, current.size + 1);
+        }
+
+        /**
+         * @return true when no book is left.
+         */
+        private synchronized boolean remove(long id) {
+            View current = this.view;
+            int at = Arrays.binarySearch(current.ids, 0, current.size, id);
+            if(at >= 0 && current.masks[at] != 0){
+                current.masks[at] = 0;
+                this.removed++;
+                this.view = this.removed * 2 > current.size ? compact(current) : new View(current.ids, current.masks, current.size);
+            }
+            return this.view.size == this.removed;
+        }
+
+        private View compact(View current) {
+            int live = current.size - this.removed;
+            long[] ids = new long[live + (live >> 1) + 1];
+            byte[] masks = new byte[ids.length];
+            int size = 0;
+            for(int i = 0; i < current.size; i++){
+                if(current.masks[i] != 0){
+                    ids[size] = current.ids[i];
+                    masks[size++] = current.masks[i];
+                }
+            }
+            this.removed = 0;
+            return new View(ids, masks, size);
+        }
+
+        private void forEach(PostingConsumer consumer) {
+            View current = this.view;
+            for(int i = 0; i < current.size; i++){
+                int mask = current.masks[i];
+                if(mask != 0){
+                    consumer.accept(current.ids[i], mask);
+                }
+            }
+        }
+    }
+
+    private static final class View {
+        private final long[] ids;
+        private final byte[] masks;
+        private final int size;
+
+        private View(long[] ids, byte[] masks, int size) {
+            this.ids = ids;
+            this.masks = masks;
+            this.size = size;
+        }
+    }
+
+    private interface PostingConsumer {
+        void accept(long id, int mask);
+    }
+
+    private static final class Score {
+        private long counted;
+        private int terms;
+        private int weight;
+
+        private boolean has(int term) {
+            return (this.counted & (1L << term)) != 0;
+        }
+
+        private void add(int term, int fieldWeight) {
+            if(has(term)){
+                return;
+            }
+            this.counted |= 1L << term;
+            this.terms++;
+            this.weight += fieldWeight;
+        }
+    }
+}
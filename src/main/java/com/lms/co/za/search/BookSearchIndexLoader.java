@@ -0,0 +1,126 @@
+package com.lms.co.za.search;
+
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.replication.ReadYourWrites;
+import com.lms.co.za.repository.BookRepository;
+import com.lms.co.za.service.BookService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the search index from the datasource once the application has started, afterwards BookService keeps it up to date.
+ * With library.search.load-in-background the build runs on its own thread so a large catalogue doesn't hold up startup.
+ * Builds may overlap, only the last one started marks the index loaded.
+ */
+@Component
+public class BookSearchIndexLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookSearchIndexLoader.class);
+
+    private static final int REPLAY_BATCH_SIZE = 500;
+
+    //bumped by every build, guarded by the loader.
+    private long builds;
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    BookSearchIndex bookSearchIndex;
+
+    @Autowired
+    BookChangeLog bookChangeLog;
+
+    @Autowired
+    LibraryProperties libraryProperties;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if(this.libraryProperties.getSearch().isLoadInBackground()){
+            Thread thread = new Thread(this::load, "book-search-index-loader");
+            thread.setDaemon(true);
+            thread.start();
+        }else {
+            load();
+        }
+    }
+
+    public void load() {
+        build(false);
+    }
+
+    /**
+     * Marks the index not loaded until the next build, for when changes to it may have been missed.
+     */
+    public synchronized void invalidate() {
+        //a build still running started before the changes were missed.
+        this.builds++;
+        this.bookSearchIndex.setLoaded(false);
+    }
+
+    /**
+     * Empties the index and builds it again, for when changes to it may have been missed.
+     */
+    public void rebuild() {
+        build(true);
+    }
+
+    private void build(boolean clear) {
+        long start = System.nanoTime();
+        long build;
+        synchronized (this){
+            build = ++this.builds;
+            this.bookSearchIndex.setLoaded(false);
+        }
+        if(clear){
+            this.bookSearchIndex.clear();
+        }
+        long lastSequenceNumber = this.bookChangeLog.lastSequenceNumber();
+        //a lagging replica could be missing changes the replay below already skips past.
+        ReadYourWrites.Scope previous = ReadYourWrites.bind(ReadYourWrites.Scope.primaryOnly());
+        try {
+            this.bookService.streamAllBooks(this.bookSearchIndex::index);
+            //a write committed while the books were streamed may have been read in its old state, replay it from the change log.
+            List<BookChange> changes;
+            while(!(changes = this.bookChangeLog.read(lastSequenceNumber, REPLAY_BATCH_SIZE)).isEmpty()){
+                for(BookChange change : changes){
+                    Optional<Book> book = this.bookRepository.findById(change.getBookId());
+                    if(book.isPresent()){
+                        this.bookSearchIndex.index(book.get());
+                    }else {
+                        this.bookSearchIndex.remove(change.getBookId());
+                    }
+                    lastSequenceNumber = change.getSequence();
+                }
+            }
+        }catch (RuntimeException runtimeException){
+            logger.error("search index build failed, searches stay unavailable: " + runtimeException.getMessage(), runtimeException);
+            return;
+        }finally {
+            ReadYourWrites.bind(previous);
+        }
+        synchronized (this){
+            //a later build cleared the index after this one read some of it, that build marks it loaded once it is done.
+            if(build != this.builds){
+                logger.info("search index build superseded by a later one");
+                return;
+            }
+            this.bookSearchIndex.setLoaded(true);
+        }
+        logger.info("search index built for {} books in {} ms", this.bookSearchIndex.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+}
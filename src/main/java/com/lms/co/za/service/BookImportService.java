@@ -0,0 +1,15 @@
+package com.lms.co.za.service;
+
+import com.lms.co.za.exception.BadRequestException;
+import com.lms.co.za.model.ImportResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface BookImportService {
+
+    enum Format { CSV, NDJSON }
+
+    ImportResult importBooks(InputStream inputStream, Format format) throws BadRequestException, IOException;
+
+}
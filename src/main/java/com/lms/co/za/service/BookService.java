@@ -1,20 +1,44 @@
 package com.lms.co.za.service;
 
+import com.lms.co.za.exception.BadRequestException;
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.PreconditionFailedException;
 import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.exception.ServiceUnavailableException;
 import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookBatchResult;
+import com.lms.co.za.model.BookPage;
+import com.lms.co.za.model.CatalogueVersion;
+import com.lms.co.za.model.ProjectedBookPage;
+import com.lms.co.za.model.StockLevel;
 import org.springframework.dao.DataIntegrityViolationException;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface BookService {
 
     Book getBookById(Long id) throws ResourceNotFoundException;
     Book getBookByISBN(String isbn) throws ResourceNotFoundException;
-    List<Book> getAllBooks() throws ResourceNotFoundException;
+    //the database lookups behind getBookById and getBookByISBN, for a caller that has just missed the book cache.
+    Book loadBookById(Long id) throws ResourceNotFoundException;
+    Book loadBookByISBN(String isbn) throws ResourceNotFoundException;
+    BookBatchResult getBooks(List<Long> ids, List<String> isbns) throws BadRequestException;
+    //the catalogue in id order, cut at library.listing.max-books with the cursor of the next page when it holds more.
+    BookPage getAllBooks() throws ResourceNotFoundException;
+    ProjectedBookPage getAllBooks(List<String> fields) throws ResourceNotFoundException, BadRequestException;
+    CatalogueVersion getCatalogueVersion();
+    BookPage getBooksPage(String cursor, int size) throws ResourceNotFoundException, BadRequestException;
+    void streamAllBooks(Consumer<Book> consumer);
     List<Book> getBooksByAuthorContaining(String author) throws ResourceNotFoundException;
+    List<Map<String, Object>> getBooksByAuthorContaining(String author, List<String> fields) throws ResourceNotFoundException, BadRequestException;
+    List<Book> searchBooks(String query, int limit) throws ResourceNotFoundException, ServiceUnavailableException;
     Book createBook(Book book) throws DataIntegrityViolationException;
 
     Book updateBook(Long id, Book book) throws ResourceNotFoundException;
+    Book updateBook(Long id, Book book, long expectedVersion) throws ResourceNotFoundException, PreconditionFailedException;
+    StockLevel adjustStock(String isbn, int delta) throws ResourceNotFoundException, InsufficientStockException;
     void deleteBookById(Long id) throws ResourceNotFoundException;
 
 
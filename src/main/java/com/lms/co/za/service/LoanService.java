@@ -0,0 +1,19 @@
+package com.lms.co.za.service;
+
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.LoanStateException;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Loan;
+
+import java.util.List;
+
+public interface LoanService {
+
+    Loan getLoanById(Long id) throws ResourceNotFoundException;
+    List<Loan> getLoansByBorrower(String borrower);
+    Loan checkout(String isbn, String borrower) throws ResourceNotFoundException, InsufficientStockException;
+    Loan returnLoan(Long id) throws ResourceNotFoundException, LoanStateException;
+    Loan placeHold(String isbn, String borrower) throws ResourceNotFoundException, LoanStateException;
+    Loan cancelHold(Long id) throws ResourceNotFoundException, LoanStateException;
+    List<Loan> getHoldQueue(String isbn) throws ResourceNotFoundException;
+}
@@ -0,0 +1,295 @@
+package com.lms.co.za.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import com.fasterxml.jackson.dataformat.csv.CsvReadException;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.exception.BadRequestException;
+import com.lms.co.za.lookup.BookMisses;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.model.ImportResult;
+import com.lms.co.za.search.BookSearchIndex;
+import com.lms.co.za.service.BookImportService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Streams a csv body row by row through the csv parser, or a newline delimited json body one line at a time, and inserts the valid rows with jdbc batches.
+ * <p>
+ * Book ids are IDENTITY generated which stops hibernate from batching inserts, so rows are written with plain jdbc,
+ * one transaction per batch. A row that fails bean validation or clashes with an existing ISBN is reported and skipped,
+ * the rest of the load carries on.
+ */
+@Service
+public class BookImportServiceImpl implements BookImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookImportServiceImpl.class);
+
+    private static final String INSERT_BOOK = "INSERT INTO BOOKS (TITLE, AUTHOR, PUBLISHER, ISBN, QUANTITY) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_EXISTING_ISBNS = "SELECT ISBN FROM BOOKS WHERE ISBN IN (:isbns)";
+
+    private final CsvMapper csvMapper = (CsvMapper) new CsvMapper()
+            .enable(CsvParser.Feature.SKIP_EMPTY_LINES)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    Validator validator;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    BookSearchIndex bookSearchIndex;
+
+    @Autowired
+    LibraryProperties libraryProperties;
+
+    @Autowired
+    BookChangeLog bookChangeLog;
+
+    @Autowired
+    BookMisses bookMisses;
+
+    @Override
+    public ImportResult importBooks(InputStream inputStream, Format format) throws BadRequestException, IOException {
+        long start = System.nanoTime();
+        int batchSize = this.libraryProperties.getBulkImport().getBatchSize();
+        ImportResult importResult = new ImportResult();
+        List<ImportRow> batch = new ArrayList<>(batchSize);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        if(format == Format.CSV){
+            readCsv(reader, importResult, batch);
+        }else {
+            readNdjson(reader, importResult, batch);
+        }
+        if(!batch.isEmpty()){
+            insertBatch(batch, importResult);
+        }
+        logger.info("bulk import of {} rows finished in {} ms, imported: {}, rejected: {}", importResult.getReceived(),
+                (System.nanoTime() - start) / 1_000_000, importResult.getImported(), importResult.getRejected());
+        return importResult;
+    }
+
+    /**
+     * Csv rows go through the csv parser rather than line by line, a quoted field may hold commas and line breaks.
+     */
+    private void readCsv(BufferedReader reader, ImportResult importResult, List<ImportRow> batch) throws BadRequestException, IOException {
+        MappingIterator<Book> rows;
+        try {
+            rows = this.csvMapper.readerFor(Book.class).with(CsvSchema.emptySchema().withHeader()).readValues(reader);
+        }catch (CsvReadException csvReadException){
+            throw new BadRequestException("csv import requires a header row, e.g. title,author,publisher,isbn,quantity");
+        }
+        CsvParser parser = (CsvParser) rows.getParser();
+        while(rows.hasNextValue()){
+            //the parser has looked ahead to the first field, its position is the line the row starts on.
+            long line = parser.getCurrentLocation().getLineNr();
+            importResult.setReceived(importResult.getReceived() + 1);
+            try {
+                accept(rows.nextValue(), line, importResult, batch);
+            }catch (JsonProcessingException jsonProcessingException){
+                reject(importResult, line, null, "unreadable row: " + jsonProcessingException.getOriginalMessage());
+            }
+        }
+    }
+
+    private void readNdjson(BufferedReader reader, ImportResult importResult, List<ImportRow> batch) throws IOException {
+        ObjectReader rowReader = this.objectMapper.readerFor(Book.class);
+        long line = 0;
+        String row;
+        while((row = reader.readLine()) != null){
+            line++;
+            if(row.trim().isEmpty()){
+                continue;
+            }
+            importResult.setReceived(importResult.getReceived() + 1);
+            Book book;
+            try {
+                book = rowReader.readValue(row);
+            }catch (JsonProcessingException jsonProcessingException){
+                reject(importResult, line, null, "unreadable row: " + jsonProcessingException.getOriginalMessage());
+                continue;
+            }
+            accept(book, line, importResult, batch);
+        }
+    }
+
+    /**
+     * Validates a parsed row and adds it to the batch, inserting the batch once it is full.
+     */
+    private void accept(Book book, long line, ImportResult importResult, List<ImportRow> batch) {
+        Set<ConstraintViolation<Book>> violations = this.validator.validate(book);
+        if(!violations.isEmpty()){
+            reject(importResult, line, book.getIsbn(), violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining(", ")));
+            return;
+        }
+        batch.add(new ImportRow(line, book));
+        if(batch.size() >= this.libraryProperties.getBulkImport().getBatchSize()){
+            insertBatch(batch, importResult);
+            batch.clear();
+        }
+    }
+
+    private void insertBatch(List<ImportRow> batch, ImportResult importResult) {
+        //one IN query per batch catches clashes with books already stored, including earlier batches of this import.
+        Set<String> existingIsbns = new HashSet<>(this.namedParameterJdbcTemplate.queryForList(SELECT_EXISTING_ISBNS,
+                new MapSqlParameterSource("isbns", batch.stream().map(importRow -> importRow.book.getIsbn()).collect(Collectors.toSet())), String.class));
+        Set<String> batchIsbns = new HashSet<>();
+        List<ImportRow> rows = new ArrayList<>(batch.size());
+        for(ImportRow importRow : batch){
+            String isbn = importRow.book.getIsbn();
+            if(existingIsbns.contains(isbn)){
+                reject(importResult, importRow.line, isbn, "ISBN reference already exists");
+            }else if(!batchIsbns.add(isbn)){
+                reject(importResult, importRow.line, isbn, "ISBN reference is duplicated in this import");
+            }else {
+                rows.add(importRow);
+            }
+        }
+        if(rows.isEmpty()){
+            return;
+        }
+        try {
+            this.transactionTemplate.executeWithoutResult(status -> {
+                this.jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                    executeBatch(connection.prepareStatement(INSERT_BOOK, new String[]{"ID"}), rows);
+                    return null;
+                });
+                this.bookChangeLog.appendAll(rows.stream()
+                        .map(importRow -> new BookChange(0L, BookChange.Operation.CREATED, importRow.book.getId(), importRow.book.getIsbn(), null, null))
+                        .collect(Collectors.toList()));
+                rows.forEach(importRow -> this.bookMisses.writing(importRow.book.getIsbn()));
+            });
+            rows.forEach(importRow -> {
+                this.bookMisses.written(importRow.book.getIsbn(), importRow.book.getAuthor());
+                imported(importResult, importRow.book);
+            });
+        }catch (DuplicateKeyException duplicateKeyException){
+            //a concurrent writer took one of the ISBNs after the check, retry the batch row by row to find it.
+            logger.warn("bulk import batch hit a duplicate ISBN, retrying {} rows individually", rows.size());
+            for(ImportRow importRow : rows){
+                insertRow(importRow, importResult);
+            }
+        }
+    }
+
+    private void executeBatch(PreparedStatement preparedStatement, List<ImportRow> rows) throws SQLException {
+        try {
+            for(ImportRow importRow : rows){
+                bind(preparedStatement, importRow.book);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            try (ResultSet generatedKeys = preparedStatement.getGeneratedKeys()) {
+                for(ImportRow importRow : rows){
+                    if(!generatedKeys.next()){
+                        break;
+                    }
+                    importRow.book.setId(generatedKeys.getLong(1));
+                }
+            }
+        } finally {
+            preparedStatement.close();
+        }
+    }
+
+    private void insertRow(ImportRow importRow, ImportResult importResult) {
+        try {
+            this.transactionTemplate.executeWithoutResult(status -> {
+                KeyHolder keyHolder = new GeneratedKeyHolder();
+                this.jdbcTemplate.update(connection -> {
+                    PreparedStatement preparedStatement = connection.prepareStatement(INSERT_BOOK, new String[]{"ID"});
+                    bind(preparedStatement, importRow.book);
+                    return preparedStatement;
+                }, keyHolder);
+                Number id = keyHolder.getKey();
+                importRow.book.setId(id != null ? id.longValue() : null);
+                this.bookChangeLog.append(BookChange.Operation.CREATED, importRow.book.getId(), importRow.book.getIsbn(), null);
+                this.bookMisses.writing(importRow.book.getIsbn());
+            });
+            this.bookMisses.written(importRow.book.getIsbn(), importRow.book.getAuthor());
+            imported(importResult, importRow.book);
+        }catch (DuplicateKeyException duplicateKeyException){
+            reject(importResult, importRow.line, importRow.book.getIsbn(), "ISBN reference already exists");
+        }
+    }
+
+    private static void bind(PreparedStatement preparedStatement, Book book) throws SQLException {
+        preparedStatement.setString(1, book.getTitle());
+        preparedStatement.setString(2, book.getAuthor());
+        preparedStatement.setString(3, book.getPublisher());
+        preparedStatement.setString(4, book.getIsbn());
+        preparedStatement.setInt(5, book.getQuantity());
+    }
+
+    private void imported(ImportResult importResult, Book book) {
+        importResult.setImported(importResult.getImported() + 1);
+        if(book.getId() != null){
+            this.bookSearchIndex.index(book);
+        }
+    }
+
+    private void reject(ImportResult importResult, long line, String isbn, String error) {
+        importResult.setRejected(importResult.getRejected() + 1);
+        if(importResult.getErrors().size() < this.libraryProperties.getBulkImport().getMaxReportedErrors()){
+            importResult.getErrors().add(new ImportResult.ImportError(line, isbn, error));
+        }
+    }
+
+    private static final class ImportRow {
+        private final long line;
+        private final Book book;
+
+        private ImportRow(long line, Book book) {
+            this.line = line;
+            this.book = book;
+        }
+    }
+}
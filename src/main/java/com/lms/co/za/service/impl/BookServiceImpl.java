@@ -1,17 +1,53 @@
 package com.lms.co.za.service.impl;
 
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.configuration.CacheConfig;
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.exception.BadRequestException;
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.PreconditionFailedException;
 import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.exception.ServiceUnavailableException;
+import com.lms.co.za.lookup.BookCache;
+import com.lms.co.za.lookup.BookMisses;
 import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookBatchResult;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.model.BookPage;
+import com.lms.co.za.model.CatalogueVersion;
+import com.lms.co.za.model.ProjectedBookPage;
+import com.lms.co.za.model.StockLevel;
+import com.lms.co.za.replication.ReplicaRoutingDataSource;
 import com.lms.co.za.repository.BookRepository;
+import com.lms.co.za.search.BookSearchIndex;
 import com.lms.co.za.service.BookService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class BookServiceImpl implements BookService {
@@ -21,20 +57,107 @@ public class BookServiceImpl implements BookService {
     @Autowired
     BookRepository bookRepository;
 
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Autowired
+    BookCache bookCache;
+
+    @Autowired
+    BookSearchIndex bookSearchIndex;
+
+    @Autowired
+    LibraryProperties libraryProperties;
+
+    @Autowired
+    BookChangeLog bookChangeLog;
+
+    @Autowired(required = false)
+    ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @Autowired
+    BookMisses bookMisses;
+
+    @Autowired
+    HoldQueue holdQueue;
+
     @Override
+    @Transactional(readOnly = true)
     public Book getBookById(Long id) throws ResourceNotFoundException {
-        return bookRepository.findById(id).orElseThrow(() -> new ResourceNotFoundException("Book not found for id: " + id));
+        return this.bookCache.get(CacheConfig.BOOKS_BY_ID, id, () -> findBookById(id));
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Book getBookByISBN(String isbn) throws ResourceNotFoundException {
-        return this.bookRepository.findBookByIsbn(isbn).orElseThrow(() -> new ResourceNotFoundException("Book not found for ISBN reference: " + isbn));
+        return this.bookCache.get(CacheConfig.BOOKS_BY_ISBN, isbn, () -> findBookByIsbn(isbn));
     }
 
     @Override
-    public List<Book> getAllBooks() throws ResourceNotFoundException {
-        List<Book> books =  this.bookRepository.findAll();
-        if(books.isEmpty()){
+    @Transactional(readOnly = true)
+    public Book loadBookById(Long id) throws ResourceNotFoundException {
+        return this.bookCache.load(CacheConfig.BOOKS_BY_ID, id, () -> findBookById(id));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Book loadBookByISBN(String isbn) throws ResourceNotFoundException {
+        return this.bookCache.load(CacheConfig.BOOKS_BY_ISBN, isbn, () -> findBookByIsbn(isbn));
+    }
+
+    private Book findBookById(Long id) throws ResourceNotFoundException {
+        return this.bookRepository.findById(id).orElseThrow(() -> new ResourceNotFoundException("Book not found for id: " + id));
+    }
+
+    //only runs on a cache miss, a cached book never pays for the filter.
+    private Book findBookByIsbn(String isbn) throws ResourceNotFoundException {
+        this.bookMisses.checkIsbn(isbn);
+        long started = this.bookMisses.lookupStarted();
+        return this.bookRepository.findBookByIsbn(isbn).orElseThrow(() -> this.bookMisses.notFoundIsbn(isbn, started));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public BookBatchResult getBooks(List<Long> ids, List<String> isbns) throws BadRequestException {
+        int maxKeys = this.libraryProperties.getBatch().getMaxKeys();
+        if(ids.size() + isbns.size() > maxKeys){
+            throw new BadRequestException("A batch lookup takes at most " + maxKeys + " ids and ISBN references, received: " + (ids.size() + isbns.size()));
+        }
+        Set<Long> distinctIds = new LinkedHashSet<>(ids);
+        Set<String> distinctIsbns = new LinkedHashSet<>(isbns);
+        Map<Long, Book> booksById = lookupBatch(CacheConfig.BOOKS_BY_ID, distinctIds, this.bookRepository::findAllById, Book::getId);
+        //known misses are left out of the queries and end up in missingIsbns below.
+        Set<String> lookupIsbns = distinctIsbns.stream().filter(isbn -> !this.bookMisses.isMissingIsbn(isbn)).collect(Collectors.toCollection(LinkedHashSet::new));
+        long started = this.bookMisses.lookupStarted();
+        Map<String, Book> booksByIsbn = lookupBatch(CacheConfig.BOOKS_BY_ISBN, lookupIsbns, this.bookRepository::findBookByIsbnIn, Book::getIsbn);
+        lookupIsbns.stream().filter(isbn -> !booksByIsbn.containsKey(isbn)).forEach(isbn -> this.bookMisses.missingIsbn(isbn, started));
+
+        BookBatchResult bookBatchResult = new BookBatchResult();
+        Set<Long> returnedIds = new HashSet<>();
+        for(Long id : distinctIds){
+            Book book = booksById.get(id);
+            if(book == null){
+                bookBatchResult.getMissingIds().add(id);
+            }else if(returnedIds.add(book.getId())){
+                bookBatchResult.getBooks().add(book);
+            }
+        }
+        for(String isbn : distinctIsbns){
+            Book book = booksByIsbn.get(isbn);
+            if(book == null){
+                bookBatchResult.getMissingIsbns().add(isbn);
+            }else if(returnedIds.add(book.getId())){
+                bookBatchResult.getBooks().add(book);
+            }
+        }
+        return bookBatchResult;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public BookPage getAllBooks() throws ResourceNotFoundException {
+        BookPage books = page(0L, this.libraryProperties.getListing().getMaxBooks());
+        if(books.getBooks().isEmpty()){
             throw new ResourceNotFoundException("No books found in datasource");
         }else {
             return books;
@@ -42,45 +165,294 @@ public class BookServiceImpl implements BookService {
     }
 
     @Override
+    @Transactional(readOnly = true)
+    public ProjectedBookPage getAllBooks(List<String> fields) throws ResourceNotFoundException, BadRequestException {
+        int maxBooks = this.libraryProperties.getListing().getMaxBooks();
+        List<String> checkedFields = checkFields(fields);
+        //the id of the last book is the cursor of the next page, it is read even when it wasn't asked for.
+        List<String> selectedFields = checkedFields;
+        if(!checkedFields.contains("id")){
+            selectedFields = new ArrayList<>(checkedFields);
+            selectedFields.add("id");
+        }
+        List<Map<String, Object>> books = this.bookRepository.findProjectedByIdGreaterThan(selectedFields, 0L, maxBooks + 1);
+        if(books.isEmpty()){
+            throw new ResourceNotFoundException("No books found in datasource");
+        }
+        String nextCursor = null;
+        if(books.size() > maxBooks){
+            books = new ArrayList<>(books.subList(0, maxBooks));
+            nextCursor = encodeCursor((Long) books.get(maxBooks - 1).get("id"));
+        }
+        if(selectedFields != checkedFields){
+            books.forEach(book -> book.remove("id"));
+        }
+        return new ProjectedBookPage(books, nextCursor);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public CatalogueVersion getCatalogueVersion() {
+        if(this.replicaRoutingDataSource == null || this.replicaRoutingDataSource.routesToPrimary()){
+            return new CatalogueVersion(this.bookChangeLog.lastSequenceNumber());
+        }
+        //read in this transaction, so a replica answers with the watermark it has caught up to, not the primary's.
+        return new CatalogueVersion(this.bookChangeLog.savedSequenceNumber());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public BookPage getBooksPage(String cursor, int size) throws ResourceNotFoundException, BadRequestException {
+        BookPage page = page(decodeCursor(cursor), size);
+        if(page.getBooks().isEmpty() && cursor == null){
+            throw new ResourceNotFoundException("No books found in datasource");
+        }
+        return page;
+    }
+
+    private BookPage page(long afterId, int size) {
+        //fetch one extra row to find out if there is a next page without issuing a count query.
+        List<Book> books = this.bookRepository.findBookByIdGreaterThanOrderByIdAsc(afterId, PageRequest.of(0, size + 1));
+        if(books.size() > size){
+            List<Book> page = new ArrayList<>(books.subList(0, size));
+            return new BookPage(page, encodeCursor(page.get(size - 1).getId()));
+        }else {
+            return new BookPage(books, null);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void streamAllBooks(Consumer<Book> consumer) {
+        try(Stream<Book> books = this.bookRepository.streamAllBooks()){
+            books.forEach(book -> {
+                consumer.accept(book);
+                //detach each row once written so the persistence context stays flat regardless of table size.
+                this.entityManager.detach(book);
+            });
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
     public List<Book> getBooksByAuthorContaining(String author) throws ResourceNotFoundException {
+        this.bookMisses.checkAuthor(author);
+        long started = this.bookMisses.lookupStarted();
         List<Book> books =  this.bookRepository.findBookByAuthorContainingIgnoreCase(author);
         if(books.isEmpty()){
-            throw new ResourceNotFoundException("No books found for author: " + author);
+            throw this.bookMisses.notFoundAuthor(author, started);
+        }else {
+            return books;
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> getBooksByAuthorContaining(String author, List<String> fields) throws ResourceNotFoundException, BadRequestException {
+        List<String> checkedFields = checkFields(fields);
+        this.bookMisses.checkAuthor(author);
+        long started = this.bookMisses.lookupStarted();
+        List<Map<String, Object>> books = this.bookRepository.findProjectedByAuthorContainingIgnoreCase(author, checkedFields);
+        if(books.isEmpty()){
+            throw this.bookMisses.notFoundAuthor(author, started);
         }else {
             return books;
         }
     }
 
     @Override
+    @Transactional(readOnly = true)
+    public List<Book> searchBooks(String query, int limit) throws ResourceNotFoundException, ServiceUnavailableException {
+        if(!this.bookSearchIndex.isLoaded()){
+            //a partly built index would quietly leave out matches.
+            throw new ServiceUnavailableException("Search index is still loading, retry later");
+        }
+        List<Long> ids = this.bookSearchIndex.search(query, limit);
+        //primary key lookups only, then put the books back in ranked order.
+        Map<Long, Book> booksById = this.bookRepository.findAllById(ids).stream().collect(Collectors.toMap(Book::getId, Function.identity()));
+        List<Book> books = ids.stream().map(booksById::get).filter(Objects::nonNull).collect(Collectors.toList());
+        if(books.isEmpty()){
+            throw new ResourceNotFoundException("No books found for query: " + query);
+        }else {
+            return books;
+        }
+    }
+
+    @Override
+    @Transactional
     public Book createBook(Book book) throws DataIntegrityViolationException {
         //added unique constraint to ISBN column on the books schema, catch dataIntegrationViolationException and return via global exception handler.
-        return this.bookRepository.saveAndFlush(book);
+        //a posted id is ignored, merging over an existing row would skip the version check, updates go through updateBook.
+        book.setId(null);
+        Book newBook = this.bookRepository.saveAndFlush(book);
+        this.bookChangeLog.append(BookChange.Operation.CREATED, newBook.getId(), newBook.getIsbn(), null);
+        this.bookMisses.writing(newBook.getIsbn());
+        afterCommit(() -> {
+            this.bookCache.evict(newBook.getId(), newBook.getIsbn());
+            this.bookMisses.written(newBook.getIsbn(), newBook.getAuthor());
+            this.bookSearchIndex.index(newBook);
+        });
+        return newBook;
     }
 
     @Override
+    @Transactional(rollbackFor = ResourceNotFoundException.class)
     public Book updateBook(Long id, Book book) throws ResourceNotFoundException {
         Optional<Book> existingBook = this.bookRepository.findById(id);
         if(existingBook.isPresent()){
-            //!=/!"".equalIgnoreCase(val) checks not necessary as bean validation is handled at class level.
-            Book updatedBook = existingBook.get();
-            updatedBook.setTitle(book.getTitle());
-            updatedBook.setAuthor(book.getAuthor());
-            updatedBook.setPublisher(book.getPublisher());
-            updatedBook.setIsbn(book.getIsbn());
-            updatedBook.setQuantity(book.getQuantity());
-            return this.bookRepository.saveAndFlush(updatedBook);
+            return update(id, existingBook.get(), book);
         }else {
             throw new ResourceNotFoundException("No book found for id: " + id);
         }
     }
 
     @Override
+    @Transactional(rollbackFor = {ResourceNotFoundException.class, PreconditionFailedException.class})
+    public Book updateBook(Long id, Book book, long expectedVersion) throws ResourceNotFoundException, PreconditionFailedException {
+        Optional<Book> existingBook = this.bookRepository.findById(id);
+        if(!existingBook.isPresent()){
+            throw new ResourceNotFoundException("No book found for id: " + id);
+        }else if(existingBook.get().getVersion() != expectedVersion){
+            throw new PreconditionFailedException("Book " + id + " is at version " + existingBook.get().getVersion() + ", the update expected version " + expectedVersion);
+        }else {
+            //a write committed after the check still fails the flush below on the version column.
+            return update(id, existingBook.get(), book);
+        }
+    }
+
+    /**
+     * Applies the update to the book read in this transaction. A stock adjustment committed since that read bumps the
+     * version, so the flush fails with an OptimisticLockingFailureException instead of writing back the old quantity.
+     */
+    private Book update(Long id, Book updatedBook, Book book) {
+        //!=/!"".equalIgnoreCase(val) checks not necessary as bean validation is handled at class level.
+        String previousIsbn = updatedBook.getIsbn();
+        updatedBook.setTitle(book.getTitle());
+        updatedBook.setAuthor(book.getAuthor());
+        updatedBook.setPublisher(book.getPublisher());
+        updatedBook.setIsbn(book.getIsbn());
+        int previousQuantity = updatedBook.getQuantity();
+        updatedBook.setQuantity(book.getQuantity());
+        Book saved = this.bookRepository.saveAndFlush(updatedBook);
+        //copies added go to the waiting holds before the shelf, the book is read again with what is left.
+        if(saved.getQuantity() > previousQuantity && this.holdQueue.serve(id) > 0){
+            saved = this.bookRepository.findById(id).orElse(saved);
+        }
+        Book savedBook = saved;
+        this.bookChangeLog.append(BookChange.Operation.UPDATED, id, savedBook.getIsbn(), previousIsbn.equals(savedBook.getIsbn()) ? null : previousIsbn);
+        this.bookMisses.writing(savedBook.getIsbn());
+        afterCommit(() -> {
+            //the isbn may have changed, so both the old and new isbn entries are dropped.
+            this.bookCache.evict(id, previousIsbn, savedBook.getIsbn());
+            this.bookMisses.written(savedBook.getIsbn(), savedBook.getAuthor());
+            this.bookSearchIndex.index(savedBook);
+        });
+        return savedBook;
+    }
+
+    @Override
+    @Transactional(rollbackFor = {ResourceNotFoundException.class, InsufficientStockException.class})
+    public StockLevel adjustStock(String isbn, int delta) throws ResourceNotFoundException, InsufficientStockException {
+        //no read-modify-write, the database applies the delta so concurrent checkouts can't overwrite each other.
+        int updated = this.bookRepository.adjustQuantityByIsbn(isbn, delta);
+        StockLevel stockLevel = this.bookRepository.findStockLevelByIsbn(isbn).orElseThrow(() -> new ResourceNotFoundException("Book not found for ISBN reference: " + isbn));
+        if(updated == 0){
+            throw new InsufficientStockException("Insufficient stock for ISBN reference: " + isbn + ", in stock: " + stockLevel.getQuantity() + ", adjustment: " + delta);
+        }else {
+            //copies added go to the waiting holds before the shelf.
+            if(delta > 0){
+                stockLevel.setQuantity(stockLevel.getQuantity() - this.holdQueue.serve(stockLevel.getId()));
+            }
+            this.bookChangeLog.append(BookChange.Operation.UPDATED, stockLevel.getId(), isbn, null);
+            this.bookCache.evictAfterCommit(stockLevel.getId(), isbn);
+            return stockLevel;
+        }
+    }
+
+    @Override
+    @Transactional(rollbackFor = ResourceNotFoundException.class)
     public void deleteBookById(Long id) throws ResourceNotFoundException {
-        boolean bookExists = this.bookRepository.existsById(id);
-        if(!bookExists){
+        Optional<Book> existingBook = this.bookRepository.findById(id);
+        if(!existingBook.isPresent()){
             throw new ResourceNotFoundException("no book found for id: " + id);
         }else {
-            this.bookRepository.deleteById(id);
+            this.bookRepository.delete(existingBook.get());
+            this.bookChangeLog.append(BookChange.Operation.DELETED, id, existingBook.get().getIsbn(), null);
+            afterCommit(() -> {
+                this.bookCache.evict(id, existingBook.get().getIsbn());
+                this.bookSearchIndex.remove(id);
+            });
+        }
+    }
+
+    /**
+     * Serves what it can from the given cache, then loads the misses with one IN query per chunk and caches them,
+     * so a batch costs at most keys / chunk-size queries and none once warm.
+     */
+    private <K> Map<K, Book> lookupBatch(String cacheName, Set<K> keys, Function<List<K>, List<Book>> loader, Function<Book, K> keyOf) {
+        Map<K, Book> books = new HashMap<>();
+        List<K> misses = new ArrayList<>();
+        for(K key : keys){
+            Book cachedBook = this.bookCache.get(cacheName, key);
+            if(cachedBook != null){
+                books.put(key, cachedBook);
+            }else {
+                misses.add(key);
+            }
+        }
+        int chunkSize = this.libraryProperties.getBatch().getChunkSize();
+        for(int from = 0; from < misses.size(); from += chunkSize){
+            List<K> chunk = misses.subList(from, Math.min(from + chunkSize, misses.size()));
+            for(Book book : this.bookCache.<RuntimeException>load(cacheName, keyOf::apply, () -> loader.apply(chunk))){
+                books.put(keyOf.apply(book), book);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * Cache and search index updates wait for the commit, evicting earlier would let a concurrent read cache the old row again.
+     */
+    private static void afterCommit(Runnable action) {
+        if(TransactionSynchronizationManager.isSynchronizationActive()){
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        }else {
+            action.run();
+        }
+    }
+
+    private List<String> checkFields(List<String> fields) throws BadRequestException {
+        Set<String> projectableFields = this.bookRepository.projectableFields();
+        List<String> checkedFields = new ArrayList<>();
+        for(String field : fields){
+            String trimmedField = field.trim();
+            if(!projectableFields.contains(trimmedField)){
+                throw new BadRequestException("Unknown field: " + trimmedField + ", fields that can be selected: " + String.join(",", projectableFields));
+            }
+            if(!checkedFields.contains(trimmedField)){
+                checkedFields.add(trimmedField);
+            }
+        }
+        return checkedFields;
+    }
+
+    private static String encodeCursor(Long id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(String.valueOf(id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long decodeCursor(String cursor) throws BadRequestException {
+        if(cursor == null){
+            return 0L;
+        }
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        }catch (IllegalArgumentException illegalArgumentException){
+            throw new BadRequestException("Invalid cursor: " + cursor, illegalArgumentException);
         }
     }
 }
@@ -0,0 +1,79 @@
+package com.lms.co.za.service.impl;
+
+import com.lms.co.za.model.Loan;
+import com.lms.co.za.repository.BookRepository;
+import com.lms.co.za.repository.LoanRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * The hold queue of a title, shared by the loans and by the book writes that add copies, so copies reach the waiting
+ * holds whichever way they come in. Must be called inside the transaction of the write, the caller logs the change
+ * and evicts the cached book.
+ */
+@Component
+class HoldQueue {
+
+    //holds read per try, one is enough unless another transaction took the same hold.
+    private static final int HOLDS_PER_READ = 10;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    boolean hasWaiting(Long bookId) {
+        return this.loanRepository.existsByBookIdAndStatus(bookId, Loan.Status.WAITING);
+    }
+
+    /**
+     * Sets a copy that is not on the shelf aside for the oldest waiting hold, a returned copy or the copy of a
+     * cancelled ready hold.
+     *
+     * @return false when no one is waiting, the copy belongs on the shelf.
+     */
+    boolean setAsideForOldest(Long bookId) {
+        List<Long> waiting;
+        while(!(waiting = waiting(bookId)).isEmpty()){
+            for(Long holdId : waiting){
+                if(this.loanRepository.changeStatus(holdId, Loan.Status.WAITING, Loan.Status.READY) == 1){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes copies off the shelf for waiting holds, oldest first, until the shelf or the queue is empty. Called after
+     * stock went up, or a hold was placed, while a copy may have been on the shelf.
+     *
+     * @return the number of copies set aside.
+     */
+    int serve(Long bookId) {
+        int setAside = 0;
+        List<Long> waiting;
+        while(!(waiting = waiting(bookId)).isEmpty()){
+            for(Long holdId : waiting){
+                //the copy is taken first, under the row lock, an empty shelf ends it.
+                if(this.bookRepository.adjustQuantityById(bookId, -1) == 0){
+                    return setAside;
+                }
+                if(this.loanRepository.changeStatus(holdId, Loan.Status.WAITING, Loan.Status.READY) == 1){
+                    setAside++;
+                }else {
+                    this.bookRepository.adjustQuantityById(bookId, 1);
+                }
+            }
+        }
+        return setAside;
+    }
+
+    private List<Long> waiting(Long bookId) {
+        return this.loanRepository.findIdsByBookIdAndStatus(bookId, Loan.Status.WAITING, PageRequest.of(0, HOLDS_PER_READ));
+    }
+}
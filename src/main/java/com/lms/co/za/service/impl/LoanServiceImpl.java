@@ -0,0 +1,272 @@
+package com.lms.co.za.service.impl;
+
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.LoanStateException;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.lookup.BookCache;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.model.Loan;
+import com.lms.co.za.repository.BookRepository;
+import com.lms.co.za.repository.LoanRepository;
+import com.lms.co.za.service.BookService;
+import com.lms.co.za.service.LoanService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Loans and holds of book copies. BOOKS.QUANTITY is the number of copies on the shelf, a checkout takes one and a
+ * return puts it back, or sets it aside for the oldest WAITING hold of the title, which becomes READY. Copies added
+ * through a stock adjustment or a book update go to the waiting holds the same way, see HoldQueue.
+ * <p>
+ * Stock only changes through the conditional update of the book row, so no two checkouts can take the same copy. The
+ * update is the last statement of a checkout, the row lock it takes is held only for the commit, and a checkout of a
+ * title the shelf has none of left is turned away on a plain read before anything is written. Loans and holds move
+ * between statuses with conditional updates too, so a loan returned twice at once only puts back one copy.
+ */
+@Service
+public class LoanServiceImpl implements LoanService {
+
+    private static final List<Loan.Status> OPEN = Arrays.asList(Loan.Status.WAITING, Loan.Status.READY, Loan.Status.ON_LOAN);
+    private static final List<Loan.Status> HELD = Arrays.asList(Loan.Status.WAITING, Loan.Status.READY);
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    HoldQueue holdQueue;
+
+    @Autowired
+    BookChangeLog bookChangeLog;
+
+    @Autowired
+    BookCache bookCache;
+
+    @Autowired
+    LibraryProperties libraryProperties;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Override
+    @Transactional(readOnly = true)
+    public Loan getLoanById(Long id) throws ResourceNotFoundException {
+        Loan loan = this.loanRepository.findById(id).orElseThrow(() -> new ResourceNotFoundException("No loan found for id: " + id));
+        if(loan.getStatus() == Loan.Status.WAITING){
+            loan.setQueuePosition(queuePosition(loan));
+        }
+        return loan;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Loan> getLoansByBorrower(String borrower) {
+        List<Loan> loans = this.loanRepository.findByBorrowerAndStatusInOrderByIdAsc(borrower, OPEN);
+        for(Loan loan : loans){
+            if(loan.getStatus() == Loan.Status.WAITING){
+                loan.setQueuePosition(queuePosition(loan));
+            }
+        }
+        return loans;
+    }
+
+    @Override
+    @Transactional(rollbackFor = {ResourceNotFoundException.class, InsufficientStockException.class})
+    public Loan checkout(String isbn, String borrower) throws ResourceNotFoundException, InsufficientStockException {
+        //id and isbn never change, a cached book is good enough to find the row.
+        Book book = this.bookService.getBookByISBN(isbn);
+        Instant now = Instant.now();
+        Instant due = now.plus(this.libraryProperties.getLoans().getPeriod());
+        //a copy already set aside for the borrower's hold is checked out without touching the shelf.
+        Optional<Loan> readyHold = checkOutReadyHold(book.getId(), borrower, now, due);
+        if(readyHold.isPresent()){
+            return readyHold.get();
+        }
+
+        int onShelf = this.bookRepository.findQuantityById(book.getId()).orElseThrow(() -> bookNotFound(isbn));
+        if(onShelf < 1){
+            throw outOfStock(isbn);
+        }
+        //a copy on the shelf while holds wait missed the queue, a return raced the hold being placed. It goes to the
+        //queue now, oldest first, and the borrower may be the one at its head.
+        if(this.holdQueue.hasWaiting(book.getId())){
+            serveHoldQueue(book.getId(), isbn);
+            readyHold = checkOutReadyHold(book.getId(), borrower, now, due);
+            if(readyHold.isPresent()){
+                return readyHold.get();
+            }
+            if(this.holdQueue.hasWaiting(book.getId())){
+                throw new InsufficientStockException("Copies of ISBN reference: " + isbn + " are set aside for the hold queue, place a hold instead");
+            }
+        }
+        Loan loan = new Loan();
+        loan.setBookId(book.getId());
+        loan.setIsbn(book.getIsbn());
+        loan.setBorrower(borrower);
+        loan.setStatus(Loan.Status.ON_LOAN);
+        loan.setCheckedOut(now);
+        loan.setDue(due);
+        loan = this.loanRepository.save(loan);
+        this.bookChangeLog.append(BookChange.Operation.UPDATED, book.getId(), book.getIsbn(), null);
+        //last, the row lock on the book is held from here to the commit. Nothing taken means another checkout got the last copy, or the book is gone.
+        if(this.bookRepository.adjustQuantityById(book.getId(), -1) == 0){
+            this.bookRepository.findQuantityById(book.getId()).orElseThrow(() -> bookNotFound(isbn));
+            throw outOfStock(isbn);
+        }
+        this.bookCache.evictAfterCommit(book.getId(), book.getIsbn());
+        return loan;
+    }
+
+    @Override
+    @Transactional(rollbackFor = {ResourceNotFoundException.class, LoanStateException.class})
+    public Loan returnLoan(Long id) throws ResourceNotFoundException, LoanStateException {
+        Loan loan = this.loanRepository.findById(id).orElseThrow(() -> new ResourceNotFoundException("No loan found for id: " + id));
+        Instant now = Instant.now();
+        if(this.loanRepository.close(id, Loan.Status.ON_LOAN, Loan.Status.RETURNED, now) == 0){
+            throw new LoanStateException("Loan " + id + " is not on loan, status: " + currentStatus(id, loan));
+        }
+        passOnCopy(loan.getBookId(), loan.getIsbn());
+        loan.setStatus(Loan.Status.RETURNED);
+        loan.setClosed(now);
+        loan.setVersion(loan.getVersion() + 1);
+        return loan;
+    }
+
+    @Override
+    @Transactional(rollbackFor = {ResourceNotFoundException.class, LoanStateException.class})
+    public Loan placeHold(String isbn, String borrower) throws ResourceNotFoundException, LoanStateException {
+        Book book = this.bookService.getBookByISBN(isbn);
+        if(this.loanRepository.existsByBookIdAndBorrowerAndStatusIn(book.getId(), borrower, OPEN)){
+            throw new LoanStateException("Borrower " + borrower + " already has a loan or hold for ISBN reference: " + isbn);
+        }
+        int onShelf = this.bookRepository.findQuantityById(book.getId()).orElseThrow(() -> bookNotFound(isbn));
+        if(onShelf > 0){
+            throw new LoanStateException("Copies of ISBN reference: " + isbn + " are in stock, check one out instead, in stock: " + onShelf);
+        }
+        Loan hold = new Loan();
+        hold.setBookId(book.getId());
+        hold.setIsbn(book.getIsbn());
+        hold.setBorrower(borrower);
+        hold.setStatus(Loan.Status.WAITING);
+        hold = this.loanRepository.save(hold);
+        //a return that committed after the stock was read put its copy on the shelf without seeing this hold.
+        if(this.holdQueue.serve(book.getId()) > 0){
+            this.bookChangeLog.append(BookChange.Operation.UPDATED, book.getId(), book.getIsbn(), null);
+            this.bookCache.evictAfterCommit(book.getId(), book.getIsbn());
+            Optional<Loan> served = this.loanRepository.findById(hold.getId());
+            if(served.isPresent() && served.get().getStatus() == Loan.Status.READY){
+                return served.get();
+            }
+        }
+        hold.setQueuePosition(queuePosition(hold));
+        return hold;
+    }
+
+    @Override
+    @Transactional(rollbackFor = {ResourceNotFoundException.class, LoanStateException.class})
+    public Loan cancelHold(Long id) throws ResourceNotFoundException, LoanStateException {
+        Loan hold = this.loanRepository.findById(id).orElseThrow(() -> new ResourceNotFoundException("No hold found for id: " + id));
+        Instant now = Instant.now();
+        if(this.loanRepository.close(id, Loan.Status.READY, Loan.Status.CANCELLED, now) == 1){
+            //the copy set aside for it goes to the next in the queue, or back on the shelf.
+            passOnCopy(hold.getBookId(), hold.getIsbn());
+        }else if(this.loanRepository.close(id, Loan.Status.WAITING, Loan.Status.CANCELLED, now) == 0){
+            throw new LoanStateException("Hold " + id + " is not waiting or ready, status: " + currentStatus(id, hold));
+        }
+        hold.setStatus(Loan.Status.CANCELLED);
+        hold.setClosed(now);
+        hold.setVersion(hold.getVersion() + 1);
+        return hold;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Loan> getHoldQueue(String isbn) throws ResourceNotFoundException {
+        Book book = this.bookService.getBookByISBN(isbn);
+        List<Loan> holds = this.loanRepository.findByBookIdAndStatusInOrderByIdAsc(book.getId(), HELD);
+        long position = 0;
+        for(Loan hold : holds){
+            if(hold.getStatus() == Loan.Status.WAITING){
+                hold.setQueuePosition(++position);
+            }
+        }
+        return holds;
+    }
+
+    private Optional<Loan> checkOutReadyHold(Long bookId, String borrower, Instant now, Instant due) {
+        Optional<Loan> readyHold = this.loanRepository.findFirstByBookIdAndBorrowerAndStatus(bookId, borrower, Loan.Status.READY);
+        if(readyHold.isPresent() && this.loanRepository.checkOut(readyHold.get().getId(), Loan.Status.READY, Loan.Status.ON_LOAN, now, due) == 1){
+            Loan loan = readyHold.get();
+            loan.setStatus(Loan.Status.ON_LOAN);
+            loan.setCheckedOut(now);
+            loan.setDue(due);
+            loan.setVersion(loan.getVersion() + 1);
+            return Optional.of(loan);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Hands the copies on the shelf to the waiting holds in a transaction of its own, so they stay with the queue
+     * when the checkout that found them is turned away and rolls back. The checkout has written nothing yet, there
+     * are no locks of its own to wait for.
+     */
+    private void serveHoldQueue(Long bookId, String isbn) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(this.transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transactionTemplate.executeWithoutResult(status -> {
+            if(this.holdQueue.serve(bookId) > 0){
+                this.bookChangeLog.append(BookChange.Operation.UPDATED, bookId, isbn, null);
+                this.bookCache.evictAfterCommit(bookId, isbn);
+            }
+        });
+    }
+
+    /**
+     * Sets a copy that came back aside for the oldest waiting hold of the book, or puts it back on the shelf when no one
+     * is waiting.
+     */
+    private void passOnCopy(Long bookId, String isbn) {
+        if(this.holdQueue.setAsideForOldest(bookId)){
+            return;
+        }
+        //a book deleted while the copy was out has no shelf to go back to, and no change to log.
+        if(this.bookRepository.adjustQuantityById(bookId, 1) == 1){
+            this.bookChangeLog.append(BookChange.Operation.UPDATED, bookId, isbn, null);
+            this.bookCache.evictAfterCommit(bookId, isbn);
+        }
+    }
+
+    private long queuePosition(Loan hold) {
+        return this.loanRepository.countByBookIdAndStatusBefore(hold.getBookId(), Loan.Status.WAITING, hold.getId()) + 1;
+    }
+
+    private Loan.Status currentStatus(Long id, Loan loan) {
+        return this.loanRepository.findById(id).map(Loan::getStatus).orElse(loan.getStatus());
+    }
+
+    private static ResourceNotFoundException bookNotFound(String isbn) {
+        return new ResourceNotFoundException("Book not found for ISBN reference: " + isbn);
+    }
+
+    private static InsufficientStockException outOfStock(String isbn) {
+        return new InsufficientStockException("No copies of ISBN reference: " + isbn + " in stock, place a hold instead");
+    }
+}
@@ -0,0 +1,39 @@
+package com.lms.co.za.storage;
+
+import com.lms.co.za.model.BookSnapshot;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * /actuator/snapshot, POST writes a new snapshot and GET downloads the latest one, which is what a new node points
+ * library.storage.restore-from at. Not exposed unless management.endpoints.web.exposure.include names it.
+ */
+@Component
+@Profile("persistent")
+@Endpoint(id = "snapshot")
+public class BookSnapshotEndpoint {
+
+    @Autowired
+    BookSnapshots bookSnapshots;
+
+    @WriteOperation
+    public BookSnapshot createSnapshot() throws IOException {
+        return this.bookSnapshots.create();
+    }
+
+    @ReadOperation(produces = "application/zip")
+    public Resource latestSnapshot() throws IOException {
+        Path latest = this.bookSnapshots.latest();
+        //null is answered with a 404.
+        return latest != null ? new FileSystemResource(latest) : null;
+    }
+}
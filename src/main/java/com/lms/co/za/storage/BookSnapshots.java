@@ -0,0 +1,173 @@
+package com.lms.co.za.storage;
+
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.model.BookSnapshot;
+import com.lms.co.za.repository.AuthorTrigramCleanup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ResourceUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Snapshots of the file database for the persistent profile, so a new node can start from a copy of the data instead
+ * of loading the catalogue row by row.
+ * <p>
+ * A snapshot is H2's online BACKUP, a zip of the database file as it is on disk: indexes included, nothing is
+ * re-inserted or re-indexed on restore. Restoring is unzipping that file before the datasource is first opened.
+ */
+@Component
+@Profile("persistent")
+public class BookSnapshots {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookSnapshots.class);
+
+    private static final String H2_FILE_URL_PREFIX = "jdbc:h2:file:";
+    private static final String DATABASE_FILE_SUFFIX = ".mv.db";
+    private static final String SNAPSHOT_PREFIX = "bookstore-";
+    private static final String SNAPSHOT_SUFFIX = ".zip";
+    private static final DateTimeFormatter SNAPSHOT_TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmssSSS").withZone(ZoneOffset.UTC);
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    LibraryProperties libraryProperties;
+
+    @Autowired
+    AuthorTrigramCleanup authorTrigramCleanup;
+
+    /**
+     * Writes a new snapshot while the database stays online and deletes the oldest beyond library.storage.keep-snapshots.
+     */
+    public synchronized BookSnapshot create() throws IOException {
+        long start = System.nanoTime();
+        Path directory = Paths.get(this.libraryProperties.getStorage().getSnapshotDirectory());
+        Files.createDirectories(directory);
+        Instant created = Instant.now();
+        Path snapshot = directory.resolve(SNAPSHOT_PREFIX + SNAPSHOT_TIMESTAMP.format(created) + SNAPSHOT_SUFFIX);
+        //written under a temporary name, a half written zip is never picked up as the latest snapshot.
+        Path partial = directory.resolve(snapshot.getFileName() + ".partial");
+        //a new node starting from the snapshot shouldn't inherit trigrams of authors that are gone.
+        this.authorTrigramCleanup.deleteUnusedAuthors();
+        Long bookCount = this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM BOOKS", Long.class);
+        this.jdbcTemplate.execute("BACKUP TO '" + partial.toAbsolutePath().toString().replace("'", "''") + "'");
+        Files.move(partial, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        deleteOldSnapshots(directory);
+
+        long durationMillis = (System.nanoTime() - start) / 1_000_000;
+        logger.info("snapshot {} of {} books written in {} ms, {} bytes", snapshot, bookCount, durationMillis, Files.size(snapshot));
+        return new BookSnapshot(snapshot.toString(), Files.size(snapshot), bookCount != null ? bookCount : 0, created, durationMillis);
+    }
+
+    /**
+     * @return the newest snapshot, or null when none has been written.
+     */
+    public Path latest() throws IOException {
+        List<Path> snapshots = snapshots(Paths.get(this.libraryProperties.getStorage().getSnapshotDirectory()));
+        return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+    }
+
+    private void deleteOldSnapshots(Path directory) throws IOException {
+        List<Path> snapshots = snapshots(directory);
+        for(int i = 0; i < snapshots.size() - Math.max(1, this.libraryProperties.getStorage().getKeepSnapshots()); i++){
+            Files.deleteIfExists(snapshots.get(i));
+        }
+    }
+
+    //oldest first, the timestamp in the name sorts in creation order.
+    private static List<Path> snapshots(Path directory) throws IOException {
+        if(!Files.isDirectory(directory)){
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Unzips the snapshot at the given location into place when the database file of the jdbc url does not exist yet.
+     * Must run before the first connection is opened, an existing database is never overwritten.
+     *
+     * @param location a file path, or a file:, classpath: or http(s): url.
+     * @return whether a snapshot was restored.
+     */
+    public static boolean restoreIfMissing(String jdbcUrl, String location) throws IOException {
+        Path databaseFile = databaseFile(jdbcUrl);
+        if(databaseFile == null){
+            throw new IllegalStateException("snapshots can only be restored into a file database, datasource url: " + jdbcUrl);
+        }
+        if(Files.exists(databaseFile)){
+            logger.info("database {} already exists, not restoring snapshot {}", databaseFile, location);
+            return false;
+        }
+        long start = System.nanoTime();
+        //a plain path is a file, relative to the working directory unless absolute.
+        Resource snapshot = ResourceUtils.isUrl(location) ? new DefaultResourceLoader().getResource(location) : new FileSystemResource(location);
+        Path partial = databaseFile.resolveSibling(databaseFile.getFileName() + ".partial");
+        Files.createDirectories(databaseFile.toAbsolutePath().getParent());
+        try (ZipInputStream zipInputStream = new ZipInputStream(snapshot.getInputStream())) {
+            if(!copyDatabaseEntry(zipInputStream, partial)){
+                throw new IOException("no H2 database file found in snapshot: " + location);
+            }
+        }
+        Files.move(partial, databaseFile, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("restored snapshot {} into {} in {} ms, {} bytes", location, databaseFile,
+                (System.nanoTime() - start) / 1_000_000, Files.size(databaseFile));
+        return true;
+    }
+
+    private static boolean copyDatabaseEntry(ZipInputStream zipInputStream, Path target) throws IOException {
+        ZipEntry zipEntry;
+        while((zipEntry = zipInputStream.getNextEntry()) != null){
+            //the entry is named after the database that was backed up, it may differ from the one restored into.
+            if(!zipEntry.isDirectory() && zipEntry.getName().endsWith(DATABASE_FILE_SUFFIX)){
+                Files.copy((InputStream) zipInputStream, target, StandardCopyOption.REPLACE_EXISTING);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the .mv.db file behind a jdbc:h2:file: url, null for any other kind of database.
+     */
+    static Path databaseFile(String jdbcUrl) {
+        if(jdbcUrl == null || !jdbcUrl.startsWith(H2_FILE_URL_PREFIX)){
+            return null;
+        }
+        String path = jdbcUrl.substring(H2_FILE_URL_PREFIX.length());
+        int settings = path.indexOf(';');
+        if(settings >= 0){
+            path = path.substring(0, settings);
+        }
+        if(path.startsWith("~")){
+            path = System.getProperty("user.home") + path.substring(1);
+        }
+        return Paths.get(path + DATABASE_FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,14 @@
+CREATE TABLE BOOKS (
+    ID BIGINT AUTO_INCREMENT PRIMARY KEY,
+    TITLE VARCHAR(255) NOT NULL,
+    AUTHOR VARCHAR(255) NOT NULL,
+    PUBLISHER VARCHAR(255) NOT NULL,
+    ISBN VARCHAR(255) NOT NULL,
+    QUANTITY INTEGER NOT NULL,
+    CREATED TIMESTAMP DEFAULT NOW() NOT NULL,
+    LAST_MODIFIED TIMESTAMP DEFAULT NOW() NOT NULL,
+    VERSION BIGINT DEFAULT 0 NOT NULL
+);
+
+ALTER TABLE BOOKS ADD CONSTRAINT ISBN_UNIQUE UNIQUE(ISBN);
+CREATE INDEX BOOKS_LAST_MODIFIED ON BOOKS(LAST_MODIFIED);
@@ -0,0 +1,10 @@
+CREATE SEQUENCE BOOK_CHANGE_SEQUENCE START WITH 1;
+
+CREATE TABLE BOOK_CHANGES (
+    SEQUENCE_NUMBER BIGINT PRIMARY KEY,
+    OPERATION VARCHAR(16) NOT NULL,
+    BOOK_ID BIGINT NOT NULL,
+    ISBN VARCHAR(255) NOT NULL,
+    PREVIOUS_ISBN VARCHAR(255),
+    CHANGED TIMESTAMP DEFAULT NOW() NOT NULL
+);
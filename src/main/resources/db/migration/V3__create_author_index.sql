@@ -0,0 +1,17 @@
+CREATE INDEX BOOKS_AUTHOR ON BOOKS(AUTHOR);
+
+--every three character slice of each upper-cased author, a contains search on author looks its slices up here and only
+--reads the books of the authors that have all of them. Rows are never removed, a slice of an author no book has any
+--more costs one wasted index lookup.
+CREATE TABLE AUTHOR_TRIGRAMS (
+    TRIGRAM VARCHAR(3) NOT NULL,
+    AUTHOR VARCHAR(255) NOT NULL,
+    PRIMARY KEY (TRIGRAM, AUTHOR)
+);
+
+INSERT INTO AUTHOR_TRIGRAMS (TRIGRAM, AUTHOR)
+SELECT DISTINCT SUBSTRING(UPPER(A.AUTHOR), R.X, 3), A.AUTHOR
+FROM (SELECT DISTINCT AUTHOR FROM BOOKS) A
+JOIN SYSTEM_RANGE(1, 255) R ON R.X <= CHAR_LENGTH(UPPER(A.AUTHOR)) - 2;
+
+CREATE TRIGGER BOOKS_AUTHOR_TRIGRAMS AFTER INSERT, UPDATE ON BOOKS FOR EACH ROW CALL 'com.lms.co.za.repository.AuthorTrigramTrigger';
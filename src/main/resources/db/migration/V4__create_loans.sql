@@ -0,0 +1,18 @@
+--loans and holds of book copies. No foreign key to BOOKS, like BOOK_CHANGES the rows are kept as history after a book
+--is deleted. A WAITING hold becomes READY when a returned copy is set aside for it and ON_LOAN when it is checked out.
+CREATE TABLE LOANS (
+    ID BIGINT AUTO_INCREMENT PRIMARY KEY,
+    BOOK_ID BIGINT NOT NULL,
+    ISBN VARCHAR(255) NOT NULL,
+    BORROWER VARCHAR(255) NOT NULL,
+    STATUS VARCHAR(16) NOT NULL,
+    CREATED TIMESTAMP DEFAULT NOW() NOT NULL,
+    CHECKED_OUT TIMESTAMP,
+    DUE TIMESTAMP,
+    CLOSED TIMESTAMP,
+    VERSION BIGINT DEFAULT 0 NOT NULL
+);
+
+--the hold queue of a title in order, and its copies on loan.
+CREATE INDEX LOANS_BOOK_STATUS ON LOANS(BOOK_ID, STATUS, ID);
+CREATE INDEX LOANS_BORROWER_STATUS ON LOANS(BORROWER, STATUS);
@@ -0,0 +1,11 @@
+--book changes are numbered as their transaction commits, from this single row. Its row lock is held from numbering to
+--commit, so changes commit in sequence order on every instance sharing the database and a reader never sees a number
+--before all the lower ones.
+CREATE TABLE BOOK_CHANGE_COUNTER (
+    ID INT PRIMARY KEY,
+    LAST_SEQUENCE_NUMBER BIGINT NOT NULL
+);
+
+INSERT INTO BOOK_CHANGE_COUNTER (ID, LAST_SEQUENCE_NUMBER) SELECT 1, COALESCE(MAX(SEQUENCE_NUMBER), 0) FROM BOOK_CHANGES;
+
+DROP SEQUENCE BOOK_CHANGE_SEQUENCE;
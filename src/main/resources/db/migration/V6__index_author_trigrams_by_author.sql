@@ -0,0 +1,2 @@
+--the cleanup of the trigrams of authors no book has any more deletes them one author at a time, see AuthorTrigramCleanup.
+CREATE INDEX AUTHOR_TRIGRAMS_AUTHOR ON AUTHOR_TRIGRAMS(AUTHOR);
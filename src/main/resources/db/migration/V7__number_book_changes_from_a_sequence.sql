@@ -0,0 +1,8 @@
+--book changes are numbered from this sequence as their transaction commits, nothing stays locked until the commit, so
+--writers no longer queue on one row and a change can commit after a higher number. BOOK_CHANGE_COUNTER now holds the
+--committed watermark instead: every number up to it has committed or was given up as rolled back, readers only hand
+--out changes up to it, see BookChangeLog.
+CREATE SEQUENCE BOOK_CHANGE_SEQUENCE START WITH (SELECT LAST_SEQUENCE_NUMBER + 1 FROM BOOK_CHANGE_COUNTER WHERE ID = 1);
+
+--changes older than library.changes.retention are deleted by age.
+CREATE INDEX BOOK_CHANGES_CHANGED ON BOOK_CHANGES(CHANGED);
@@ -1,12 +0,0 @@
-DROP TABLE BOOKS IF EXISTS;
-CREATE TABLE IF NOT EXISTS BOOKS (
-    ID BIGINT AUTO_INCREMENT PRIMARY KEY,
-    TITLE VARCHAR(255) NOT NULL,
-    AUTHOR VARCHAR(255) NOT NULL,
-    PUBLISHER VARCHAR(255) NOT NULL,
-    ISBN VARCHAR(255) NOT NULL,
-    QUANTITY INTEGER NOT NULL,
-    CREATED DATE DEFAULT NOW()
-);
-
-ALTER TABLE BOOKS ADD CONSTRAINT ISBN_UNIQUE UNIQUE(ISBN);
\ No newline at end of file
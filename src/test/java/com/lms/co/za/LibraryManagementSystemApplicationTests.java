@@ -1,7 +1,10 @@
 package com.lms.co.za;
 
+import com.lms.co.za.exception.BadRequestException;
 import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.exception.ServiceUnavailableException;
 import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookPage;
 import com.lms.co.za.service.BookService;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -9,7 +12,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.dao.DataIntegrityViolationException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @SpringBootTest
@@ -25,11 +32,31 @@ class LibraryManagementSystemApplicationTests {
 
     @Test
     public void getAllBooks() throws ResourceNotFoundException {
-        List<Book> books = this.bookService.getAllBooks();
+        List<Book> books = this.bookService.getAllBooks().getBooks();
         Assertions.assertNotNull(books, "books should not be null");
         Assertions.assertFalse(books.isEmpty(), "books should not be empty");
     }
 
+    @Test
+    public void getBooksPage() throws ResourceNotFoundException, BadRequestException {
+        BookPage firstPage = this.bookService.getBooksPage(null, 2);
+        Assertions.assertEquals(2, firstPage.getBooks().size(), "first page should be full");
+        Assertions.assertNotNull(firstPage.getNextCursor(), "cursor should be returned when more books exist");
+
+        BookPage nextPage = this.bookService.getBooksPage(firstPage.getNextCursor(), 2);
+        Assertions.assertFalse(nextPage.getBooks().isEmpty(), "next page should not be empty");
+        Assertions.assertTrue(nextPage.getBooks().get(0).getId() > firstPage.getBooks().get(1).getId(), "next page should continue after the last id of the previous page");
+
+        Assertions.assertThrows(BadRequestException.class, () -> this.bookService.getBooksPage("not-a-cursor", 2));
+    }
+
+    @Test
+    public void streamAllBooks() throws ResourceNotFoundException {
+        List<Book> streamedBooks = new ArrayList<>();
+        this.bookService.streamAllBooks(streamedBooks::add);
+        Assertions.assertEquals(this.bookService.getAllBooks().getBooks().size(), streamedBooks.size(), "stream should return every book");
+    }
+
     @Test
     public void getBookById() throws ResourceNotFoundException {
         Long id = 1L;
@@ -60,6 +87,29 @@ class LibraryManagementSystemApplicationTests {
 
     }
 
+    @Test
+    public void getBooksWithFields() throws ResourceNotFoundException, BadRequestException {
+        List<Map<String, Object>> books = this.bookService.getAllBooks(Arrays.asList("title", "id")).getBooks();
+        Assertions.assertFalse(books.isEmpty(), "books should not be empty");
+        Assertions.assertEquals(Arrays.asList("title", "id"), new ArrayList<>(books.get(0).keySet()), "only the requested fields should be returned, in requested order");
+        Assertions.assertEquals("It", books.get(0).get("title"));
+
+        List<Map<String, Object>> booksByAuthor = this.bookService.getBooksByAuthorContaining("dan b", Arrays.asList("isbn", "author"));
+        Assertions.assertEquals(1, booksByAuthor.size(), "only one book should match the author");
+        Assertions.assertEquals("0-385-50420-9", booksByAuthor.get(0).get("isbn"));
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBooksByAuthorContaining("50%", Collections.singletonList("id")));
+
+        Assertions.assertThrows(BadRequestException.class, () -> this.bookService.getAllBooks(Arrays.asList("title", "password")));
+    }
+
+    @Test
+    public void searchBooks() throws ResourceNotFoundException, ServiceUnavailableException {
+        List<Book> books = this.bookService.searchBooks("vinci", 10);
+        Assertions.assertEquals(1, books.size(), "only one book should match the search query");
+        Assertions.assertEquals("0-385-50420-9", books.get(0).getIsbn());
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.searchBooks("zzzz", 10));
+    }
+
     @Test
     public void addBook() throws DataIntegrityViolationException, ResourceNotFoundException {
         Book book = new Book();
@@ -73,7 +123,7 @@ class LibraryManagementSystemApplicationTests {
         Assertions.assertNotNull(newBook, "book should not be null");
         Assertions.assertEquals(newBook.getId(), 4, "should equal 4 for this test case");
 
-        List<Book> books = this.bookService.getAllBooks();
+        List<Book> books = this.bookService.getAllBooks().getBooks();
         Assertions.assertEquals(4, books.size(), "books size should equal 4");
 
     }
@@ -0,0 +1,102 @@
+package com.lms.co.za.controller;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:async-request-mode-tests",
+        "library.async.enabled=true",
+        "library.async.pool-size=1",
+        "library.async.queue-capacity=1"
+})
+@AutoConfigureMockMvc
+class AsyncRequestModeTests {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    BookRequestExecutor bookRequestExecutor;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Test
+    public void databaseWorkRunsOffTheRequestThread() throws Exception {
+        this.cacheManager.getCache("books").clear();
+        MvcResult mvcResult = this.mockMvc.perform(get("/v1/book/2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(mvcResult)).andDo(org.springframework.test.web.servlet.result.MockMvcResultHandlers.print())
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"2-0\""))
+                .andExpect(jsonPath("$.isbn").value("0-553-10354-7"));
+
+        //now cached, answered on the request thread without async processing.
+        this.mockMvc.perform(get("/v1/book/2"))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isOk());
+
+        //an exception thrown on the pool is mapped on the async dispatch like one thrown on the request thread.
+        MvcResult notFound = this.mockMvc.perform(get("/v1/book/404"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(notFound))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.code").value(404));
+    }
+
+    @Test
+    public void unchangedCatalogueIsAnsweredWithNotModified() throws Exception {
+        MvcResult mvcResult = this.mockMvc.perform(get("/v1/books")).andExpect(request().asyncStarted()).andReturn();
+        String eTag = this.mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotNull(eTag, "the catalogue should be tagged");
+
+        //the pool only works out the tag, spring writes the 304 on the async dispatch.
+        MvcResult notModified = this.mockMvc.perform(get("/v1/books").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.mockMvc.perform(asyncDispatch(notModified))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag));
+    }
+
+    @Test
+    public void fullQueueFailsFastWithServiceUnavailable() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        //one task holds the only thread, the second fills the queue.
+        Future<Boolean> running = this.bookRequestExecutor.submit(() -> release.await(30, TimeUnit.SECONDS));
+        Future<Boolean> queued = this.bookRequestExecutor.submit(() -> release.await(30, TimeUnit.SECONDS));
+        try {
+            this.mockMvc.perform(get("/v1/books/search").param("q", "king"))
+                    .andExpect(request().asyncNotStarted())
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                    .andExpect(jsonPath("$.code").value(503));
+        } finally {
+            release.countDown();
+        }
+        running.get();
+        queued.get();
+    }
+}
@@ -0,0 +1,262 @@
+package com.lms.co.za.controller;
+
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.changes.BookChangeHousekeeping;
+import com.lms.co.za.configuration.LibraryProperties;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.service.BookService;
+import com.lms.co.za.support.Await;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.lms.co.za.support.BookDataGenerator.book;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:book-change-feed-tests", "library.changes.gap-timeout=2s"})
+@AutoConfigureMockMvc
+class BookChangeFeedTests {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    BookChangeLog bookChangeLog;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    LibraryProperties libraryProperties;
+
+    @Autowired
+    BookChangeHousekeeping bookChangeHousekeeping;
+
+    @Test
+    public void changesAreLoggedInOrderOfTheWrites() throws Exception {
+        long after = lastSequence();
+        Book book = this.bookService.createBook(book("978-0-00-000001-0", 1));
+        book.setIsbn("978-0-00-000001-1");
+        this.bookService.updateBook(book.getId(), book);
+        this.bookService.deleteBookById(book.getId());
+
+        MvcResult mvcResult = this.mockMvc.perform(get("/v1/books/changes").param("after", String.valueOf(after)).param("wait", "0"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes.length()").value(3))
+                .andExpect(jsonPath("$.changes[0].sequence").value(after + 1))
+                .andExpect(jsonPath("$.changes[0].operation").value("CREATED"))
+                .andExpect(jsonPath("$.changes[1].operation").value("UPDATED"))
+                .andExpect(jsonPath("$.changes[1].isbn").value("978-0-00-000001-1"))
+                .andExpect(jsonPath("$.changes[1].previousIsbn").value("978-0-00-000001-0"))
+                .andExpect(jsonPath("$.changes[2].operation").value("DELETED"))
+                .andExpect(jsonPath("$.changes[2].bookId").value(book.getId()))
+                .andExpect(jsonPath("$.lastSequence").value(after + 3));
+    }
+
+    @Test
+    public void longPollIsAnsweredByTheNextChange() throws Exception {
+        long after = lastSequence();
+        MvcResult mvcResult = this.mockMvc.perform(get("/v1/books/changes").param("after", String.valueOf(after)).param("wait", "10"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.bookService.createBook(book("978-0-00-000002-0", 1));
+
+        this.mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes.length()").value(1))
+                .andExpect(jsonPath("$.changes[0].isbn").value("978-0-00-000002-0"))
+                .andExpect(jsonPath("$.lastSequence").value(after + 1));
+    }
+
+    @Test
+    public void longPollIsAnsweredByAChangeCommittedThroughAnotherInstance() throws Exception {
+        long after = lastSequence();
+        MvcResult mvcResult = this.mockMvc.perform(get("/v1/books/changes").param("after", String.valueOf(after)).param("wait", "10"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        //a second log over the same database stands in for another instance, this one's feed hears nothing of the commit.
+        BookChangeLog otherInstance = new BookChangeLog(this.jdbcTemplate, this.entityManager, this.libraryProperties);
+        long committed = System.nanoTime();
+        this.transactionTemplate.executeWithoutResult(status -> otherInstance.append(BookChange.Operation.UPDATED, 1L, "0-670-81302-8", null));
+
+        this.mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.changes.length()").value(1))
+                .andExpect(jsonPath("$.lastSequence").value(after + 1));
+        Assertions.assertTrue(System.nanoTime() - committed < TimeUnit.SECONDS.toNanos(5), "the change should be picked up within the poll interval, not at the end of the wait");
+    }
+
+    @Test
+    public void streamSendsChangesAsEvents() throws Exception {
+        long after = lastSequence();
+        this.bookService.createBook(book("978-0-00-000003-0", 1));
+        MvcResult mvcResult = this.mockMvc.perform(get("/v1/books/changes/stream").header("Last-Event-ID", after).accept(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        this.bookService.createBook(book("978-0-00-000004-0", 1));
+
+        String events = Await.until(() -> mvcResult.getResponse().getContentAsString(), content -> content.contains("id:" + (after + 2)),
+                content -> "second change was not streamed, got " + content);
+        Assertions.assertTrue(events.contains("id:" + (after + 1) + "\nevent:book-change\ndata:{\"sequence\":" + (after + 1)), events);
+        Assertions.assertTrue(events.indexOf("978-0-00-000003-0") < events.indexOf("978-0-00-000004-0"), events);
+    }
+
+    @Test
+    public void changesAreNumberedInCommitOrder() throws Exception {
+        long after = lastSequence();
+        //a second log over the same database stands in for another instance writing to it.
+        BookChangeLog otherInstance = new BookChangeLog(this.jdbcTemplate, this.entityManager, this.libraryProperties);
+        CountDownLatch appended = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> slowWriter = CompletableFuture.runAsync(() -> this.transactionTemplate.executeWithoutResult(status -> {
+            this.bookChangeLog.append(BookChange.Operation.UPDATED, 1L, "0-670-81302-8", null);
+            appended.countDown();
+            try {
+                release.await(30, TimeUnit.SECONDS);
+            }catch (InterruptedException interruptedException){
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Assertions.assertTrue(appended.await(30, TimeUnit.SECONDS));
+        this.transactionTemplate.executeWithoutResult(status -> otherInstance.append(BookChange.Operation.UPDATED, 2L, "0-297-78004-8", null));
+
+        //the write that commits first gets the first number, whichever instance it went through.
+        List<BookChange> changes = this.bookChangeLog.read(after, 10);
+        Assertions.assertEquals(1, changes.size());
+        Assertions.assertEquals(after + 1, changes.get(0).getSequence());
+        Assertions.assertEquals(2L, changes.get(0).getBookId());
+
+        release.countDown();
+        slowWriter.get(30, TimeUnit.SECONDS);
+        changes = this.bookChangeLog.read(after, 10);
+        Assertions.assertEquals(2, changes.size());
+        Assertions.assertEquals(after + 2, changes.get(1).getSequence());
+        Assertions.assertEquals(1L, changes.get(1).getBookId());
+        Assertions.assertEquals(after + 2, this.bookChangeLog.lastSequenceNumber());
+    }
+
+    @Test
+    public void rolledBackChangesLeaveNoGap() {
+        long after = lastSequence();
+        this.transactionTemplate.executeWithoutResult(status -> {
+            this.bookChangeLog.append(BookChange.Operation.UPDATED, 1L, "0-670-81302-8", null);
+            status.setRollbackOnly();
+        });
+        this.transactionTemplate.executeWithoutResult(status -> this.bookChangeLog.append(BookChange.Operation.UPDATED, 2L, "0-297-78004-8", null));
+
+        List<BookChange> changes = this.bookChangeLog.read(after, 10);
+        Assertions.assertEquals(1, changes.size());
+        Assertions.assertEquals(after + 1, changes.get(0).getSequence());
+    }
+
+    @Test
+    public void changesAreHeldBackUntilALowerNumberCommits() throws Exception {
+        long after = lastSequence();
+        BookChangeLog otherInstance = new BookChangeLog(this.jdbcTemplate, this.entityManager, this.libraryProperties);
+        CountDownLatch numbered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> slowCommit = CompletableFuture.runAsync(() -> this.transactionTemplate.executeWithoutResult(status -> {
+            this.bookChangeLog.append(BookChange.Operation.UPDATED, 1L, "0-670-81302-8", null);
+            //registered after the log's, so it runs once the change has its number.
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    numbered.countDown();
+                    try {
+                        release.await(30, TimeUnit.SECONDS);
+                    }catch (InterruptedException interruptedException){
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }));
+        Assertions.assertTrue(numbered.await(30, TimeUnit.SECONDS));
+        this.transactionTemplate.executeWithoutResult(status -> otherInstance.append(BookChange.Operation.UPDATED, 2L, "0-297-78004-8", null));
+
+        //the higher number committed first, it is only handed out once the lower one has.
+        Assertions.assertTrue(this.bookChangeLog.read(after, 10).isEmpty());
+        Assertions.assertEquals(after, this.bookChangeLog.lastSequenceNumber());
+
+        release.countDown();
+        slowCommit.get(30, TimeUnit.SECONDS);
+        List<BookChange> changes = this.bookChangeLog.read(after, 10);
+        Assertions.assertEquals(2, changes.size());
+        Assertions.assertEquals(1L, changes.get(0).getBookId());
+        Assertions.assertEquals(2L, changes.get(1).getBookId());
+    }
+
+    @Test
+    public void numbersOfACommitThatFailedAreSkippedAfterTheGapTimeout() throws Exception {
+        long after = lastSequence();
+        Assertions.assertThrows(IllegalStateException.class, () -> this.transactionTemplate.executeWithoutResult(status -> {
+            this.bookChangeLog.append(BookChange.Operation.UPDATED, 1L, "0-670-81302-8", null);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    throw new IllegalStateException("commit failed after the changes were numbered");
+                }
+            });
+        }));
+        this.transactionTemplate.executeWithoutResult(status -> this.bookChangeLog.append(BookChange.Operation.UPDATED, 2L, "0-297-78004-8", null));
+
+        Assertions.assertTrue(this.bookChangeLog.read(after, 10).isEmpty(), "the missing number could still be committing");
+        List<BookChange> changes = Await.until(() -> this.bookChangeLog.read(after, 10), read -> !read.isEmpty(),
+                read -> "the change after the missing number was not handed out");
+        Assertions.assertEquals(1, changes.size());
+        Assertions.assertEquals(after + 2, changes.get(0).getSequence());
+    }
+
+    @Test
+    public void changesOlderThanTheRetentionAreDeleted() {
+        this.transactionTemplate.executeWithoutResult(status -> this.bookChangeLog.append(BookChange.Operation.UPDATED, 1L, "0-670-81302-8", null));
+        long expired = lastSequence();
+        this.jdbcTemplate.update("UPDATE BOOK_CHANGES SET CHANGED = DATEADD(DAY, -30, CHANGED) WHERE SEQUENCE_NUMBER <= ?", expired);
+        this.transactionTemplate.executeWithoutResult(status -> this.bookChangeLog.append(BookChange.Operation.UPDATED, 2L, "0-297-78004-8", null));
+
+        Assertions.assertTrue(this.bookChangeHousekeeping.deleteExpiredChanges() > 0);
+        List<BookChange> changes = this.bookChangeLog.read(0, Integer.MAX_VALUE);
+        Assertions.assertEquals(expired + 1, changes.get(0).getSequence(), "only the expired changes should be deleted");
+        this.bookChangeLog.saveWatermark();
+        Assertions.assertEquals(expired + 1, this.bookChangeLog.savedSequenceNumber());
+    }
+
+    private long lastSequence() {
+        List<BookChange> changes = this.bookChangeLog.read(0, Integer.MAX_VALUE);
+        return changes.isEmpty() ? 0 : changes.get(changes.size() - 1).getSequence();
+    }
+}
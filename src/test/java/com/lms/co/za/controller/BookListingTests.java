@@ -0,0 +1,62 @@
+package com.lms.co.za.controller;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:book-listing-tests", "library.listing.max-books=2"})
+@AutoConfigureMockMvc
+class BookListingTests {
+
+    private static final Pattern NEXT = Pattern.compile("<(.+)>; rel=\"next\"");
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    public void listIsCutAtMaxBooksAndLinksTheRest() throws Exception {
+        String link = this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(jsonPath("$[1].id").value(2))
+                .andReturn().getResponse().getHeader(HttpHeaders.LINK);
+
+        this.mockMvc.perform(get(next(link)).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books.length()").value(1))
+                .andExpect(jsonPath("$.books[0].id").value(3))
+                .andExpect(jsonPath("$.nextCursor").doesNotExist());
+    }
+
+    @Test
+    public void projectedListIsCutWithoutTheIdItWasNotAskedFor() throws Exception {
+        String link = this.mockMvc.perform(get("/v1/books").param("fields", "title").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].title").exists())
+                .andExpect(jsonPath("$[0].id").doesNotExist())
+                .andReturn().getResponse().getHeader(HttpHeaders.LINK);
+
+        Assertions.assertTrue(next(link).endsWith("/v1/books/page?cursor=Mg&size=1000"), link);
+    }
+
+    private static String next(String link) {
+        Assertions.assertNotNull(link, "a cut list should link its next page");
+        Matcher matcher = NEXT.matcher(link);
+        Assertions.assertTrue(matcher.matches(), link);
+        return matcher.group(1);
+    }
+}
@@ -0,0 +1,137 @@
+package com.lms.co.za.controller;
+
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:conditional-request-tests")
+@AutoConfigureMockMvc
+class ConditionalRequestTests {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    public void bookIsNotModifiedUntilItsVersionChanges() throws Exception {
+        String eTag = this.mockMvc.perform(get("/v1/book/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-0\""))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        String lastModified = this.mockMvc.perform(get("/v1/book/isbn/0-670-81302-8"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag))
+                .andReturn().getResponse().getHeader(HttpHeaders.LAST_MODIFIED);
+        Assertions.assertNotNull(lastModified, "Last-Modified header should be set");
+
+        this.mockMvc.perform(get("/v1/book/1").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        this.mockMvc.perform(get("/v1/book/1").header(HttpHeaders.IF_MODIFIED_SINCE, lastModified))
+                .andExpect(status().isNotModified());
+
+        this.mockMvc.perform(post("/v1/book/isbn/0-670-81302-8/stock").param("delta", "-1")).andExpect(status().isOk());
+
+        this.mockMvc.perform(get("/v1/book/1").header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-1\""));
+    }
+
+    @Test
+    public void catalogueIsNotModifiedUntilAnyBookChanges() throws Exception {
+        String eTag = this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotNull(eTag, "ETag header should be set");
+
+        this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_NDJSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified());
+
+        this.mockMvc.perform(put("/v1/book/3").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"The Da Vinci Code\",\"author\":\"Dan Brown\",\"publisher\":\"Doubleday\",\"isbn\":\"0-385-50420-9\",\"quantity\":7}"))
+                .andExpect(status().isOk());
+
+        String changedETag = this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotEquals(eTag, changedETag, "an update should change the catalogue ETag");
+    }
+
+    @Test
+    public void stockChangeMovesTheCatalogueTag() throws Exception {
+        String eTag = this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        //stamped by the database clock, not the jvm's, the tag must move all the same.
+        this.mockMvc.perform(post("/v1/book/isbn/0-670-81302-8/stock").param("delta", "1")).andExpect(status().isOk());
+
+        this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, Matchers.not(eTag)));
+    }
+
+    @Test
+    public void deletedBookIsNotAnsweredWithNotModified() throws Exception {
+        String location = this.mockMvc.perform(post("/v1/book").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"title\":\"Gone Soon\",\"author\":\"Short Lived\",\"publisher\":\"Ephemera\",\"isbn\":\"0-000-00404-1\",\"quantity\":1}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+        String eTag = this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.LAST_MODIFIED))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        this.mockMvc.perform(delete(location.substring(location.indexOf("/v1/")))).andExpect(status().is2xxSuccessful());
+
+        //a client that only kept the time of its copy must still be sent the catalogue without the deleted book.
+        String since = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1));
+        this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MODIFIED_SINCE, since))
+                .andExpect(status().isOk())
+                .andExpect(content().string(Matchers.not(Matchers.containsString("0-000-00404-1"))));
+        this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void updateIsRefusedOnceTheBookChangedSinceItsETag() throws Exception {
+        String book = "{\"title\":\"Gone Again\",\"author\":\"Short Lived\",\"publisher\":\"Ephemera\",\"isbn\":\"0-000-00412-1\",\"quantity\":2}";
+        String location = this.mockMvc.perform(post("/v1/book").contentType(MediaType.APPLICATION_JSON).content(book))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+        String path = location.substring(location.indexOf("/v1/"));
+        String eTag = this.mockMvc.perform(get(path)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        String changedETag = this.mockMvc.perform(put(path).contentType(MediaType.APPLICATION_JSON).content(book.replace("Gone Again", "Back Again")).header(HttpHeaders.IF_MATCH, eTag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        Assertions.assertNotEquals(eTag, changedETag, "an update should answer with the new ETag");
+
+        this.mockMvc.perform(put(path).contentType(MediaType.APPLICATION_JSON).content(book).header(HttpHeaders.IF_MATCH, eTag))
+                .andExpect(status().isPreconditionFailed());
+        this.mockMvc.perform(put(path).contentType(MediaType.APPLICATION_JSON).content(book).header(HttpHeaders.IF_MATCH, "W/" + changedETag))
+                .andExpect(status().isPreconditionFailed());
+        this.mockMvc.perform(put(path).contentType(MediaType.APPLICATION_JSON).content(book).header(HttpHeaders.IF_MATCH, "*"))
+                .andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,42 @@
+package com.lms.co.za.controller;
+
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:metrics-endpoint-tests")
+@AutoConfigureMockMvc
+@AutoConfigureMetrics
+class MetricsEndpointTests {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    public void prometheusScrapeExposesRequestAndDatabaseMetrics() throws Exception {
+        this.mockMvc.perform(get("/v1/book/1")).andExpect(status().isOk());
+        this.mockMvc.perform(get("/v1/book/isbn/0-553-10354-7")).andExpect(status().isOk());
+        this.mockMvc.perform(get("/v1/book/isbn/0-000-00000-0")).andExpect(status().isNotFound());
+
+        this.mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(Matchers.containsString("http_server_requests_seconds_bucket{application=\"library-management-system\",exception=\"None\",method=\"GET\",operation=\"getBookById\"")))
+                .andExpect(content().string(Matchers.containsString("operation=\"getBookByISBN\",outcome=\"CLIENT_ERROR\"")))
+                .andExpect(content().string(Matchers.containsString("spring_data_repository_invocations_seconds_bucket")))
+                .andExpect(content().string(Matchers.containsString("method=\"findBookByIsbn\"")))
+                .andExpect(content().string(Matchers.containsString("hikaricp_connections_acquire_seconds_bucket")))
+                .andExpect(content().string(Matchers.containsString("hikaricp_connections_usage_seconds_bucket")))
+                .andExpect(content().string(Matchers.containsString("hibernate_query_executions_total")))
+                .andExpect(content().string(Matchers.containsString("hibernate_entities_loads_total")))
+                .andExpect(content().string(Matchers.containsString("hibernate_flushes_total")))
+                .andExpect(content().string(Matchers.containsString("library_book_misses_total")));
+    }
+}
@@ -0,0 +1,106 @@
+package com.lms.co.za.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.lms.co.za.configuration.ResponseEncodingConfig;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.support.BookDataGenerator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Runs against tomcat rather than MockMvc, compression happens in the connector.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "spring.datasource.url=jdbc:h2:mem:response-encoding-tests")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ResponseEncodingTests {
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @BeforeAll
+    public void generateCatalogue() {
+        BookDataGenerator.generate(this.jdbcTemplate, 1000);
+    }
+
+    @Test
+    public void largeResponsesAreGzippedWhenAccepted() throws IOException {
+        HttpURLConnection gzipped = get("/books", MediaType.APPLICATION_JSON_VALUE, "gzip");
+        Assertions.assertEquals("gzip", gzipped.getHeaderField(HttpHeaders.CONTENT_ENCODING));
+        byte[] body;
+        try(InputStream inputStream = new GZIPInputStream(gzipped.getInputStream())){
+            body = StreamUtils.copyToByteArray(inputStream);
+        }
+
+        HttpURLConnection plain = get("/books", MediaType.APPLICATION_JSON_VALUE, null);
+        Assertions.assertNull(plain.getHeaderField(HttpHeaders.CONTENT_ENCODING));
+        Assertions.assertArrayEquals(read(plain), body);
+    }
+
+    @Test
+    public void smallResponsesAreSentAsIs() throws IOException {
+        HttpURLConnection connection = get("/books/search?q=king&limit=1", MediaType.APPLICATION_JSON_VALUE, "gzip");
+        Assertions.assertNull(connection.getHeaderField(HttpHeaders.CONTENT_ENCODING), "a body below the threshold should not be compressed");
+        Assertions.assertEquals(read(connection).length, connection.getContentLengthLong());
+    }
+
+    @Test
+    public void smileDecodesToTheSameBooksAsJson() throws IOException {
+        HttpURLConnection smile = get("/books", ResponseEncodingConfig.APPLICATION_SMILE_VALUE, null);
+        Assertions.assertEquals(ResponseEncodingConfig.APPLICATION_SMILE_VALUE, smile.getContentType());
+        Assertions.assertTrue(smile.getHeaderField(HttpHeaders.VARY).toLowerCase().contains("accept"), "caches should keep json and smile apart");
+        byte[] smileBody = read(smile);
+        byte[] jsonBody = read(get("/books", MediaType.APPLICATION_JSON_VALUE, null));
+
+        Book[] fromSmile = new ObjectMapper(new SmileFactory()).findAndRegisterModules().readValue(smileBody, Book[].class);
+        Book[] fromJson = this.objectMapper.readValue(jsonBody, Book[].class);
+        Assertions.assertArrayEquals(fromJson, fromSmile);
+        Assertions.assertTrue(smileBody.length < jsonBody.length * 0.6, "smile should be well under the size of json, was " + smileBody.length + " against " + jsonBody.length);
+    }
+
+    @Test
+    public void catalogueTagIsWeakAndSharedByEveryEncoding() throws IOException {
+        String eTag = get("/books", MediaType.APPLICATION_JSON_VALUE, "gzip").getHeaderField(HttpHeaders.ETAG);
+        Assertions.assertTrue(eTag.startsWith("W/\""), "tomcat only compresses responses with a weak ETag, was " + eTag);
+
+        HttpURLConnection connection = get("/books", ResponseEncodingConfig.APPLICATION_SMILE_VALUE, null);
+        connection.setRequestProperty(HttpHeaders.IF_NONE_MATCH, eTag);
+        Assertions.assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, connection.getResponseCode());
+    }
+
+    private HttpURLConnection get(String path, String accept, String acceptEncoding) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + this.port + "/api/library-manager/v1" + path).openConnection();
+        connection.setRequestProperty(HttpHeaders.ACCEPT, accept);
+        if(acceptEncoding != null){
+            connection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        return connection;
+    }
+
+    private static byte[] read(HttpURLConnection connection) throws IOException {
+        try(InputStream inputStream = connection.getInputStream()){
+            return StreamUtils.copyToByteArray(inputStream);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.lms.co.za.limit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:request-limit-tests",
+        "library.limits.rate.enabled=true",
+        "library.limits.rate.forwarded-for-header=X-Forwarded-For",
+        "library.limits.rate.requests-per-second=1",
+        "library.limits.rate.burst=3",
+        "library.limits.rate.api-keys=burst-client,other-client,listing-client-1,listing-client-2,stream-client"
+})
+@AutoConfigureMockMvc
+class RequestLimitTests {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    RequestLimits requestLimits;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    public void clientOverItsRateIsTurnedAway() throws Exception {
+        double rejected = decisions(RequestLimits.RATE_LIMITER, "rejected");
+        for(int i = 0; i < 3; i++){
+            this.mockMvc.perform(get("/v1/book/1").header("X-API-Key", "burst-client")).andExpect(status().isOk());
+        }
+        this.mockMvc.perform(get("/v1/book/1").header("X-API-Key", "burst-client"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                .andExpect(jsonPath("$.code").value(429));
+        //every client has its own bucket.
+        this.mockMvc.perform(get("/v1/book/1").header("X-API-Key", "other-client")).andExpect(status().isOk());
+
+        Assertions.assertEquals(1, decisions(RequestLimits.RATE_LIMITER, "rejected") - rejected);
+    }
+
+    @Test
+    public void unknownKeysShareTheBucketOfTheirAddress() throws Exception {
+        //a client making up a new key for every request is still limited by its address.
+        for(int i = 0; i < 3; i++){
+            this.mockMvc.perform(get("/v1/book/1").header("X-API-Key", "rotated-key-" + i)).andExpect(status().isOk());
+        }
+        this.mockMvc.perform(get("/v1/book/1").header("X-API-Key", "rotated-key-3")).andExpect(status().isTooManyRequests());
+        this.mockMvc.perform(get("/v1/book/1")).andExpect(status().isTooManyRequests());
+        //a configured key keeps its own bucket.
+        this.mockMvc.perform(get("/v1/book/1").header("X-API-Key", "other-client")).andExpect(status().isOk());
+    }
+
+    @Test
+    public void clientsBehindAProxyAreLimitedByTheirForwardedAddress() throws Exception {
+        for(int i = 0; i < 3; i++){
+            this.mockMvc.perform(get("/v1/book/1").header("X-Forwarded-For", "10.0.0.1")).andExpect(status().isOk());
+        }
+        //the last entry is the one the proxy added, whatever the client put before it is ignored.
+        this.mockMvc.perform(get("/v1/book/1").header("X-Forwarded-For", "10.9.9.9, 10.0.0.1")).andExpect(status().isTooManyRequests());
+        this.mockMvc.perform(get("/v1/book/1").header("X-Forwarded-For", "10.0.0.2")).andExpect(status().isOk());
+    }
+
+    @Test
+    public void listingAtItsConcurrencyLimitIsTurnedAway() throws Exception {
+        AdaptiveConcurrencyLimit listing = this.requestLimits.concurrencyLimit("getAllBooks");
+        Assertions.assertSame(listing, this.requestLimits.concurrencyLimit("streamAllBooks"), "json and ndjson listings share a limit");
+        Assertions.assertNull(this.requestLimits.concurrencyLimit("getBookById"));
+        int held = 0;
+        while(listing.tryAcquire()){
+            held++;
+        }
+        try {
+            this.mockMvc.perform(get("/v1/books").header("X-API-Key", "listing-client-1"))
+                    .andExpect(status().isTooManyRequests())
+                    .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+            //other operations aren't held up by the listing.
+            this.mockMvc.perform(get("/v1/book/1").header("X-API-Key", "listing-client-1")).andExpect(status().isOk());
+        } finally {
+            for(int i = 0; i < held; i++){
+                listing.release();
+            }
+        }
+        this.mockMvc.perform(get("/v1/books").header("X-API-Key", "listing-client-2")).andExpect(status().isOk());
+        Assertions.assertEquals(0, listing.getInFlight(), "the permit should be given back once the response is written");
+    }
+
+    @Test
+    public void streamedListingHoldsItsPermitUntilTheStreamEnds() throws Exception {
+        AdaptiveConcurrencyLimit listing = this.requestLimits.concurrencyLimit("streamAllBooks");
+        MvcResult mvcResult = this.mockMvc.perform(get("/v1/books").accept(MediaType.APPLICATION_NDJSON).header("X-API-Key", "stream-client"))
+                .andReturn();
+        Assertions.assertEquals(1, listing.getInFlight(), "the stream is written after the handler returns");
+        this.mockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isOk());
+        Assertions.assertEquals(0, listing.getInFlight());
+    }
+
+    @Test
+    public void tokenBucketRefillsAtItsRate() {
+        AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+        ClientRateLimiter clientRateLimiter = new ClientRateLimiter(10, 5, 100, now::get);
+        for(int i = 0; i < 5; i++){
+            Assertions.assertEquals(0, clientRateLimiter.tryAcquire("client"));
+        }
+        Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(100), clientRateLimiter.tryAcquire("client"), "the next token is one refill interval away");
+        Assertions.assertEquals(0, clientRateLimiter.tryAcquire("another client"));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        Assertions.assertEquals(0, clientRateLimiter.tryAcquire("client"));
+        Assertions.assertTrue(clientRateLimiter.tryAcquire("client") > 0);
+
+        //idle time refills the bucket up to the burst and no further.
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        for(int i = 0; i < 5; i++){
+            Assertions.assertEquals(0, clientRateLimiter.tryAcquire("client"));
+        }
+        Assertions.assertTrue(clientRateLimiter.tryAcquire("client") > 0);
+    }
+
+    @Test
+    public void concurrencyLimitFollowsLatency() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", 10, 2, 20, 2.0);
+        long fast = TimeUnit.MILLISECONDS.toNanos(10);
+        for(int i = 0; i < 500; i++){
+            fillAndRelease(limit, fast);
+        }
+        Assertions.assertEquals(20, limit.getLimit(), "latency at the no-load level should raise the limit to its maximum");
+
+        for(int i = 0; i < 200 && limit.getLimit() > 2; i++){
+            int before = limit.getLimit();
+            fillAndRelease(limit, fast * 5);
+            Assertions.assertTrue(limit.getLimit() >= (int) (before * 0.9), "the limit should shrink at most once per window of requests");
+        }
+        Assertions.assertEquals(2, limit.getLimit(), "latency well above the no-load level should lower the limit to its minimum");
+        Assertions.assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    public void concurrencyLimitToleratesLatencyThatVariesByRequest() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", 10, 2, 20, 2.5);
+        Random random = new Random(42);
+        //an author search takes from 1 to 20 ms depending on the author, without any load.
+        for(int i = 0; i < 500; i++){
+            int acquired = 0;
+            while(limit.tryAcquire()){
+                acquired++;
+            }
+            for(int j = 0; j < acquired; j++){
+                limit.release(TimeUnit.MILLISECONDS.toNanos(1 + random.nextInt(20)));
+            }
+        }
+        Assertions.assertEquals(20, limit.getLimit(), "a fast request now and then should not make the others count as overload");
+    }
+
+    private static void fillAndRelease(AdaptiveConcurrencyLimit limit, long latencyNanos) {
+        int acquired = 0;
+        while(limit.tryAcquire()){
+            acquired++;
+        }
+        Assertions.assertEquals(limit.getLimit(), acquired);
+        for(int i = 0; i < acquired; i++){
+            limit.release(latencyNanos);
+        }
+    }
+
+    private double decisions(String limiter, String decision) {
+        return this.meterRegistry.get("library.limiter.decisions").tag("limiter", limiter).tag("decision", decision).counter().count();
+    }
+}
@@ -0,0 +1,171 @@
+package com.lms.co.za.lookup;
+
+import com.lms.co.za.changes.BookChangeLog;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.service.BookService;
+import com.lms.co.za.support.Await;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static com.lms.co.za.support.BookDataGenerator.book;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:book-misses-tests")
+@AutoConfigureMockMvc
+class BookMissesTests {
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    BookMisses bookMisses;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    BookChangeLog bookChangeLog;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    public void awaitFilter() throws Exception {
+        Await.until(this.bookMisses::isLoaded, "isbn filter did not load");
+    }
+
+    @Test
+    public void unknownIsbnIsAnsweredByTheFilter() throws Exception {
+        double before = misses("isbn", "filter");
+
+        ResourceNotFoundException resourceNotFoundException = Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBookByISBN("978-0-00-000301-0"));
+        Assertions.assertEquals(0, resourceNotFoundException.getStackTrace().length, "a miss should not capture a stack trace");
+        this.mockMvc.perform(get("/v1/book/isbn/978-0-00-000301-0"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").value("Book not found for ISBN reference: 978-0-00-000301-0"));
+
+        Assertions.assertEquals(2, misses("isbn", "filter") - before);
+    }
+
+    @Test
+    public void bookCreatedAfterAMissIsFound() throws ResourceNotFoundException {
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBookByISBN("978-0-00-000302-0"));
+
+        this.bookService.createBook(book("978-0-00-000302-0", 1));
+
+        Assertions.assertEquals("978-0-00-000302-0", this.bookService.getBookByISBN("978-0-00-000302-0").getIsbn());
+    }
+
+    @Test
+    public void deletedIsbnIsRememberedUntilItIsWrittenAgain() throws ResourceNotFoundException {
+        Book book = this.bookService.createBook(book("978-0-00-000303-0", 1));
+        this.bookService.deleteBookById(book.getId());
+        double queried = misses("isbn", "database");
+        double cached = misses("isbn", "cache");
+
+        //the filter can't forget an isbn, the first lookup after the delete goes to the database and the next is cached.
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBookByISBN("978-0-00-000303-0"));
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBookByISBN("978-0-00-000303-0"));
+        Assertions.assertEquals(1, misses("isbn", "database") - queried);
+        Assertions.assertEquals(1, misses("isbn", "cache") - cached);
+
+        this.bookService.createBook(book("978-0-00-000303-0", 1));
+        Assertions.assertEquals("978-0-00-000303-0", this.bookService.getBookByISBN("978-0-00-000303-0").getIsbn());
+    }
+
+    @Test
+    public void emptyAuthorSearchIsRememberedUntilAMatchingBookIsWritten() throws ResourceNotFoundException {
+        double cached = misses("author", "cache");
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBooksByAuthorContaining("Not Yet Written"));
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBooksByAuthorContaining("not yet written"));
+        Assertions.assertEquals(1, misses("author", "cache") - cached, "the second search differs only in case and should be answered by the cache");
+
+        Book book = book("978-0-00-000304-0", 1);
+        book.setAuthor("Someone Not Yet Written Down");
+        this.bookService.createBook(book);
+
+        Assertions.assertEquals(1, this.bookService.getBooksByAuthorContaining("Not Yet Written").size());
+    }
+
+    @Test
+    public void writeOnlyForgetsTheAuthorSearchesItAnswers() {
+        for(String author : new String[]{"Ne", "Nev", "Never Published", "ever publ", "Unrelated Writer", "Other Unwritten"}){
+            this.bookMisses.notFoundAuthor(author, this.bookMisses.lookupStarted());
+        }
+
+        this.bookMisses.written("978-0-00-000306-0", "Anne Never Published");
+
+        for(String author : new String[]{"Ne", "Nev", "Never Published", "ever publ"}){
+            Assertions.assertDoesNotThrow(() -> this.bookMisses.checkAuthor(author), author + " is contained in the written author");
+        }
+        for(String author : new String[]{"Unrelated Writer", "Other Unwritten"}){
+            Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookMisses.checkAuthor(author), author + " should still be remembered");
+        }
+    }
+
+    @Test
+    public void missReadBeforeACreateCommittedIsNotRemembered() throws ResourceNotFoundException {
+        //both lookups read the database before the book committed and only report their miss once it has.
+        long started = this.bookMisses.lookupStarted();
+        Book book = book("978-0-00-000307-0", 1);
+        book.setAuthor("Raced Against Author");
+        this.bookService.createBook(book);
+        this.bookMisses.notFoundIsbn("978-0-00-000307-0", started);
+        this.bookMisses.notFoundAuthor("Raced Against", started);
+
+        Assertions.assertEquals("978-0-00-000307-0", this.bookService.getBookByISBN("978-0-00-000307-0").getIsbn());
+        Assertions.assertEquals(1, this.bookService.getBooksByAuthorContaining("Raced Against").size());
+    }
+
+    @Test
+    public void bookWrittenByAnotherInstanceIsFoundAfterARefresh() throws ResourceNotFoundException {
+        //another instance writes the row and its change log entry, this instance's filter only learns of it from the log.
+        this.transactionTemplate.executeWithoutResult(status -> {
+            this.jdbcTemplate.update("INSERT INTO BOOKS (TITLE, AUTHOR, PUBLISHER, ISBN, QUANTITY) VALUES ('Missing', 'Misses Author', 'Misses Press', '978-0-00-000305-0', 1)");
+            Long id = this.jdbcTemplate.queryForObject("SELECT ID FROM BOOKS WHERE ISBN = '978-0-00-000305-0'", Long.class);
+            this.bookChangeLog.append(BookChange.Operation.CREATED, id, "978-0-00-000305-0", null);
+        });
+
+        this.bookMisses.refresh();
+
+        Assertions.assertEquals("978-0-00-000305-0", this.bookService.getBookByISBN("978-0-00-000305-0").getIsbn());
+    }
+
+    @Test
+    public void bloomFilterHasNoFalseNegatives() {
+        BloomFilter bloomFilter = new BloomFilter(10_000, 0.01);
+        for(int i = 0; i < 10_000; i++){
+            bloomFilter.put("isbn-" + i);
+        }
+        int falsePositives = 0;
+        for(int i = 0; i < 10_000; i++){
+            Assertions.assertTrue(bloomFilter.mightContain("isbn-" + i));
+            if(bloomFilter.mightContain("other-" + i)){
+                falsePositives++;
+            }
+        }
+        Assertions.assertTrue(falsePositives < 200, "false positive rate should be near 1%, was " + falsePositives / 100.0 + "%");
+    }
+
+    private double misses(String lookup, String answeredBy) {
+        return this.meterRegistry.get("library.book.misses").tag("lookup", lookup).tag("answered.by", answeredBy).counter().count();
+    }
+}
@@ -0,0 +1,295 @@
+package com.lms.co.za.peers;
+
+import com.lms.co.za.LibraryManagementSystemApplication;
+import com.lms.co.za.configuration.CacheConfig;
+import com.lms.co.za.lookup.BookMisses;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookChange;
+import com.lms.co.za.model.CacheInvalidation;
+import com.lms.co.za.model.StockLevel;
+import com.lms.co.za.repository.BookRepository;
+import com.lms.co.za.search.BookSearchIndex;
+import com.lms.co.za.support.Await;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Starts three instances on localhost sharing one database, each with the other two as peers, and checks a write made
+ * through any of them reaches the caches of the others.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PeerInvalidationTests {
+
+    private static final int NODES = 3;
+    private static final String TOKEN = "peer-invalidation-tests";
+
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    private final List<TestRestTemplate> clients = new ArrayList<>();
+
+    @BeforeAll
+    public void startNodes() throws IOException {
+        int[] ports = new int[NODES];
+        for(int i = 0; i < NODES; i++){
+            try(ServerSocket serverSocket = new ServerSocket(0)){
+                ports[i] = serverSocket.getLocalPort();
+            }
+        }
+        for(int i = 0; i < NODES; i++){
+            List<String> arguments = new ArrayList<>(Arrays.asList(
+                    "--server.port=" + ports[i],
+                    //kept open between nodes, the first one to start migrates it.
+                    "--spring.datasource.url=jdbc:h2:mem:peer-invalidation-tests;DB_CLOSE_DELAY=-1",
+                    "--library.peers.token=" + TOKEN,
+                    "--library.peers.retry-interval=100ms",
+                    "--library.peers.catch-up-interval=200ms"));
+            int peer = 0;
+            for(int j = 0; j < NODES; j++){
+                if(j != i){
+                    arguments.add("--library.peers.urls[" + peer++ + "]=http://localhost:" + ports[j] + "/api/library-manager");
+                }
+            }
+            //as arguments, properties given to the builder are only defaults and lose to application.yaml.
+            this.nodes.add(new SpringApplicationBuilder(LibraryManagementSystemApplication.class).run(arguments.toArray(new String[0])));
+            this.clients.add(new TestRestTemplate(new RestTemplateBuilder().rootUri("http://localhost:" + ports[i] + "/api/library-manager/v1")));
+        }
+    }
+
+    @AfterAll
+    public void stopNodes() {
+        Collections.reverse(this.nodes);
+        this.nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    public void updatedStockReachesThePeers() throws Exception {
+        Book book = this.clients.get(0).getForObject("/book/1", Book.class);
+        for(int i = 0; i < NODES; i++){
+            Assertions.assertEquals(book.getQuantity(), this.clients.get(i).getForObject("/book/isbn/" + book.getIsbn(), Book.class).getQuantity());
+            Assertions.assertNotNull(cache(i, CacheConfig.BOOKS_BY_ISBN).get(book.getIsbn()), "every node should have the book cached");
+        }
+
+        book.setQuantity(book.getQuantity() + 10);
+        this.clients.get(0).put("/book/1", book);
+        for(int i = 1; i < NODES; i++){
+            awaitBook(i, "/book/isbn/" + book.getIsbn(), response -> response.getBody().getQuantity() == book.getQuantity());
+        }
+
+        ResponseEntity<StockLevel> checkout = this.clients.get(1).postForEntity("/book/isbn/" + book.getIsbn() + "/stock?delta=-1", null, StockLevel.class);
+        Assertions.assertEquals(HttpStatus.OK, checkout.getStatusCode());
+        for(int i = 0; i < NODES; i++){
+            awaitBook(i, "/book/isbn/" + book.getIsbn(), response -> response.getBody().getQuantity() == book.getQuantity() - 1);
+        }
+    }
+
+    @Test
+    public void createdBookIsFoundByPeersThatMissedIt() throws Exception {
+        String isbn = "978-0-" + UUID.randomUUID().toString().substring(0, 8);
+        for(int i = 0; i < NODES; i++){
+            awaitLoaded(i);
+            Assertions.assertEquals(HttpStatus.NOT_FOUND, this.clients.get(i).getForEntity("/book/isbn/" + isbn, String.class).getStatusCode());
+        }
+
+        Book book = new Book();
+        book.setTitle("Cache Coherence Explained");
+        book.setAuthor("Peer Reviewer");
+        book.setPublisher("Localhost");
+        book.setIsbn(isbn);
+        book.setQuantity(2);
+        Assertions.assertEquals(HttpStatus.CREATED, this.clients.get(2).postForEntity("/book", book, Book.class).getStatusCode());
+        for(int i = 0; i < NODES; i++){
+            await(i, "/book/isbn/" + isbn, response -> response.getStatusCode() == HttpStatus.OK);
+            await(i, "/books/search?q=coherence", response -> response.getStatusCode() == HttpStatus.OK && response.getBody().contains(isbn));
+        }
+    }
+
+    @Test
+    public void deletedBookIsGoneFromPeers() throws Exception {
+        Book book = new Book();
+        book.setTitle("Soon Gone");
+        book.setAuthor("Short Lived");
+        book.setPublisher("Localhost");
+        book.setIsbn("978-1-" + UUID.randomUUID().toString().substring(0, 8));
+        book.setQuantity(1);
+        String path = this.clients.get(0).postForLocation("/book", book).getPath().replaceFirst(".*/v1", "");
+        for(int i = 0; i < NODES; i++){
+            await(i, path, response -> response.getStatusCode() == HttpStatus.OK);
+            await(i, "/books/search?q=lived", response -> response.getStatusCode() == HttpStatus.OK && response.getBody().contains(book.getIsbn()));
+        }
+
+        this.clients.get(1).delete(path);
+        for(int i = 0; i < NODES; i++){
+            await(i, path, response -> response.getStatusCode() == HttpStatus.NOT_FOUND);
+            await(i, "/books/search?q=lived", response -> response.getStatusCode() == HttpStatus.NOT_FOUND
+                    || response.getStatusCode() == HttpStatus.OK && !response.getBody().contains(book.getIsbn()));
+        }
+    }
+
+    @Test
+    public void repeatedAndMissedMessagesAreRecognised() {
+        PeerInvalidationReceiver receiver = this.nodes.get(0).getBean(PeerInvalidationReceiver.class);
+        Cache books = cache(0, CacheConfig.BOOKS_BY_ID);
+        String origin = UUID.randomUUID().toString();
+        this.clients.get(0).getForObject("/book/2", Book.class);
+        Assertions.assertNotNull(books.get(2L));
+        double applied = received(0, "applied");
+        double repeated = received(0, "repeated");
+        double resets = received(0, "reset");
+
+        receiver.receive(invalidation(origin, 1, new BookChange(1L, BookChange.Operation.UPDATED, 2L, "0-553-10354-7", null, null)));
+        Assertions.assertNull(books.get(2L));
+        Assertions.assertEquals(1, received(0, "applied") - applied);
+
+        //the same message again, as when the answer to the first one was lost.
+        this.clients.get(0).getForObject("/book/2", Book.class);
+        receiver.receive(invalidation(origin, 1, new BookChange(1L, BookChange.Operation.UPDATED, 2L, "0-553-10354-7", null, null)));
+        Assertions.assertNotNull(books.get(2L), "a repeat should not be applied again");
+        Assertions.assertEquals(1, received(0, "repeated") - repeated);
+
+        //message 2 never arrived, what it held is read from the change log, which has nothing for these books.
+        this.clients.get(0).getForObject("/book/3", Book.class);
+        receiver.receive(invalidation(origin, 3));
+        Assertions.assertNotNull(books.get(2L), "a gap should not drop books the change log has no change for");
+        Assertions.assertNotNull(books.get(3L));
+        Assertions.assertEquals(0, received(0, "reset") - resets);
+
+        //a format this instance doesn't know, so nothing cached can be trusted.
+        CacheInvalidation unknown = invalidation(origin, 4);
+        unknown.setVersion(CacheInvalidation.CURRENT_VERSION + 1);
+        receiver.receive(unknown);
+        Assertions.assertNull(books.get(2L));
+        Assertions.assertNull(books.get(3L));
+        Assertions.assertEquals(1, received(0, "reset") - resets);
+    }
+
+    @Test
+    public void changesWhoseMessagesWereLostAreReadFromTheChangeLog() throws Exception {
+        Book book = new Book();
+        book.setTitle("Lost In Transit");
+        book.setAuthor("Peer Reviewer");
+        book.setPublisher("Localhost");
+        book.setIsbn("978-2-" + UUID.randomUUID().toString().substring(0, 8));
+        book.setQuantity(1);
+        String path = this.clients.get(0).postForLocation("/book", book).getPath().replaceFirst(".*/v1", "");
+        Long id = Long.valueOf(path.substring(path.lastIndexOf('/') + 1));
+        for(int i = 0; i < NODES; i++){
+            awaitBook(i, path, response -> response.getStatusCode() == HttpStatus.OK);
+        }
+        double caughtUp = caughtUp();
+
+        //written by an instance that stopped before its message went out, no peer is told about it.
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(this.nodes.get(0).getBean(DataSource.class));
+        jdbcTemplate.update("UPDATE BOOKS SET QUANTITY = 7, VERSION = VERSION + 1 WHERE ID = ?", id);
+        jdbcTemplate.update("INSERT INTO BOOK_CHANGES (SEQUENCE_NUMBER, OPERATION, BOOK_ID, ISBN) " +
+                "VALUES (NEXT VALUE FOR BOOK_CHANGE_SEQUENCE, 'UPDATED', ?, ?)", id, book.getIsbn());
+        for(int i = 0; i < NODES; i++){
+            awaitBook(i, path, response -> response.getBody().getQuantity() == 7);
+        }
+        Assertions.assertTrue(caughtUp() - caughtUp >= NODES, "every node should have read the change from the change log");
+    }
+
+    @Test
+    public void resetsCloseTogetherLeaveAFullIndex() throws Exception {
+        PeerInvalidationReceiver receiver = this.nodes.get(0).getBean(PeerInvalidationReceiver.class);
+        BookSearchIndex bookSearchIndex = this.nodes.get(0).getBean(BookSearchIndex.class);
+        BookRepository bookRepository = this.nodes.get(0).getBean(BookRepository.class);
+        String origin = UUID.randomUUID().toString();
+
+        //in a format this instance doesn't know, so each is a reset.
+        for(int number = 1; number <= 5; number++){
+            CacheInvalidation invalidation = invalidation(origin, number);
+            invalidation.setVersion(CacheInvalidation.CURRENT_VERSION + 1);
+            receiver.receive(invalidation);
+        }
+        Await.until(bookSearchIndex::isLoaded, "search index of node 0 was not rebuilt");
+        Assertions.assertEquals(bookRepository.count(), bookSearchIndex.size(), "the index marked loaded should hold every book");
+    }
+
+    @Test
+    public void invalidationsWithoutTheTokenAreRefused() {
+        TestRestTemplate peer = new TestRestTemplate(new RestTemplateBuilder().rootUri(this.clients.get(0).getRootUri().replace("/v1", "")));
+        CacheInvalidation invalidation = invalidation(UUID.randomUUID().toString(), 1);
+        Assertions.assertEquals(HttpStatus.FORBIDDEN, peer.postForEntity(PeerInvalidationSender.INVALIDATIONS_PATH, invalidation, Void.class).getStatusCode());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(PeerInvalidationSender.TOKEN_HEADER, TOKEN + "-guess");
+        Assertions.assertEquals(HttpStatus.FORBIDDEN, peer.exchange(PeerInvalidationSender.INVALIDATIONS_PATH, HttpMethod.POST,
+                new HttpEntity<>(invalidation, headers), Void.class).getStatusCode());
+
+        headers.set(PeerInvalidationSender.TOKEN_HEADER, TOKEN);
+        Assertions.assertEquals(HttpStatus.NO_CONTENT, peer.exchange(PeerInvalidationSender.INVALIDATIONS_PATH, HttpMethod.POST,
+                new HttpEntity<>(invalidation, headers), Void.class).getStatusCode());
+    }
+
+    @Test
+    public void peersWithoutATokenDoNotStart() {
+        Exception exception = Assertions.assertThrows(Exception.class, () -> new SpringApplicationBuilder(LibraryManagementSystemApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:peer-without-token",
+                "--library.peers.urls[0]=http://localhost:1/api/library-manager"));
+        Throwable cause = exception;
+        while(cause.getCause() != null){
+            cause = cause.getCause();
+        }
+        Assertions.assertTrue(cause.getMessage().contains("library.peers.token"), cause.getMessage());
+    }
+
+    private static CacheInvalidation invalidation(String origin, long number, BookChange... changes) {
+        return new CacheInvalidation(CacheInvalidation.CURRENT_VERSION, origin, number, false, Arrays.asList(changes));
+    }
+
+    private Cache cache(int node, String cacheName) {
+        return this.nodes.get(node).getBean(CacheManager.class).getCache(cacheName);
+    }
+
+    private double received(int node, String outcome) {
+        return this.nodes.get(node).getBean(MeterRegistry.class).get("library.peers.invalidations.received").tag("outcome", outcome).counter().count();
+    }
+
+    private double caughtUp() {
+        double caughtUp = 0;
+        for(ConfigurableApplicationContext node : this.nodes){
+            caughtUp += node.getBean(MeterRegistry.class).get("library.peers.changes.caught.up").counter().count();
+        }
+        return caughtUp;
+    }
+
+    private void awaitLoaded(int node) throws Exception {
+        Await.until(this.nodes.get(node).getBean(BookMisses.class)::isLoaded, "isbn filter of node " + node + " did not load");
+    }
+
+    private void awaitBook(int node, String path, Predicate<ResponseEntity<Book>> converged) throws Exception {
+        Await.until(() -> this.clients.get(node).getForEntity(path, Book.class), converged,
+                response -> "node " + node + " still answers " + response.getStatusCode() + " " + response.getBody() + " for " + path);
+    }
+
+    private void await(int node, String path, Predicate<ResponseEntity<String>> converged) throws Exception {
+        Await.until(() -> this.clients.get(node).getForEntity(path, String.class), converged,
+                response -> "node " + node + " still answers " + response.getStatusCode() + " " + response.getBody() + " for " + path);
+    }
+}
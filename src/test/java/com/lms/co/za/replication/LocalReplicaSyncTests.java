@@ -0,0 +1,66 @@
+package com.lms.co.za.replication;
+
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.service.BookService;
+import com.lms.co.za.support.Await;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:local-replica-sync-primary",
+        "library.replication.replicas[0].url=jdbc:h2:mem:local-replica-sync-1",
+        "library.replication.local-sync=true"
+})
+class LocalReplicaSyncTests {
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @Test
+    public void replicaStartsWithACopyOfThePrimary() {
+        JdbcTemplate primary = new JdbcTemplate(this.replicaRoutingDataSource.getResolvedDefaultDataSource());
+        Assertions.assertEquals(primary.queryForList("SELECT ISBN FROM BOOKS ORDER BY ID", String.class), isbns(null));
+    }
+
+    @Test
+    public void replicaFollowsCreateUpdateAndDelete() throws Exception {
+        Book book = new Book();
+        book.setTitle("Followed");
+        book.setAuthor("Sync Author");
+        book.setPublisher("Sync Press");
+        book.setIsbn("978-0-00-000201-0");
+        book.setQuantity(1);
+        Book created = this.bookService.createBook(book);
+        awaitReplica(() -> isbns(created.getId()).contains("978-0-00-000201-0"));
+
+        book.setIsbn("978-0-00-000201-1");
+        this.bookService.updateBook(created.getId(), book);
+        awaitReplica(() -> isbns(created.getId()).contains("978-0-00-000201-1"));
+        Assertions.assertEquals("978-0-00-000201-1", this.bookService.getBookById(created.getId()).getIsbn());
+
+        this.bookService.deleteBookById(created.getId());
+        awaitReplica(() -> isbns(created.getId()).isEmpty());
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBookById(created.getId()));
+    }
+
+    private List<String> isbns(Long id) {
+        JdbcTemplate replica = new JdbcTemplate(this.replicaRoutingDataSource.getReplicas().get("replica-1"));
+        if(id == null){
+            return replica.queryForList("SELECT ISBN FROM BOOKS ORDER BY ID", String.class);
+        }
+        return replica.queryForList("SELECT ISBN FROM BOOKS WHERE ID = ?", String.class, id);
+    }
+
+    private static void awaitReplica(Await.Condition condition) throws Exception {
+        Await.until(condition, "replica did not catch up");
+    }
+}
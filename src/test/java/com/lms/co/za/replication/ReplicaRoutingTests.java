@@ -0,0 +1,151 @@
+package com.lms.co.za.replication;
+
+import com.lms.co.za.configuration.CacheConfig;
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.lookup.BookCache;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.service.BookService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.lms.co.za.support.BookDataGenerator.book;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+//the replicas are copied from the primary at startup and then left behind, so every read shows where it was served from.
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:replica-routing-primary",
+        "library.replication.replicas[0].url=jdbc:h2:mem:replica-routing-1",
+        "library.replication.replicas[1].url=jdbc:h2:mem:replica-routing-2",
+        "library.replication.local-sync=true",
+        "library.replication.local-sync-lag=1h"
+})
+@AutoConfigureMockMvc
+class ReplicaRoutingTests {
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @Autowired
+    BookCache bookCache;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Test
+    public void writesGoToThePrimaryAndReadsToTheReplicas() throws ResourceNotFoundException {
+        Book book = this.bookService.createBook(book("978-0-00-000101-0", 1));
+
+        JdbcTemplate primary = new JdbcTemplate(this.replicaRoutingDataSource.getResolvedDefaultDataSource());
+        Assertions.assertEquals(1, primary.queryForObject("SELECT COUNT(*) FROM BOOKS WHERE ID = ?", Integer.class, book.getId()));
+        Assertions.assertTrue(this.bookService.getAllBooks().getBooks().stream().noneMatch(found -> found.getId().equals(book.getId())), "read outside a request should be served by a replica");
+    }
+
+    @Test
+    public void requestReadsItsOwnWritesFromThePrimary() throws ResourceNotFoundException {
+        ReadYourWrites.Scope previous = ReadYourWrites.bind(new ReadYourWrites.Scope());
+        try {
+            Book book = this.bookService.createBook(book("978-0-00-000102-0", 1));
+            Assertions.assertEquals("978-0-00-000102-0", this.bookService.getBookById(book.getId()).getIsbn());
+            Assertions.assertTrue(this.bookService.getAllBooks().getBooks().stream().anyMatch(found -> found.getId().equals(book.getId())));
+        } finally {
+            ReadYourWrites.bind(previous);
+        }
+    }
+
+    @Test
+    public void nextRequestReadsFromAReplica() throws Exception {
+        this.bookService.createBook(book("978-0-00-000103-0", 1));
+
+        //read-your-writes only holds within the request that wrote, a later request can still see a lagging replica.
+        this.mockMvc.perform(get("/v1/book/author/Generated Author")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void writeAfterAReplicaReadGoesToThePrimary() throws ResourceNotFoundException, InsufficientStockException {
+        String insert = "INSERT INTO BOOKS (ID, TITLE, AUTHOR, PUBLISHER, ISBN, QUANTITY, VERSION) VALUES (-2, 'Everywhere', 'Replica', 'Replica', '978-0-00-000105-0', 1, 0)";
+        JdbcTemplate primary = new JdbcTemplate(this.replicaRoutingDataSource.getResolvedDefaultDataSource());
+        List<JdbcTemplate> replicas = new ArrayList<>();
+        primary.update(insert);
+        for(DataSource replica : this.replicaRoutingDataSource.getReplicas().values()){
+            replicas.add(new JdbcTemplate(replica));
+        }
+        replicas.forEach(replica -> replica.update(insert));
+        try {
+            Assertions.assertEquals("Everywhere", this.bookService.getBookById(-2L).getTitle());
+            Assertions.assertEquals(3, this.bookService.adjustStock("978-0-00-000105-0", 2).getQuantity());
+
+            Assertions.assertEquals(3, primary.queryForObject("SELECT QUANTITY FROM BOOKS WHERE ID = -2", Integer.class));
+            for(JdbcTemplate replica : replicas){
+                Assertions.assertEquals(1, replica.queryForObject("SELECT QUANTITY FROM BOOKS WHERE ID = -2", Integer.class), "a replica should never be written");
+            }
+        } finally {
+            primary.update("DELETE FROM BOOKS WHERE ID = -2");
+            replicas.forEach(replica -> replica.update("DELETE FROM BOOKS WHERE ID = -2"));
+        }
+    }
+
+    @Test
+    public void lookupsThatMissTheCacheReadThePrimary() throws ResourceNotFoundException {
+        JdbcTemplate primary = new JdbcTemplate(this.replicaRoutingDataSource.getResolvedDefaultDataSource());
+        primary.update("INSERT INTO BOOKS (ID, TITLE, AUTHOR, PUBLISHER, ISBN, QUANTITY, VERSION) VALUES (-3, 'Ahead', 'Primary', 'Primary', '978-0-00-000106-0', 1, 0)");
+        try {
+            Assertions.assertEquals("Ahead", this.bookService.getBookById(-3L).getTitle(), "a replica that hasn't caught up should not answer a lookup");
+            Assertions.assertEquals("Ahead", this.bookCache.get(CacheConfig.BOOKS_BY_ID, -3L).getTitle());
+        } finally {
+            primary.update("DELETE FROM BOOKS WHERE ID = -3");
+            this.bookCache.evict(-3L, "978-0-00-000106-0");
+        }
+    }
+
+    @Test
+    public void secondLookupIsServedByTheCache() throws ResourceNotFoundException {
+        Book book = this.bookService.createBook(book("978-0-00-000107-0", 1));
+        Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        this.bookService.getBookById(book.getId());
+        this.bookService.getBookByISBN(book.getIsbn());
+        long statementsAfterFirstLookup = statistics.getPrepareStatementCount();
+        this.bookService.getBookById(book.getId());
+        this.bookService.getBookByISBN(book.getIsbn());
+
+        Assertions.assertEquals(statementsAfterFirstLookup, statistics.getPrepareStatementCount(), "a book looked up once should be served from the cache");
+    }
+
+    @Test
+    public void readsAreSpreadOverTheReplicas() throws ResourceNotFoundException {
+        JdbcTemplate replica = new JdbcTemplate(this.replicaRoutingDataSource.getReplicas().get("replica-1"));
+        replica.update("INSERT INTO BOOKS (ID, TITLE, AUTHOR, PUBLISHER, ISBN, QUANTITY, VERSION) VALUES (1000000, 'Only Here', 'Replica', 'Replica', '978-0-00-000104-0', 1, 0)");
+        try {
+            int servedByFirst = 0;
+            for(int i = 0; i < 4; i++){
+                List<Book> books = this.bookService.getAllBooks().getBooks();
+                if(books.stream().anyMatch(found -> found.getId() == 1_000_000L)){
+                    servedByFirst++;
+                }
+            }
+            Assertions.assertEquals(2, servedByFirst, "reads should alternate between the two replicas");
+        } finally {
+            replica.update("DELETE FROM BOOKS WHERE ID = 1000000");
+        }
+    }
+}
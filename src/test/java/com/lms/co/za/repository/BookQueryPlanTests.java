@@ -0,0 +1,286 @@
+package com.lms.co.za.repository;
+
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.Loan;
+import com.lms.co.za.support.BookDataGenerator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs every finder the api uses against a generated catalogue, captures the SQL Hibernate sends with its bound values
+ * and fails when the H2 plan of any of it reads a whole table or a whole index instead of seeking into one.
+ */
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:book-query-plan-tests")
+@Import(BookQueryPlanTests.StatementCaptureConfig.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class BookQueryPlanTests {
+
+    private static final int ROWS = 100_000;
+    private static final int LOANS = 20_000;
+    private static final List<CapturedStatement> STATEMENTS = new CopyOnWriteArrayList<>();
+
+    //reads of the whole catalogue by design, export, search index and isbn filter loads, and the inherited findAll.
+    private static final Set<String> FULL_SCANS = new TreeSet<>(Arrays.asList("findAll", "streamAllBooks", "streamAllIsbns"));
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Autowired
+    LoanRepository loanRepository;
+
+    @Autowired
+    AuthorTrigramCleanup authorTrigramCleanup;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @BeforeAll
+    public void generateCatalogue() {
+        BookDataGenerator.generate(this.jdbcTemplate, ROWS);
+        //a few hundred busy titles, each with copies on loan and a hold queue.
+        this.jdbcTemplate.update("INSERT INTO LOANS(BOOK_ID, ISBN, BORROWER, STATUS) SELECT MOD(X, 500) + 1, 'isbn', CONCAT('member-', MOD(X, 1000)), "
+                + "CASE WHEN MOD(X, 4) = 0 THEN 'WAITING' ELSE 'ON_LOAN' END FROM SYSTEM_RANGE(1, " + LOANS + ")");
+        this.jdbcTemplate.execute("ANALYZE");
+    }
+
+    @TestFactory
+    public Stream<DynamicTest> hotPathQueriesSeekAnIndex() {
+        return finders().entrySet().stream().map(finder -> DynamicTest.dynamicTest(finder.getKey(), () -> {
+            STATEMENTS.clear();
+            finder.getValue().run();
+            //background loaders share the datasource, only what the finder ran on this thread counts.
+            List<CapturedStatement> statements = STATEMENTS.stream().filter(statement -> statement.thread == Thread.currentThread()).collect(Collectors.toList());
+            Assertions.assertFalse(statements.isEmpty(), finder.getKey() + " should have run a query");
+            for(CapturedStatement statement : statements){
+                String plan = explain(statement);
+                Assertions.assertEquals(Collections.emptyList(), fullScans(plan), finder.getKey() + " reads a whole table or index:\n" + plan);
+            }
+        }));
+    }
+
+    @Test
+    public void everyFinderIsCheckedOrAKnownFullScan() {
+        Set<String> declared = new TreeSet<>();
+        for(Class<?> repository : Arrays.asList(BookRepository.class, BookProjectionRepository.class, LoanRepository.class)){
+            for(Method method : repository.getDeclaredMethods()){
+                declared.add(method.getName());
+            }
+        }
+        //answered from the entity metamodel, no sql.
+        declared.remove("projectableFields");
+        declared.add("findById");
+        declared.add("findAll");
+        Set<String> covered = new TreeSet<>(finders().keySet());
+        covered.addAll(FULL_SCANS);
+        Assertions.assertEquals(declared, covered, "a new finder needs a plan check, or a place in FULL_SCANS if reading everything is the point");
+    }
+
+    @Test
+    public void authorSearchFindsWhatAScanFinds() {
+        this.transactionTemplate.executeWithoutResult(status -> {
+            Book book = this.bookRepository.findById(7L).orElseThrow(IllegalStateException::new);
+            book.setAuthor("Zora Neale Hurston");
+            this.bookRepository.saveAndFlush(book);
+        });
+        //the trigger indexes writes that don't go through the application too.
+        this.jdbcTemplate.update("UPDATE BOOKS SET AUTHOR = ? WHERE ID = 11", "Chinua Achebe");
+
+        for(String author : Arrays.asList("ne mart", "KING", "ing 2", "zora neale", "Neale H", "rston", "achebe", "nobody at all")){
+            List<Long> scanned = this.jdbcTemplate.queryForList("SELECT ID FROM BOOKS WHERE UPPER(AUTHOR) LIKE ? ORDER BY ID", Long.class, "%" + author.toUpperCase() + "%");
+            List<Long> found = this.bookRepository.findBookByAuthorContainingIgnoreCase(author).stream().map(Book::getId).collect(Collectors.toList());
+            Assertions.assertEquals(scanned, found, "author search for " + author);
+        }
+    }
+
+    @Test
+    public void trigramsOfAuthorsWithoutBooksAreDeleted() {
+        this.transactionTemplate.executeWithoutResult(status -> {
+            Book book = this.bookRepository.findById(8L).orElseThrow(IllegalStateException::new);
+            book.setAuthor("Short Lived Author");
+            this.bookRepository.saveAndFlush(book);
+        });
+        String kept = BookDataGenerator.author(9);
+        this.jdbcTemplate.update("UPDATE BOOKS SET AUTHOR = ? WHERE ID = 8", kept);
+
+        this.authorTrigramCleanup.deleteUnusedAuthors();
+
+        Assertions.assertEquals(0, trigrams("Short Lived Author"));
+        Assertions.assertTrue(trigrams(kept) > 0, "an author that still has books keeps its trigrams");
+        Assertions.assertEquals(Collections.singletonList(8L), this.bookRepository.findBookByAuthorContainingIgnoreCase(kept).stream()
+                .map(Book::getId).filter(id -> id == 8L).collect(Collectors.toList()));
+        Assertions.assertEquals(0, this.authorTrigramCleanup.deleteUnusedAuthors(), "nothing is left to delete");
+    }
+
+    private int trigrams(String author) {
+        Integer count = this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM AUTHOR_TRIGRAMS WHERE AUTHOR = ?", Integer.class, author);
+        return count != null ? count : 0;
+    }
+
+    private Map<String, Runnable> finders() {
+        String isbn = BookDataGenerator.isbn(ROWS / 2);
+        Map<String, Runnable> finders = new LinkedHashMap<>();
+        finders.put("findById", () -> this.bookRepository.findById((long) ROWS / 2));
+        finders.put("findBookByIsbn", () -> this.bookRepository.findBookByIsbn(isbn));
+        finders.put("findBookByIsbnIn", () -> this.bookRepository.findBookByIsbnIn(Arrays.asList(isbn, BookDataGenerator.isbn(1), BookDataGenerator.isbn(2))));
+        finders.put("findBookByAuthorContainingIgnoreCase", () -> this.bookRepository.findBookByAuthorContainingIgnoreCase("ne mart"));
+        finders.put("findProjectedByAuthorContainingIgnoreCase", () -> this.bookRepository.findProjectedByAuthorContainingIgnoreCase("ne mart", Arrays.asList("id", "title")));
+        finders.put("findProjectedByIdGreaterThan", () -> this.bookRepository.findProjectedByIdGreaterThan(Arrays.asList("id", "title"), (long) ROWS / 2, 20));
+        finders.put("findBookByIdGreaterThanOrderByIdAsc", () -> this.bookRepository.findBookByIdGreaterThanOrderByIdAsc((long) ROWS / 2, PageRequest.of(0, 20)));
+        finders.put("findStockLevelByIsbn", () -> this.bookRepository.findStockLevelByIsbn(isbn));
+        finders.put("adjustQuantityByIsbn", () -> this.transactionTemplate.executeWithoutResult(status -> this.bookRepository.adjustQuantityByIsbn(isbn, 0)));
+        finders.put("findQuantityById", () -> this.bookRepository.findQuantityById((long) ROWS / 2));
+        finders.put("adjustQuantityById", () -> this.transactionTemplate.executeWithoutResult(status -> this.bookRepository.adjustQuantityById((long) ROWS / 2, 0)));
+        List<Loan.Status> open = Arrays.asList(Loan.Status.WAITING, Loan.Status.READY, Loan.Status.ON_LOAN);
+        long loanId = LOANS / 2;
+        finders.put("findFirstByBookIdAndBorrowerAndStatus", () -> this.loanRepository.findFirstByBookIdAndBorrowerAndStatus(7L, "member-6", Loan.Status.READY));
+        finders.put("existsByBookIdAndStatus", () -> this.loanRepository.existsByBookIdAndStatus(7L, Loan.Status.WAITING));
+        finders.put("existsByBookIdAndBorrowerAndStatusIn", () -> this.loanRepository.existsByBookIdAndBorrowerAndStatusIn(7L, "member-6", open));
+        finders.put("findByBorrowerAndStatusInOrderByIdAsc", () -> this.loanRepository.findByBorrowerAndStatusInOrderByIdAsc("member-6", open));
+        finders.put("findByBookIdAndStatusInOrderByIdAsc", () -> this.loanRepository.findByBookIdAndStatusInOrderByIdAsc(7L, Arrays.asList(Loan.Status.WAITING, Loan.Status.READY)));
+        finders.put("findIdsByBookIdAndStatus", () -> this.loanRepository.findIdsByBookIdAndStatus(7L, Loan.Status.WAITING, PageRequest.of(0, 10)));
+        finders.put("countByBookIdAndStatusBefore", () -> this.loanRepository.countByBookIdAndStatusBefore(7L, Loan.Status.WAITING, loanId));
+        //loans and holds move on by id, from the status the caller saw, so a status that no row has leaves them as they are.
+        finders.put("changeStatus", () -> this.transactionTemplate.executeWithoutResult(status -> this.loanRepository.changeStatus(loanId, Loan.Status.CANCELLED, Loan.Status.CANCELLED)));
+        finders.put("checkOut", () -> this.transactionTemplate.executeWithoutResult(status -> this.loanRepository.checkOut(loanId, Loan.Status.CANCELLED, Loan.Status.CANCELLED, null, null)));
+        finders.put("close", () -> this.transactionTemplate.executeWithoutResult(status -> this.loanRepository.close(loanId, Loan.Status.CANCELLED, Loan.Status.CANCELLED, null)));
+        return finders;
+    }
+
+    private String explain(CapturedStatement statement) {
+        return this.jdbcTemplate.execute((ConnectionCallback<String>) connection -> {
+            try(PreparedStatement preparedStatement = connection.prepareStatement("EXPLAIN " + statement.sql)){
+                //H2 folds bound values into the plan, so the finder's own values are bound.
+                for(Map.Entry<Integer, Object> parameter : statement.parameters.entrySet()){
+                    preparedStatement.setObject(parameter.getKey(), parameter.getValue());
+                }
+                try(ResultSet resultSet = preparedStatement.executeQuery()){
+                    resultSet.next();
+                    return resultSet.getString(1);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the plan comments of tables read without an index condition, which H2 marks as a tableScan or as an index
+     * name with no condition after it.
+     */
+    private static List<String> fullScans(String plan) {
+        List<String> fullScans = new ArrayList<>();
+        if(plan.contains("/* direct lookup */")){
+            //count, min and max answered from the index metadata without reading rows.
+            return fullScans;
+        }
+        for(String line : plan.split("\n")){
+            String trimmed = line.trim();
+            if(trimmed.startsWith("/* PUBLIC.") && (trimmed.contains(".tableScan") || !trimmed.contains(":"))){
+                fullScans.add(trimmed);
+            }
+        }
+        return fullScans;
+    }
+
+    //imported rather than a @TestConfiguration, benchmarks run with the test classes on the classpath and a scanned
+    //configuration would capture their statements too.
+    static class StatementCaptureConfig {
+
+        @Bean
+        static BeanPostProcessor statementCapture() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof DataSource ? Capturing.proxy(DataSource.class, bean, null) : bean;
+                }
+            };
+        }
+    }
+
+    static class CapturedStatement {
+
+        final Thread thread = Thread.currentThread();
+        final String sql;
+        final Map<Integer, Object> parameters = new TreeMap<>();
+
+        CapturedStatement(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    /**
+     * Wraps the datasource, its connections and their prepared statements, recording every statement prepared and the
+     * values bound to it.
+     */
+    static class Capturing implements InvocationHandler {
+
+        private final Object target;
+        private final CapturedStatement statement;
+
+        private Capturing(Object target, CapturedStatement statement) {
+            this.target = target;
+            this.statement = statement;
+        }
+
+        static <T> T proxy(Class<T> type, Object target, CapturedStatement statement) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new Capturing(target, statement)));
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+            if(this.statement != null && method.getName().startsWith("set") && arguments != null && arguments.length >= 2 && arguments[0] instanceof Integer){
+                this.statement.parameters.put((Integer) arguments[0], method.getName().equals("setNull") ? null : arguments[1]);
+            }
+            Object result;
+            try {
+                result = method.invoke(this.target, arguments);
+            }catch (InvocationTargetException invocationTargetException){
+                throw invocationTargetException.getTargetException();
+            }
+            if(result instanceof Connection && method.getName().equals("getConnection")){
+                return proxy(Connection.class, result, null);
+            }
+            if(result instanceof PreparedStatement && method.getName().equals("prepareStatement")){
+                CapturedStatement capturedStatement = new CapturedStatement((String) arguments[0]);
+                STATEMENTS.add(capturedStatement);
+                return proxy(PreparedStatement.class, result, capturedStatement);
+            }
+            return result;
+        }
+    }
+}
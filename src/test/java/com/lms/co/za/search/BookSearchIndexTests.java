@@ -0,0 +1,121 @@
+package com.lms.co.za.search;
+
+import com.lms.co.za.model.Book;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.lms.co.za.support.BookDataGenerator.book;
+
+class BookSearchIndexTests {
+
+    private BookSearchIndex bookSearchIndex;
+
+    @BeforeEach
+    void setUp() {
+        this.bookSearchIndex = new BookSearchIndex(2, 15);
+        this.bookSearchIndex.index(book(1L, "It", "Stephen King", "Viking"));
+        this.bookSearchIndex.index(book(2L, "A Game of Thrones", "George R. R. Martin", "Bantam Spectra"));
+        this.bookSearchIndex.index(book(3L, "The Da Vinci Code", "Dan Brown", "Doubleday"));
+        this.bookSearchIndex.index(book(4L, "The King of Kings", "Gabriel García Márquez", "Viking"));
+    }
+
+    @Test
+    public void matchesWholeWordsAndPrefixes() {
+        Assertions.assertEquals(Arrays.asList(4L, 1L), this.bookSearchIndex.search("king", 10), "title match should rank above author match");
+        Assertions.assertEquals(Collections.singletonList(1L), this.bookSearchIndex.search("steph", 10));
+        Assertions.assertEquals(Collections.singletonList(4L), this.bookSearchIndex.search("GARCIA marq", 10), "search should ignore case and accents");
+    }
+
+    @Test
+    public void ranksBooksMatchingMoreTermsFirst() {
+        List<Long> ids = this.bookSearchIndex.search("king viking", 10);
+        Assertions.assertEquals(Arrays.asList(4L, 1L), ids.subList(0, 2));
+        Assertions.assertEquals(1, this.bookSearchIndex.search("king viking", 1).size(), "results should be limited");
+    }
+
+    @Test
+    public void reindexReplacesPreviousValues() {
+        this.bookSearchIndex.index(book(3L, "Inferno", "Dan Brown", "Doubleday"));
+        Assertions.assertTrue(this.bookSearchIndex.search("vinci", 10).isEmpty(), "old title should no longer match");
+        Assertions.assertEquals(Collections.singletonList(3L), this.bookSearchIndex.search("infer", 10));
+
+        this.bookSearchIndex.remove(3L);
+        Assertions.assertTrue(this.bookSearchIndex.search("brown", 10).isEmpty(), "removed book should no longer match");
+        Assertions.assertEquals(3, this.bookSearchIndex.size());
+    }
+
+    @Test
+    public void olderVersionsDoNotReplaceNewerOnes() {
+        Book renamed = book(3L, "Inferno", "Dan Brown", "Doubleday");
+        renamed.setVersion(2);
+        this.bookSearchIndex.index(renamed);
+        Book stale = book(3L, "The Da Vinci Code", "Dan Brown", "Doubleday");
+        stale.setVersion(1);
+        this.bookSearchIndex.index(stale);
+        Assertions.assertEquals(Collections.singletonList(3L), this.bookSearchIndex.search("inferno", 10), "an update applied late should be ignored");
+
+        this.bookSearchIndex.remove(3L);
+        this.bookSearchIndex.index(renamed);
+        Assertions.assertTrue(this.bookSearchIndex.search("inferno", 10).isEmpty(), "a removed book should not come back");
+    }
+
+    @Test
+    public void postingsKeepTheirOrderThroughRemovesAndInserts() {
+        BookSearchIndex index = new BookSearchIndex(2, 15);
+        for(long id = 1; id <= 100; id++){
+            index.index(book(id, "Shared Title " + id, "Author", "Press"));
+        }
+        //removes most of the posting, so it is compacted on the way, and puts a few back in the middle.
+        for(long id = 1; id <= 90; id++){
+            index.remove(id);
+        }
+        for(long id = 201; id >= 195; id--){
+            index.index(book(id, "Shared Title " + id, "Author", "Press"));
+        }
+        index.index(book(150L, "Shared Title 150", "Author", "Press"));
+
+        List<Long> expected = new ArrayList<>();
+        for(long id = 91; id <= 100; id++){
+            expected.add(id);
+        }
+        expected.add(150L);
+        for(long id = 195; id <= 201; id++){
+            expected.add(id);
+        }
+        List<Long> found = index.search("shared", 100);
+        found.sort(null);
+        Assertions.assertEquals(expected, found);
+        Assertions.assertEquals(expected.size(), index.size());
+    }
+
+    @Test
+    public void removedBooksStayRemovedAfterClear() {
+        this.bookSearchIndex.remove(3L);
+        this.bookSearchIndex.clear();
+        Assertions.assertEquals(0, this.bookSearchIndex.size());
+
+        this.bookSearchIndex.index(book(3L, "The Da Vinci Code", "Dan Brown", "Doubleday"));
+        this.bookSearchIndex.index(book(1L, "It", "Stephen King", "Viking"));
+        Assertions.assertTrue(this.bookSearchIndex.search("brown", 10).isEmpty(), "a late write of a removed book should not index it again");
+        Assertions.assertEquals(Collections.singletonList(1L), this.bookSearchIndex.search("king", 10));
+    }
+
+    @Test
+    public void termsOutsideTheIndexedPrefixesAreChecked() {
+        BookSearchIndex narrow = new BookSearchIndex(3, 4);
+        narrow.index(book(1L, "Thinner", "Stephen King", "Viking"));
+        narrow.index(book(2L, "Thief of Time", "Terry Pratchett", "Doubleday"));
+        narrow.index(book(3L, "The Dark Half", "Stephen King", "Viking"));
+        Assertions.assertEquals(Collections.singletonList(1L), narrow.search("thinn", 10), "longer terms should match by their indexed prefix");
+        Assertions.assertTrue(narrow.search("thinx", 10).isEmpty(), "the indexed prefix alone should not match");
+        Assertions.assertTrue(narrow.search("th", 10).isEmpty(), "short terms should only match whole words");
+        Assertions.assertEquals(Arrays.asList(3L, 1L), narrow.search("king da", 10), "short terms should rank the books the other terms found");
+        Assertions.assertEquals(Collections.singletonList(2L), narrow.search("pratchett vi", 10), "short terms should not find books on their own");
+    }
+}
@@ -0,0 +1,63 @@
+package com.lms.co.za.service;
+
+import com.lms.co.za.exception.BadRequestException;
+import com.lms.co.za.lookup.BookMisses;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookBatchResult;
+import com.lms.co.za.support.Await;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+//small chunks so a handful of keys already spans several IN queries.
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:book-batch-tests", "library.batch.chunk-size=2", "library.batch.max-keys=10"})
+class BookBatchTests {
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    BookMisses bookMisses;
+
+    @Test
+    public void getBooksReturnsFoundAndMissingKeysWithChunkedQueries() throws Exception {
+        Await.until(this.bookMisses::isLoaded, "isbn filter did not load");
+        this.cacheManager.getCacheNames().forEach(name -> this.cacheManager.getCache(name).clear());
+        Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        long queriesBefore = statistics.getQueryExecutionCount();
+
+        BookBatchResult bookBatchResult = this.bookService.getBooks(Arrays.asList(3L, 1L, 99L, 1L, 98L), Arrays.asList("0-553-10354-7", "0-670-81302-8", "0-000-00000-0"));
+
+        //ids 3, 1, 99, 98 in two chunks, the two known isbns in one, the unknown one is answered by the isbn filter.
+        Assertions.assertEquals(3, statistics.getQueryExecutionCount() - queriesBefore, "keys should be loaded with one query per chunk");
+        Assertions.assertEquals(Arrays.asList(3L, 1L, 2L), bookBatchResult.getBooks().stream().map(Book::getId).collect(Collectors.toList()),
+                "books should be returned once each, in request order");
+        Assertions.assertEquals(Arrays.asList(99L, 98L), bookBatchResult.getMissingIds());
+        Assertions.assertEquals(Collections.singletonList("0-000-00000-0"), bookBatchResult.getMissingIsbns());
+
+        long queriesAfterFirstBatch = statistics.getQueryExecutionCount();
+        this.bookService.getBooks(Arrays.asList(1L, 3L), Collections.singletonList("0-553-10354-7"));
+        Assertions.assertEquals(queriesAfterFirstBatch, statistics.getQueryExecutionCount(), "found books should be served from the cache");
+    }
+
+    @Test
+    public void getBooksRejectsTooManyKeys() {
+        Assertions.assertThrows(BadRequestException.class, () -> this.bookService.getBooks(LongStream.rangeClosed(1, 11).boxed().collect(Collectors.toList()), Collections.emptyList()));
+    }
+}
@@ -0,0 +1,103 @@
+package com.lms.co.za.service;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.lms.co.za.configuration.CacheConfig;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.lookup.BookCache;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.repository.BookRepository;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+
+import java.util.Collections;
+
+import static com.lms.co.za.support.BookDataGenerator.book;
+
+//runs against its own in-memory database so the writes here don't leak into the other test classes.
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:book-cache-tests")
+class BookCacheTests {
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    BookCache bookCache;
+
+    @Autowired
+    BookRepository bookRepository;
+
+    @Test
+    public void getBookByIdIsCached() throws ResourceNotFoundException {
+        CaffeineCache booksById = (CaffeineCache) this.cacheManager.getCache(CacheConfig.BOOKS_BY_ID);
+        Assertions.assertNotNull(booksById, "books cache should be configured");
+        CacheStats before = booksById.getNativeCache().stats();
+
+        Book first = this.bookService.getBookById(2L);
+        Book second = this.bookService.getBookById(2L);
+
+        CacheStats after = booksById.getNativeCache().stats();
+        Assertions.assertEquals(first, second, "second lookup should be served from the cache");
+        Assertions.assertNotSame(first, second, "every caller should get its own copy of the cached book");
+        Assertions.assertEquals(1, after.hitCount() - before.hitCount(), "second lookup should be a cache hit");
+
+        second.setQuantity(second.getQuantity() + 100);
+        Assertions.assertEquals(first.getQuantity(), this.bookService.getBookById(2L).getQuantity(), "changing a returned book should not change the cached one");
+    }
+
+    @Test
+    public void loadThatReadBeforeAWriteIsNotCached() throws Exception {
+        Book newBook = this.bookService.createBook(book("0-670-45193-4", 2));
+
+        //the load reads the row, then the stock change commits and evicts before the load gets to cache what it read.
+        Book loaded = this.bookCache.get(CacheConfig.BOOKS_BY_ID, newBook.getId(), () -> {
+            Book read = this.bookRepository.findById(newBook.getId()).orElseThrow(IllegalStateException::new);
+            this.bookService.adjustStock("0-670-45193-4", 3);
+            return read;
+        });
+
+        Assertions.assertEquals(2, loaded.getQuantity());
+        Assertions.assertNull(this.bookCache.get(CacheConfig.BOOKS_BY_ID, newBook.getId()), "a load that read before the write should not be cached");
+        Assertions.assertEquals(5, this.bookService.getBookById(newBook.getId()).getQuantity());
+    }
+
+    @Test
+    public void olderVersionDoesNotReplaceANewerOne() throws Exception {
+        Book newBook = this.bookService.createBook(book("0-670-45193-5", 2));
+        this.bookService.adjustStock("0-670-45193-5", 3);
+        Book current = this.bookService.getBookByISBN("0-670-45193-5");
+
+        Book older = this.bookService.getBookByISBN("0-670-45193-5");
+        older.setVersion(current.getVersion() - 1);
+        older.setQuantity(2);
+        this.bookCache.load(CacheConfig.BOOKS_BY_ISBN, Book::getIsbn, () -> Collections.singletonList(older));
+
+        Assertions.assertEquals(5, this.bookService.getBookByISBN("0-670-45193-5").getQuantity(), "an older version should not replace the cached one");
+        this.bookService.deleteBookById(newBook.getId());
+    }
+
+    @Test
+    public void updateBookEvictsPreviousIsbn() throws ResourceNotFoundException {
+        Book newBook = this.bookService.createBook(book("0-670-45193-2", 2));
+
+        //warm both caches before the update.
+        Assertions.assertEquals(2, this.bookService.getBookByISBN("0-670-45193-2").getQuantity());
+        Assertions.assertEquals(2, this.bookService.getBookById(newBook.getId()).getQuantity());
+
+        this.bookService.updateBook(newBook.getId(), book("0-670-45193-3", 7));
+
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBookByISBN("0-670-45193-2"), "old isbn should no longer resolve");
+        Assertions.assertEquals(7, this.bookService.getBookByISBN("0-670-45193-3").getQuantity());
+        Assertions.assertEquals(7, this.bookService.getBookById(newBook.getId()).getQuantity());
+
+        this.bookService.deleteBookById(newBook.getId());
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBookById(newBook.getId()), "deleted book should not be served from the cache");
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getBookByISBN("0-670-45193-3"), "deleted book should not be served from the cache");
+    }
+}
@@ -0,0 +1,86 @@
+package com.lms.co.za.service;
+
+import com.lms.co.za.exception.BadRequestException;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.exception.ServiceUnavailableException;
+import com.lms.co.za.model.ImportResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+//small batches so a few rows already span several of them.
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:book-import-tests", "library.bulk-import.batch-size=2"})
+class BookImportTests {
+
+    @Autowired
+    BookImportService bookImportService;
+
+    @Autowired
+    BookService bookService;
+
+    @Test
+    public void importCsvReportsRejectedRows() throws BadRequestException, IOException, ResourceNotFoundException, ServiceUnavailableException {
+        String csv = "title,author,publisher,isbn,quantity\n"
+                + "Carrie,Stephen King,Doubleday,0-385-08695-4,3\n"
+                + ",Stephen King,Doubleday,0-385-12167-9,1\n"
+                + "It,Stephen King,Viking,0-670-81302-8,5\n"
+                + "\"Misery, Reissue\",Stephen King,Viking,0-670-81364-8,2\n"
+                + "Carrie,Stephen King,Doubleday,0-385-08695-4,3\n"
+                + "The Shining,Stephen King,Doubleday,0-385-12167-8,not-a-number\n";
+
+        ImportResult importResult = this.bookImportService.importBooks(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), BookImportService.Format.CSV);
+
+        Assertions.assertEquals(6, importResult.getReceived());
+        Assertions.assertEquals(2, importResult.getImported());
+        Assertions.assertEquals(4, importResult.getRejected());
+        Assertions.assertEquals(3, importResult.getErrors().get(0).getLine(), "blank title should be rejected by bean validation");
+        Assertions.assertEquals("0-670-81302-8", importResult.getErrors().get(1).getIsbn(), "existing isbn should be rejected");
+        Assertions.assertEquals("0-385-08695-4", importResult.getErrors().get(2).getIsbn(), "isbn repeated in a later batch should be rejected");
+        Assertions.assertEquals(7, importResult.getErrors().get(3).getLine(), "unreadable quantity should be rejected");
+
+        Assertions.assertEquals("Misery, Reissue", this.bookService.getBookByISBN("0-670-81364-8").getTitle());
+        Assertions.assertEquals("0-385-08695-4", this.bookService.searchBooks("carrie", 10).get(0).getIsbn(), "imported books should be searchable");
+    }
+
+    @Test
+    public void importCsvWithQuotedCommasAndLineBreaks() throws BadRequestException, IOException, ResourceNotFoundException {
+        String csv = "\"isbn\",\"title\",\"author\",\"publisher\",\"quantity\"\n"
+                + "0-14-044913-7,\"Crime and Punishment\nA Novel in Six Parts, with an Epilogue\",Fyodor Dostoevsky,Penguin,2\n"
+                + "\n"
+                + "0-14-044792-4,\"War and Peace\",Leo Tolstoy,Penguin,many\n"
+                + "0-14-044913-9,\"Anna Karenina\",Leo Tolstoy,\"Penguin, Classics\",1\n";
+
+        ImportResult importResult = this.bookImportService.importBooks(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), BookImportService.Format.CSV);
+
+        Assertions.assertEquals(3, importResult.getReceived());
+        Assertions.assertEquals(2, importResult.getImported());
+        Assertions.assertEquals(5, importResult.getErrors().get(0).getLine(), "lines should count the break inside the quoted title");
+        Assertions.assertEquals("Crime and Punishment\nA Novel in Six Parts, with an Epilogue", this.bookService.getBookByISBN("0-14-044913-7").getTitle());
+        Assertions.assertEquals("Penguin, Classics", this.bookService.getBookByISBN("0-14-044913-9").getPublisher());
+    }
+
+    @Test
+    public void importCsvWithoutHeader() {
+        Assertions.assertThrows(BadRequestException.class, () -> this.bookImportService.importBooks(new ByteArrayInputStream(new byte[0]), BookImportService.Format.CSV));
+    }
+
+    @Test
+    public void importNdjson() throws BadRequestException, IOException, ResourceNotFoundException {
+        String ndjson = "{\"title\":\"Dune\",\"author\":\"Frank Herbert\",\"publisher\":\"Chilton Books\",\"isbn\":\"0-8019-5077-6\",\"quantity\":4}\n"
+                + "\n"
+                + "{\"title\":\"Emma\",\"author\":\"Jane Austen\",\"publisher\":\"John Murray\",\"isbn\":\"0-14-143958-7\",\"quantity\":1}\n"
+                + "{\"title\":\"Broken\"\n";
+
+        ImportResult importResult = this.bookImportService.importBooks(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), BookImportService.Format.NDJSON);
+
+        Assertions.assertEquals(3, importResult.getReceived());
+        Assertions.assertEquals(2, importResult.getImported());
+        Assertions.assertEquals(4, importResult.getErrors().get(0).getLine());
+        Assertions.assertEquals(4, this.bookService.getBookByISBN("0-8019-5077-6").getQuantity());
+    }
+}
@@ -0,0 +1,132 @@
+package com.lms.co.za.service;
+
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Book;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.lms.co.za.support.BookDataGenerator.book;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:book-stock-tests", "spring.datasource.hikari.maximum-pool-size=20", "logging.level.sql=info"})
+@AutoConfigureMockMvc
+class BookStockTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookStockTests.class);
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    public void adjustStock() throws ResourceNotFoundException, InsufficientStockException {
+        Book book = this.bookService.createBook(book("0-345-33968-1", 1));
+
+        Assertions.assertEquals(3, this.bookService.adjustStock(book.getIsbn(), 2).getQuantity());
+        Assertions.assertEquals(0, this.bookService.adjustStock(book.getIsbn(), -3).getQuantity());
+        Assertions.assertThrows(InsufficientStockException.class, () -> this.bookService.adjustStock(book.getIsbn(), -1), "stock should never go below zero");
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.adjustStock("0-000-00000-0", 1));
+        Assertions.assertEquals(0, this.bookService.getBookById(book.getId()).getQuantity(), "cached book should reflect the adjustment");
+    }
+
+    @Test
+    public void concurrentCheckoutsNeverOversell() throws Exception {
+        int stock = 100;
+        int checkouts = 400;
+        Book book = this.bookService.createBook(book("0-345-33968-2", stock));
+
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(200);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < checkouts; i++){
+            futures.add(executorService.submit(() -> {
+                start.await();
+                try {
+                    this.bookService.adjustStock(book.getIsbn(), -1);
+                    succeeded.incrementAndGet();
+                }catch (InsufficientStockException insufficientStockException){
+                    rejected.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for(Future<?> future : futures){
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        Assertions.assertEquals(stock, succeeded.get(), "every copy in stock should be checked out exactly once");
+        Assertions.assertEquals(checkouts - stock, rejected.get());
+        Assertions.assertEquals(0, this.bookService.getBookByISBN(book.getIsbn()).getQuantity());
+    }
+
+    @Test
+    public void updatesRacingCheckoutsAreAnsweredWithAConflict() throws Exception {
+        int rounds = 50;
+        Book book = this.bookService.createBook(book("0-345-33968-4", rounds));
+        String update = "{\"title\":\"Renamed\",\"author\":\"Generated Author\",\"publisher\":\"Generated Press\",\"isbn\":\"0-345-33968-4\",\"quantity\":" + rounds + "}";
+
+        Map<Integer, AtomicInteger> statuses = new ConcurrentHashMap<>();
+        AtomicInteger checkedOut = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        Future<?> updates = executorService.submit(() -> {
+            start.await();
+            for(int i = 0; i < rounds; i++){
+                MockHttpServletResponse response = this.mockMvc.perform(put("/v1/book/" + book.getId()).contentType(MediaType.APPLICATION_JSON).content(update))
+                        .andReturn().getResponse();
+                //an error body sent with a 200 is counted as a 500.
+                int status = response.getStatus() == HttpStatus.OK.value() && !response.getContentAsString().contains("\"isbn\"") ? HttpStatus.INTERNAL_SERVER_ERROR.value() : response.getStatus();
+                statuses.computeIfAbsent(status, key -> new AtomicInteger()).incrementAndGet();
+            }
+            return null;
+        });
+        Future<?> checkouts = executorService.submit(() -> {
+            start.await();
+            for(int i = 0; i < rounds; i++){
+                try {
+                    this.bookService.adjustStock(book.getIsbn(), -1);
+                    checkedOut.incrementAndGet();
+                }catch (InsufficientStockException insufficientStockException){
+                    //an update put the quantity back above what was lent, the next round takes it.
+                }
+            }
+            return null;
+        });
+        start.countDown();
+        updates.get(60, TimeUnit.SECONDS);
+        checkouts.get(60, TimeUnit.SECONDS);
+        executorService.shutdown();
+
+        Assertions.assertTrue(statuses.keySet().stream().allMatch(status -> status == HttpStatus.OK.value() || status == HttpStatus.CONFLICT.value()),
+                "an update racing a checkout should succeed or be refused with a 409, was: " + statuses.keySet());
+        Assertions.assertEquals(rounds, statuses.values().stream().mapToInt(AtomicInteger::get).sum());
+        logger.info("updates racing checkouts: {} checkouts, update statuses {}", checkedOut.get(), statuses);
+    }
+}
@@ -0,0 +1,254 @@
+package com.lms.co.za.service;
+
+import com.lms.co.za.exception.InsufficientStockException;
+import com.lms.co.za.exception.LoanStateException;
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.Loan;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.lms.co.za.support.BookDataGenerator.book;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {"spring.datasource.url=jdbc:h2:mem:loan-tests", "spring.datasource.hikari.maximum-pool-size=20",
+        "logging.level.sql=info"})
+@AutoConfigureMockMvc
+class LoanTests {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoanTests.class);
+
+    @Autowired
+    LoanService loanService;
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    public void checkoutAndReturn() throws Exception {
+        Book book = this.bookService.createBook(book("0-441-17271-1", 2));
+
+        Loan loan = this.loanService.checkout(book.getIsbn(), "member-1");
+        Assertions.assertEquals(Loan.Status.ON_LOAN, loan.getStatus());
+        Assertions.assertEquals(Duration.ofDays(14), Duration.between(loan.getCheckedOut(), loan.getDue()));
+        Assertions.assertEquals(1, this.bookService.getBookByISBN(book.getIsbn()).getQuantity(), "cached book should reflect the checkout");
+
+        Loan returned = this.loanService.returnLoan(loan.getId());
+        Assertions.assertEquals(Loan.Status.RETURNED, returned.getStatus());
+        Assertions.assertNotNull(returned.getClosed());
+        Assertions.assertEquals(2, this.bookService.getBookByISBN(book.getIsbn()).getQuantity());
+        Assertions.assertThrows(LoanStateException.class, () -> this.loanService.returnLoan(loan.getId()), "a copy can only come back once");
+
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.loanService.checkout("0-000-00000-0", "member-1"));
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.loanService.returnLoan(-1L));
+    }
+
+    @Test
+    public void returnedCopiesGoToTheHoldQueueInOrder() throws Exception {
+        Book book = this.bookService.createBook(book("0-441-17271-2", 1));
+        Assertions.assertThrows(LoanStateException.class, () -> this.loanService.placeHold(book.getIsbn(), "member-2"), "a title in stock is checked out, not held");
+        Loan loan = this.loanService.checkout(book.getIsbn(), "member-1");
+
+        Loan first = this.loanService.placeHold(book.getIsbn(), "member-2");
+        Loan second = this.loanService.placeHold(book.getIsbn(), "member-3");
+        Loan third = this.loanService.placeHold(book.getIsbn(), "member-4");
+        Assertions.assertEquals(Loan.Status.WAITING, first.getStatus());
+        Assertions.assertEquals(1, first.getQueuePosition());
+        Assertions.assertEquals(3, third.getQueuePosition());
+        Assertions.assertThrows(LoanStateException.class, () -> this.loanService.placeHold(book.getIsbn(), "member-2"));
+        Assertions.assertThrows(InsufficientStockException.class, () -> this.loanService.checkout(book.getIsbn(), "member-5"));
+
+        //the returned copy is set aside for the first in the queue, the shelf stays empty.
+        this.loanService.returnLoan(loan.getId());
+        Assertions.assertEquals(0, this.bookService.getBookByISBN(book.getIsbn()).getQuantity());
+        Assertions.assertEquals(Loan.Status.READY, this.loanService.getLoanById(first.getId()).getStatus());
+        Assertions.assertEquals(1, this.loanService.getLoanById(second.getId()).getQueuePosition());
+        Assertions.assertThrows(InsufficientStockException.class, () -> this.loanService.checkout(book.getIsbn(), "member-3"), "the copy is set aside for member-2");
+
+        //a ready hold that is cancelled passes its copy to the next in the queue.
+        this.loanService.cancelHold(first.getId());
+        Assertions.assertEquals(Loan.Status.READY, this.loanService.getLoanById(second.getId()).getStatus());
+        Assertions.assertThrows(LoanStateException.class, () -> this.loanService.cancelHold(first.getId()));
+
+        Loan checkedOut = this.loanService.checkout(book.getIsbn(), "member-3");
+        Assertions.assertEquals(second.getId(), checkedOut.getId(), "the ready hold becomes the loan");
+        Assertions.assertEquals(Loan.Status.ON_LOAN, checkedOut.getStatus());
+
+        List<Loan> queue = this.loanService.getHoldQueue(book.getIsbn());
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertEquals(third.getId(), queue.get(0).getId());
+        Assertions.assertEquals(1, queue.get(0).getQueuePosition());
+
+        this.loanService.cancelHold(third.getId());
+        this.loanService.returnLoan(checkedOut.getId());
+        Assertions.assertEquals(1, this.bookService.getBookByISBN(book.getIsbn()).getQuantity(), "with no one waiting the copy goes back on the shelf");
+    }
+
+    @Test
+    public void addedCopiesGoToTheHoldQueueBeforeTheShelf() throws Exception {
+        Book book = this.bookService.createBook(book("0-441-17271-5", 1));
+        Loan loan = this.loanService.checkout(book.getIsbn(), "member-1");
+        Loan first = this.loanService.placeHold(book.getIsbn(), "member-2");
+        Loan second = this.loanService.placeHold(book.getIsbn(), "member-3");
+
+        //a new copy through the stock endpoint is set aside for the first in the queue, not lent to a walk-in.
+        Assertions.assertEquals(0, this.bookService.adjustStock(book.getIsbn(), 1).getQuantity());
+        Assertions.assertEquals(Loan.Status.READY, this.loanService.getLoanById(first.getId()).getStatus());
+        Assertions.assertThrows(InsufficientStockException.class, () -> this.loanService.checkout(book.getIsbn(), "member-4"));
+
+        //two more copies through an update, one for the rest of the queue and one for the shelf.
+        Book update = this.bookService.getBookByISBN(book.getIsbn());
+        update.setQuantity(2);
+        Assertions.assertEquals(1, this.bookService.updateBook(book.getId(), update).getQuantity());
+        Assertions.assertEquals(Loan.Status.READY, this.loanService.getLoanById(second.getId()).getStatus());
+        Assertions.assertEquals(1, this.bookService.getBookByISBN(book.getIsbn()).getQuantity());
+        Assertions.assertEquals(Loan.Status.ON_LOAN, this.loanService.checkout(book.getIsbn(), "member-4").getStatus());
+
+        //a copy left on the shelf while someone waits, a return that raced a hold being placed, goes to the queue on
+        //the next checkout. A walk-in is turned away, the copy stays with the queue all the same.
+        this.jdbcTemplate.update("UPDATE BOOKS SET QUANTITY = 1 WHERE ID = ?", book.getId());
+        this.jdbcTemplate.update("INSERT INTO LOANS(BOOK_ID, ISBN, BORROWER, STATUS) VALUES (?, ?, 'member-5', 'WAITING')", book.getId(), book.getIsbn());
+        Assertions.assertThrows(InsufficientStockException.class, () -> this.loanService.checkout(book.getIsbn(), "member-6"));
+        Assertions.assertEquals(Loan.Status.READY, this.loanService.getLoansByBorrower("member-5").get(0).getStatus());
+        Assertions.assertEquals(0, this.bookService.getBookByISBN(book.getIsbn()).getQuantity());
+
+        //the borrower at the head of the queue gets the copy.
+        this.jdbcTemplate.update("UPDATE BOOKS SET QUANTITY = 1 WHERE ID = ?", book.getId());
+        this.jdbcTemplate.update("INSERT INTO LOANS(BOOK_ID, ISBN, BORROWER, STATUS) VALUES (?, ?, 'member-7', 'WAITING')", book.getId(), book.getIsbn());
+        Assertions.assertEquals(Loan.Status.ON_LOAN, this.loanService.checkout(book.getIsbn(), "member-7").getStatus());
+        Assertions.assertEquals(0, this.jdbcTemplate.queryForObject("SELECT QUANTITY FROM BOOKS WHERE ID = ?", Integer.class, book.getId()));
+    }
+
+    @Test
+    public void returnOfADeletedBookLogsNoChange() throws Exception {
+        Book book = this.bookService.createBook(book("0-441-17271-6", 1));
+        Loan loan = this.loanService.checkout(book.getIsbn(), "member-1");
+        this.bookService.deleteBookById(book.getId());
+
+        this.loanService.returnLoan(loan.getId());
+        Integer updates = this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM BOOK_CHANGES WHERE BOOK_ID = ? AND OPERATION = 'UPDATED' AND SEQUENCE_NUMBER > "
+                + "(SELECT MAX(SEQUENCE_NUMBER) FROM BOOK_CHANGES WHERE BOOK_ID = ? AND OPERATION = 'DELETED')", Integer.class, book.getId(), book.getId());
+        Assertions.assertEquals(0, updates, "a copy of a deleted book has no shelf to go back to");
+    }
+
+    @Test
+    public void concurrentCheckoutsNeverOversell() throws Exception {
+        int stock = 50;
+        int checkouts = 1000;
+        Book book = this.bookService.createBook(book("0-441-17271-3", stock));
+
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        List<Long> loans = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(200);
+        List<Future<?>> futures = new ArrayList<>();
+        for(int i = 0; i < checkouts; i++){
+            String borrower = "member-" + i;
+            futures.add(executorService.submit(() -> {
+                start.await();
+                try {
+                    Loan loan = this.loanService.checkout(book.getIsbn(), borrower);
+                    succeeded.incrementAndGet();
+                    synchronized (loans){
+                        loans.add(loan.getId());
+                    }
+                }catch (InsufficientStockException insufficientStockException){
+                    rejected.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Future<?> future : futures){
+            future.get(60, TimeUnit.SECONDS);
+        }
+        long elapsedNanos = System.nanoTime() - begin;
+        logger.info("{} concurrent checkouts of {} copies in {} ms, {} requests/s", checkouts, stock, elapsedNanos / 1_000_000, (long) (checkouts / (elapsedNanos / 1e9)));
+
+        Assertions.assertEquals(stock, succeeded.get(), "every copy should be lent exactly once");
+        Assertions.assertEquals(checkouts - stock, rejected.get());
+        Assertions.assertEquals(0, this.bookService.getBookByISBN(book.getIsbn()).getQuantity());
+        Assertions.assertEquals(stock, onLoan(book));
+
+        //the same loan returned from many threads at once puts back one copy.
+        AtomicInteger returned = new AtomicInteger();
+        CountDownLatch returnStart = new CountDownLatch(1);
+        futures.clear();
+        for(int i = 0; i < 20; i++){
+            futures.add(executorService.submit(() -> {
+                returnStart.await();
+                try {
+                    this.loanService.returnLoan(loans.get(0));
+                    returned.incrementAndGet();
+                }catch (LoanStateException loanStateException){
+                    //lost to the return that counted.
+                }
+                return null;
+            }));
+        }
+        returnStart.countDown();
+        for(Future<?> future : futures){
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+        Assertions.assertEquals(1, returned.get());
+        Assertions.assertEquals(1, this.bookService.getBookByISBN(book.getIsbn()).getQuantity());
+        Assertions.assertEquals(stock - 1, onLoan(book));
+    }
+
+    @Test
+    public void checkoutOverHttp() throws Exception {
+        Book book = this.bookService.createBook(book("0-441-17271-4", 1));
+
+        MvcResult loan = this.mockMvc.perform(post("/v1/book/isbn/" + book.getIsbn() + "/loans").param("borrower", "member-1"))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.status").value("ON_LOAN"))
+                .andReturn();
+        String location = loan.getResponse().getHeader(HttpHeaders.LOCATION);
+        Assertions.assertNotNull(location);
+
+        this.mockMvc.perform(post("/v1/book/isbn/" + book.getIsbn() + "/loans").param("borrower", "member-2"))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.code").value(409));
+
+        this.mockMvc.perform(post(location.substring(location.indexOf("/v1/")) + "/return"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("RETURNED"));
+        this.mockMvc.perform(post(location.substring(location.indexOf("/v1/")) + "/return"))
+                .andExpect(status().isConflict());
+    }
+
+    private int onLoan(Book book) {
+        Integer count = this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM LOANS WHERE BOOK_ID = ? AND STATUS = 'ON_LOAN'", Integer.class, book.getId());
+        return count != null ? count : 0;
+    }
+}
@@ -0,0 +1,100 @@
+package com.lms.co.za.storage;
+
+import com.lms.co.za.exception.ResourceNotFoundException;
+import com.lms.co.za.model.Book;
+import com.lms.co.za.model.BookSnapshot;
+import com.lms.co.za.service.BookService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.stream.Stream;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("persistent")
+class BookSnapshotsTests {
+
+    @TempDir
+    static Path directory;
+
+    @DynamicPropertySource
+    static void storage(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> "jdbc:h2:file:" + directory.resolve("node").resolve("bookstore").toAbsolutePath());
+        registry.add("library.storage.snapshot-directory", () -> directory.resolve("snapshots").toAbsolutePath().toString());
+        registry.add("library.storage.keep-snapshots", () -> "2");
+    }
+
+    @Autowired
+    BookService bookService;
+
+    @Autowired
+    BookSnapshots bookSnapshots;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    public void snapshotEndpointIsNotExposedByDefault() throws Exception {
+        this.mockMvc.perform(get("/actuator/snapshot")).andExpect(status().isNotFound());
+        this.mockMvc.perform(post("/actuator/snapshot")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void snapshotRestoresIntoANewDatabase() throws Exception {
+        //the persistent profile starts without the sample books.
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> this.bookService.getAllBooks());
+        Book book = new Book();
+        book.setTitle("Snapshot");
+        book.setAuthor("Snapshot Author");
+        book.setPublisher("Snapshot Press");
+        book.setIsbn("978-0-00-000005-0");
+        book.setQuantity(7);
+        this.bookService.createBook(book);
+
+        BookSnapshot snapshot = this.bookSnapshots.create();
+        Assertions.assertEquals(1, snapshot.getBookCount());
+        Assertions.assertEquals(Paths.get(snapshot.getFile()), this.bookSnapshots.latest());
+
+        String restoredUrl = "jdbc:h2:file:" + directory.resolve("restored").resolve("bookstore").toAbsolutePath();
+        Assertions.assertTrue(BookSnapshots.restoreIfMissing(restoredUrl, snapshot.getFile()));
+        //an existing database is left alone.
+        Assertions.assertFalse(BookSnapshots.restoreIfMissing(restoredUrl, snapshot.getFile()));
+
+        try (Connection connection = DriverManager.getConnection(restoredUrl, "admin", "password");
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT TITLE, QUANTITY FROM BOOKS WHERE ISBN = '978-0-00-000005-0'")) {
+            Assertions.assertTrue(resultSet.next());
+            Assertions.assertEquals("Snapshot", resultSet.getString(1));
+            Assertions.assertEquals(7, resultSet.getInt(2));
+        }
+    }
+
+    @Test
+    public void onlyTheNewestSnapshotsAreKept() throws Exception {
+        for(int i = 0; i < 4; i++){
+            this.bookSnapshots.create();
+        }
+        try (Stream<Path> snapshots = Files.list(directory.resolve("snapshots"))) {
+            Assertions.assertEquals(2, snapshots.count());
+        }
+    }
+}
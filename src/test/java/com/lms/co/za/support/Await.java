@@ -0,0 +1,47 @@
+package com.lms.co.za.support;
+
+import org.junit.jupiter.api.Assertions;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Waits for work done on background threads, the isbn filter load, replica sync, peer invalidations, by polling until a
+ * condition holds. Every wait gives up after the same timeout and fails the test with what was last seen, so a
+ * condition that never comes true can't hang the build.
+ */
+public final class Await {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+    private static final long POLL_MILLIS = 20;
+
+    private Await() {
+    }
+
+    public static void until(Condition condition, String message) throws Exception {
+        until(condition::holds, done -> done, done -> message);
+    }
+
+    /**
+     * @return the value that satisfied done.
+     */
+    public static <T> T until(Read<T> read, Predicate<T> done, Function<T, String> message) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        T value;
+        while(!done.test(value = read.read())){
+            if(System.currentTimeMillis() >= deadline){
+                Assertions.fail(message.apply(value) + " within " + TIMEOUT_MILLIS / 1000 + " seconds");
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        return value;
+    }
+
+    public interface Condition {
+        boolean holds() throws Exception;
+    }
+
+    public interface Read<T> {
+        T read() throws Exception;
+    }
+}
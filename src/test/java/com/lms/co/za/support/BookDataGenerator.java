@@ -0,0 +1,122 @@
+package com.lms.co.za.support;
+
+import com.lms.co.za.model.Book;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+
+/**
+ * Generates a deterministic synthetic catalogue, used in place of the three rows in data.sql when a test or benchmark
+ * needs a realistic amount of data. Book n always gets the same title, author, publisher and ISBN, so runs are comparable.
+ * Roughly ten books share an author and publishers are drawn from a pool of two hundred.
+ */
+public final class BookDataGenerator {
+
+    private static final int INSERT_BATCH_SIZE = 5000;
+    private static final String INSERT_BOOK = "INSERT INTO BOOKS (TITLE, AUTHOR, PUBLISHER, ISBN, QUANTITY) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String[] FIRST_NAMES = {
+            "Stephen", "Agatha", "George", "Jane", "Terry", "Ursula", "Haruki", "Toni", "Neil", "Margaret",
+            "Chinua", "Isabel", "Kazuo", "Zadie", "Arthur", "Doris", "Gabriel", "Octavia", "Philip", "Virginia"
+    };
+    private static final String[] LAST_NAMES = {
+            "King", "Christie", "Martin", "Austen", "Pratchett", "Le Guin", "Murakami", "Morrison", "Gaiman", "Atwood",
+            "Achebe", "Allende", "Ishiguro", "Smith", "Clarke", "Lessing", "Marquez", "Butler", "Dick", "Woolf",
+            "Brown", "Herbert", "Tolkien", "Orwell", "Bradbury"
+    };
+    private static final String[] WORDS = {
+            "Shadow", "River", "Garden", "Winter", "Storm", "Silent", "Crown", "Glass", "Iron", "Forgotten",
+            "Empire", "Night", "Ocean", "Fire", "Stone", "Hollow", "Golden", "Last", "Hidden", "City",
+            "Dream", "Road", "Mirror", "Secret", "Tide", "Harbor", "Wolf", "Star", "Ember", "Orchard",
+            "Silver", "Raven", "Desert", "Bridge", "Lantern", "Echo", "Thorn", "Meadow", "Tower", "Voyage"
+    };
+    private static final String[] PUBLISHER_SUFFIXES = {"Press", "Books", "House", "Publishing", "Editions"};
+
+    private BookDataGenerator() {
+    }
+
+    /**
+     * Replaces the contents of the BOOKS table with `rows` generated books, ids run from 1 to `rows`.
+     */
+    public static void generate(JdbcTemplate jdbcTemplate, int rows) {
+        jdbcTemplate.execute("TRUNCATE TABLE BOOKS RESTART IDENTITY");
+        for(int offset = 0; offset < rows; offset += INSERT_BATCH_SIZE){
+            int from = offset;
+            int count = Math.min(INSERT_BATCH_SIZE, rows - offset);
+            jdbcTemplate.batchUpdate(INSERT_BOOK, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement preparedStatement, int i) throws SQLException {
+                    Book book = book(from + i, rows);
+                    preparedStatement.setString(1, book.getTitle());
+                    preparedStatement.setString(2, book.getAuthor());
+                    preparedStatement.setString(3, book.getPublisher());
+                    preparedStatement.setString(4, book.getIsbn());
+                    preparedStatement.setInt(5, book.getQuantity());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return count;
+                }
+            });
+        }
+    }
+
+    /**
+     * @param index zero based position of the book, its id once generated is index + 1.
+     * @param rows  size of the catalogue the book belongs to, drives how many distinct authors there are.
+     */
+    public static Book book(long index, int rows) {
+        Random random = new Random(index);
+        Book book = new Book();
+        book.setTitle(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]);
+        book.setAuthor(author(index % authorCount(rows)));
+        book.setPublisher(WORDS[(int) (index % WORDS.length)] + " " + PUBLISHER_SUFFIXES[(int) ((index / WORDS.length) % PUBLISHER_SUFFIXES.length)]);
+        book.setIsbn(isbn(index));
+        book.setQuantity(random.nextInt(20));
+        return book;
+    }
+
+    /**
+     * A book to create where only its ISBN and stock matter to the test.
+     */
+    public static Book book(String isbn, int quantity) {
+        Book book = new Book();
+        book.setTitle("Generated Title");
+        book.setAuthor("Generated Author");
+        book.setPublisher("Generated Press");
+        book.setIsbn(isbn);
+        book.setQuantity(quantity);
+        return book;
+    }
+
+    /**
+     * A stored book with the fields the search index reads.
+     */
+    public static Book book(Long id, String title, String author, String publisher) {
+        Book book = new Book();
+        book.setId(id);
+        book.setTitle(title);
+        book.setAuthor(author);
+        book.setPublisher(publisher);
+        return book;
+    }
+
+    public static String isbn(long index) {
+        return String.format("978-%010d", index);
+    }
+
+    public static int authorCount(int rows) {
+        return Math.max(1, rows / 10);
+    }
+
+    public static String author(long authorIndex) {
+        int names = FIRST_NAMES.length * LAST_NAMES.length;
+        String author = FIRST_NAMES[(int) (authorIndex % FIRST_NAMES.length)] + " " + LAST_NAMES[(int) ((authorIndex / FIRST_NAMES.length) % LAST_NAMES.length)];
+        //once every first and last name pair is used, a generation number keeps authors distinct.
+        return authorIndex < names ? author : author + " " + (authorIndex / names + 1);
+    }
+}